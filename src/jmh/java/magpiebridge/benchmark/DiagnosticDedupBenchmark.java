@@ -0,0 +1,95 @@
+package magpiebridge.benchmark;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import magpiebridge.core.DiagnosticKey;
+import magpiebridge.core.ResultStore;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticRelatedInformation;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares ingesting diagnostics of a single file one by one with the former {@code List.contains}
+ * deduplication against the {@link ResultStore} indexed by {@link DiagnosticKey}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiagnosticDedupBenchmark {
+
+  @Param({"1000", "5000", "10000"})
+  public int diagnosticCount;
+
+  private URL url;
+
+  private List<Diagnostic> diagnostics;
+
+  @Setup
+  public void setup() throws MalformedURLException {
+    url = new URL("file:///Generated.java");
+    diagnostics = diagnostics(url, diagnosticCount);
+  }
+
+  @Benchmark
+  public int listContains() {
+    List<Diagnostic> diagList = new ArrayList<>();
+    for (Diagnostic d : diagnostics) {
+      if (!diagList.contains(d)) {
+        diagList.add(d);
+      }
+    }
+    return diagList.size();
+  }
+
+  @Benchmark
+  public int indexed() {
+    ResultStore<Diagnostic> store = new ResultStore<>(DiagnosticKey::new);
+    for (Diagnostic d : diagnostics) {
+      store.add(url, "benchmark", Collections.singletonList(d));
+    }
+    return store.get(url).size();
+  }
+
+  /** Creates n diagnostics, every tenth one a duplicate, each with related information. */
+  private static List<Diagnostic> diagnostics(URL url, int n) {
+    List<Diagnostic> result = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      int line = i % 10 == 9 ? i - 1 : i;
+      Range range = new Range(new Position(line, 4), new Position(line, 40));
+      Diagnostic d =
+          new Diagnostic(
+              range,
+              "Finding in generated code at line " + line,
+              DiagnosticSeverity.Warning,
+              "benchmark");
+      List<DiagnosticRelatedInformation> related = new ArrayList<>();
+      related.add(
+          new DiagnosticRelatedInformation(
+              new Location(url.toString(), range), "related to line " + line));
+      d.setRelatedInformation(related);
+      result.add(d);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,143 @@
+package magpiebridge.benchmark;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import magpiebridge.core.AnalysisResult;
+import magpiebridge.core.Kind;
+import magpiebridge.core.MagpieServer;
+import magpiebridge.core.ServerConfiguration;
+import magpiebridge.project.java.SimpleResult;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how the server ingests the results of an analysis for a single file: {@link
+ * MagpieServer#consume} into an empty and into an already filled result store, the diagnostic
+ * consumer and location mapping it is built on, and adding a changed version of the file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiagnosticIngestionBenchmark {
+
+  private static final String LANGUAGE = "java";
+
+  private static final String SOURCE = "benchmark";
+
+  private static final String CLIENT_URI = "file:///benchmark/Generated.java";
+
+  @Param({"1", "100", "1000", "10000"})
+  public int resultCount;
+
+  private BenchmarkServer server;
+
+  private URL url;
+
+  private List<AnalysisResult> results;
+
+  private String[] texts;
+
+  private int version;
+
+  /** Exposes the protected steps of {@link MagpieServer#consume}. */
+  static class BenchmarkServer extends MagpieServer {
+    BenchmarkServer(ServerConfiguration config) {
+      super(config);
+    }
+
+    Consumer<AnalysisResult> diagnosticConsumer(List<Diagnostic> diagList) {
+      return createDiagnosticConsumer(diagList, SOURCE);
+    }
+
+    Location locationFrom(AnalysisResult result) {
+      return getLocationFrom(result.position());
+    }
+
+    void clearDiagnostics(URL url) {
+      diagnostics.remove(url);
+    }
+  }
+
+  @Setup
+  public void setup() throws MalformedURLException {
+    ServerConfiguration config = new ServerConfiguration();
+    // publish rarely, the publisher isn't measured here
+    config.setPublishMaxLatency(60000);
+    server = new BenchmarkServer(config);
+    server.connect(new StubClient());
+    texts = new String[] {source(resultCount, "a"), source(resultCount, "b")};
+    server.addSource(LANGUAGE, texts[0], CLIENT_URI, version++);
+    url = new URL(CLIENT_URI);
+    results = new ArrayList<>();
+    for (int i = 1; i <= resultCount; i++) {
+      results.add(new SimpleResult(Kind.Diagnostic, "finding " + i, url, i, 4, i, 40));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.shutdown();
+  }
+
+  @Benchmark
+  public void consumeIntoEmptyStore() {
+    server.clearDiagnostics(url);
+    server.consume(results, SOURCE);
+  }
+
+  @Benchmark
+  public void consumeDuplicates() {
+    server.consume(results, SOURCE);
+  }
+
+  @Benchmark
+  public List<Diagnostic> createDiagnostics() {
+    List<Diagnostic> diagList = new ArrayList<>(resultCount);
+    Consumer<AnalysisResult> consumer = server.diagnosticConsumer(diagList);
+    for (AnalysisResult result : results) {
+      consumer.accept(result);
+    }
+    return diagList;
+  }
+
+  @Benchmark
+  public void getLocationFrom(Blackhole blackhole) {
+    for (AnalysisResult result : results) {
+      blackhole.consume(server.locationFrom(result));
+    }
+  }
+
+  @Benchmark
+  public boolean addChangedSource() {
+    return server.addSource(LANGUAGE, texts[version % 2], CLIENT_URI, version++);
+  }
+
+  /** A class with one field per line. */
+  private static String source(int lines, String prefix) {
+    StringBuilder sb = new StringBuilder("class Generated {\n");
+    for (int i = 0; i < lines; i++) {
+      sb.append("  int ").append(prefix).append(i).append(";\n");
+    }
+    return sb.append("}\n").toString();
+  }
+}
@@ -0,0 +1,102 @@
+package magpiebridge.benchmark;
+
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.SourceModule;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import magpiebridge.core.AnalysisResult;
+import magpiebridge.core.Kind;
+import magpiebridge.core.MagpieServer;
+import magpiebridge.core.ServerAnalysis;
+import magpiebridge.project.java.SimpleResult;
+
+/**
+ * An analysis simulating the cost of a real one: it spends a fixed time per run, sleeping or
+ * spinning on the CPU, and reports a fixed number of diagnostics per analyzed document. The
+ * diagnostics depend on the content of the document, so every edit gets its diagnostics published
+ * like with a real analysis instead of being dropped as unchanged.
+ */
+public class FakeAnalysis implements ServerAnalysis {
+
+  private final long costMillis;
+
+  private final boolean busy;
+
+  private final int diagnosticsPerFile;
+
+  private final boolean requiresFileSystem;
+
+  /**
+   * @param costMillis the time spent per run
+   * @param busy spin on the CPU instead of sleeping
+   * @param diagnosticsPerFile the number of diagnostics reported per document
+   * @param requiresFileSystem let the server write the documents to disk like for WALA analyses
+   */
+  public FakeAnalysis(
+      long costMillis, boolean busy, int diagnosticsPerFile, boolean requiresFileSystem) {
+    this.costMillis = costMillis;
+    this.busy = busy;
+    this.diagnosticsPerFile = diagnosticsPerFile;
+    this.requiresFileSystem = requiresFileSystem;
+  }
+
+  @Override
+  public boolean requiresFileSystem() {
+    return requiresFileSystem;
+  }
+
+  @Override
+  public String source() {
+    return "load";
+  }
+
+  @Override
+  public void analyze(Collection<Module> files, MagpieServer server) {
+    if (busy) {
+      long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(costMillis);
+      while (System.nanoTime() < end) {
+        // simulated work
+      }
+    } else if (costMillis > 0) {
+      try {
+        Thread.sleep(costMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    List<AnalysisResult> results = new ArrayList<>();
+    for (Module file : files) {
+      if (!(file instanceof SourceModule)) {
+        continue;
+      }
+      SourceModule source = (SourceModule) file;
+      URL url = source.getURL();
+      String content = Integer.toHexString(contentHash(source));
+      for (int i = 1; i <= diagnosticsPerFile; i++) {
+        results.add(
+            new SimpleResult(Kind.Diagnostic, "finding " + i + " in " + content, url, i, 0, i, 10));
+      }
+    }
+    server.consume(results, source());
+  }
+
+  private static int contentHash(SourceModule file) {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[8192];
+    try (InputStream in = file.getInputStream()) {
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        crc.update(buffer, 0, n);
+      }
+    } catch (IOException e) {
+      return 0;
+    }
+    return (int) crc.getValue();
+  }
+}
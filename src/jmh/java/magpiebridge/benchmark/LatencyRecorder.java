@@ -0,0 +1,68 @@
+package magpiebridge.benchmark;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Records latencies per method and reports throughput and percentiles. Thread-safe. */
+public class LatencyRecorder {
+
+  /** The latencies in nanoseconds of one method, grown as needed. */
+  private static class Samples {
+    long[] values = new long[1024];
+    int size;
+
+    void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+  }
+
+  private final Map<String, Samples> samples = new TreeMap<>();
+
+  public synchronized void record(String method, long nanos) {
+    samples.computeIfAbsent(method, m -> new Samples()).add(nanos);
+  }
+
+  public synchronized int count(String method) {
+    Samples s = samples.get(method);
+    return s == null ? 0 : s.size;
+  }
+
+  /**
+   * Prints a table with the number of samples, their rate over the run and the latency percentiles
+   * in milliseconds of every method.
+   *
+   * @param out the stream to print to
+   * @param elapsedNanos the duration of the run
+   */
+  public synchronized void report(PrintStream out, long elapsedNanos) {
+    out.println(
+        String.format(
+            "%-36s %8s %10s %10s %10s %10s %10s",
+            "method", "count", "per sec", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+    for (Map.Entry<String, Samples> e : samples.entrySet()) {
+      long[] sorted = Arrays.copyOf(e.getValue().values, e.getValue().size);
+      Arrays.sort(sorted);
+      out.println(
+          String.format(
+              "%-36s %8d %10.1f %10.3f %10.3f %10.3f %10.3f",
+              e.getKey(),
+              sorted.length,
+              sorted.length / (elapsedNanos / 1e9),
+              percentile(sorted, 0.5) / 1e6,
+              percentile(sorted, 0.99) / 1e6,
+              percentile(sorted, 0.999) / 1e6,
+              sorted[sorted.length - 1] / 1e6));
+    }
+  }
+
+  /** The nearest-rank percentile of sorted values. */
+  static long percentile(long[] sorted, double p) {
+    int rank = (int) Math.ceil(p * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+  }
+}
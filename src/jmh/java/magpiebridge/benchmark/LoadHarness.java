@@ -0,0 +1,274 @@
+package magpiebridge.benchmark;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import magpiebridge.core.MagpieServer;
+import magpiebridge.core.ServerConfiguration;
+import org.eclipse.lsp4j.InitializeParams;
+import org.eclipse.lsp4j.InitializedParams;
+import org.eclipse.lsp4j.jsonrpc.Launcher;
+import org.eclipse.lsp4j.jsonrpc.RemoteEndpoint;
+import org.eclipse.lsp4j.launch.LSPLauncher;
+import org.eclipse.lsp4j.services.LanguageServer;
+
+/**
+ * Load test of a {@link MagpieServer} running in-process. A scripted client is connected to {@link
+ * MagpieServer#launchOnStream} over pipes and sends a recorded or generated session, as fast as
+ * possible or at a fixed rate. Reported per method are the throughput and the latency percentiles:
+ * for requests the time until the response, for didOpen and didChange the time until the
+ * diagnostics of the document are published. With a fixed rate latencies are measured from the time
+ * a message was due, so a server falling behind shows in the latencies instead of slowing down the
+ * client.
+ *
+ * <p>Run with {@code mvn -P benchmark test-compile exec:exec@load -Dload.args="--rate 500"}, the
+ * options are printed by {@code --help}.
+ */
+public class LoadHarness {
+
+  private static final Map<String, String> OPTIONS = new LinkedHashMap<>();
+
+  static {
+    OPTIONS.put("trace", "comma separated trace files of a recorded session, oldest first");
+    OPTIONS.put("documents", "20");
+    OPTIONS.put("lines", "200");
+    OPTIONS.put("rounds", "50");
+    OPTIONS.put("hovers", "2");
+    OPTIONS.put("seed", "42");
+    OPTIONS.put("rate", "0");
+    OPTIONS.put("analysis-cost", "50");
+    OPTIONS.put("analysis-busy", "false");
+    OPTIONS.put("diagnostics", "10");
+    OPTIONS.put("analysis-files", "true");
+    OPTIONS.put("quiet-period", "300");
+    OPTIONS.put("analysis-threads", Integer.toString(Runtime.getRuntime().availableProcessors()));
+    OPTIONS.put("timeout", "60");
+  }
+
+  /** A didOpen or didChange waiting for the diagnostics of its document. */
+  private static class Pending {
+    final String method;
+    final long due;
+
+    Pending(String method, long due) {
+      this.method = method;
+      this.due = due;
+    }
+  }
+
+  private final Map<String, String> options;
+
+  private final LatencyRecorder recorder = new LatencyRecorder();
+
+  private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+  private final AtomicInteger errors = new AtomicInteger();
+
+  private RemoteEndpoint endpoint;
+
+  public LoadHarness(Map<String, String> options) {
+    this.options = options;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = parseOptions(args);
+    if (options == null) {
+      System.err.println("Options of " + LoadHarness.class.getName() + ":");
+      OPTIONS.forEach((name, value) -> System.err.println("  --" + name + " (" + value + ")"));
+      System.exit(1);
+    }
+    new LoadHarness(options).run();
+    // the jsonrpc threads of lsp4j aren't daemons
+    System.exit(0);
+  }
+
+  /** @return the options with their defaults, or null if an option is unknown or --help given */
+  static Map<String, String> parseOptions(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    OPTIONS.forEach(
+        (name, value) -> {
+          if (!name.equals("trace")) {
+            options.put(name, value);
+          }
+        });
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--")) {
+        return null;
+      }
+      String name = args[i].substring(2);
+      String value;
+      int eq = name.indexOf('=');
+      if (eq >= 0) {
+        value = name.substring(eq + 1);
+        name = name.substring(0, eq);
+      } else if (i + 1 < args.length) {
+        value = args[++i];
+      } else {
+        return null;
+      }
+      if (!OPTIONS.containsKey(name)) {
+        return null;
+      }
+      options.put(name, value);
+    }
+    return options;
+  }
+
+  private long option(String name) {
+    return Long.parseLong(options.get(name));
+  }
+
+  public void run() throws IOException, InterruptedException, ExecutionException {
+    LoadSession session = session();
+    ServerConfiguration config = new ServerConfiguration();
+    config.setAnalysisQuietPeriod(option("quiet-period"));
+    config.setAnalysisThreads((int) option("analysis-threads"));
+    MagpieServer server = new MagpieServer(config);
+    server.addAnalysis(
+        "java",
+        new FakeAnalysis(
+            option("analysis-cost"),
+            Boolean.parseBoolean(options.get("analysis-busy")),
+            (int) option("diagnostics"),
+            Boolean.parseBoolean(options.get("analysis-files"))));
+
+    Pipe toServer = Pipe.open();
+    Pipe toClient = Pipe.open();
+    server.launchOnStream(
+        Channels.newInputStream(toServer.source()), Channels.newOutputStream(toClient.sink()));
+    StubClient client = new StubClient();
+    client.setListener(
+        params -> {
+          Pending p = pending.remove(params.getUri());
+          if (p != null) {
+            recorder.record(p.method + " -> publish", System.nanoTime() - p.due);
+          }
+        });
+    Launcher<LanguageServer> launcher =
+        LSPLauncher.createClientLauncher(
+            client,
+            Channels.newInputStream(toClient.source()),
+            Channels.newOutputStream(toServer.sink()));
+    launcher.startListening();
+    endpoint = launcher.getRemoteEndpoint();
+
+    if (!session.isInitializing()) {
+      send(new LoadSession.Message("initialize", new InitializeParams(), true, null), now()).get();
+      send(new LoadSession.Message("initialized", new InitializedParams(), false, null), now());
+    }
+    List<LoadSession.Message> messages = session.getMessages();
+    List<CompletableFuture<Object>> responses = new ArrayList<>();
+    long rate = option("rate");
+    long start = now();
+    for (int i = 0; i < messages.size(); i++) {
+      long due = start;
+      if (rate > 0) {
+        due += i * TimeUnit.SECONDS.toNanos(1) / rate;
+        while (now() < due) {
+          LockSupport.parkNanos(due - now());
+        }
+      } else {
+        due = now();
+      }
+      CompletableFuture<Object> response = send(messages.get(i), due);
+      if (response != null) {
+        responses.add(response);
+      }
+    }
+    long sent = now();
+    long deadline = sent + TimeUnit.SECONDS.toNanos(option("timeout"));
+    try {
+      CompletableFuture.allOf(responses.toArray(new CompletableFuture[0]))
+          .get(deadline - now(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      System.err.println("Timed out waiting for responses");
+    }
+    while (!pending.isEmpty() && now() < deadline) {
+      Thread.sleep(10);
+    }
+    long end = now();
+    try {
+      endpoint.request("shutdown", null).get(10, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      System.err.println("Timed out waiting for shutdown");
+    }
+    endpoint.notify("exit", null);
+
+    System.out.println(
+        String.format(
+            "%d messages sent in %.3f s (%.1f per sec), all answered after %.3f s",
+            messages.size(),
+            (sent - start) / 1e9,
+            messages.size() / ((sent - start) / 1e9),
+            (end - start) / 1e9));
+    recorder.report(System.out, end - start);
+    if (!pending.isEmpty()) {
+      System.out.println(pending.size() + " documents got no diagnostics published");
+    }
+    if (errors.get() > 0) {
+      System.out.println(errors.get() + " requests failed");
+    }
+  }
+
+  private LoadSession session() throws IOException {
+    String trace = options.get("trace");
+    if (trace != null) {
+      List<Path> traces = new ArrayList<>();
+      for (String file : trace.split(",")) {
+        traces.add(Paths.get(file));
+      }
+      return LoadSession.fromTraces(traces);
+    }
+    return LoadSession.synthetic(
+        (int) option("documents"),
+        (int) option("lines"),
+        (int) option("rounds"),
+        (int) option("hovers"),
+        option("seed"));
+  }
+
+  /**
+   * Sends a message which was due at the given time.
+   *
+   * @return the response of a request, or null for a notification
+   */
+  private CompletableFuture<Object> send(LoadSession.Message message, long due) {
+    if (!message.request) {
+      if (message.uri != null
+          && (message.method.equals("textDocument/didOpen")
+              || message.method.equals("textDocument/didChange"))) {
+        // the first edit the diagnostics are waited for
+        pending.putIfAbsent(message.uri, new Pending(message.method, due));
+      }
+      endpoint.notify(message.method, message.params);
+      return null;
+    }
+    return endpoint
+        .request(message.method, message.params)
+        .whenComplete(
+            (result, error) -> {
+              recorder.record(message.method, now() - due);
+              if (error != null) {
+                errors.incrementAndGet();
+              }
+            });
+  }
+
+  private static long now() {
+    return System.nanoTime();
+  }
+}
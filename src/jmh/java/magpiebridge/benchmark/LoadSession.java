@@ -0,0 +1,218 @@
+package magpiebridge.benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+import org.eclipse.lsp4j.TextDocumentItem;
+import org.eclipse.lsp4j.TextDocumentPositionParams;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
+
+/**
+ * The messages a client sends to the server during a session, either read from a recorded trace or
+ * generated.
+ */
+public class LoadSession {
+
+  /** Messages which end the session, the harness shuts the server down itself. */
+  private static final List<String> SESSION_END = Arrays.asList("shutdown", "exit");
+
+  private static final String HEADER = "Content-Length:";
+
+  /** A request or notification sent to the server. */
+  public static class Message {
+    public final String method;
+    /** The parameters, a {@link JsonElement} or an object serialized by lsp4j */
+    public final Object params;
+
+    public final boolean request;
+
+    /** The uri of the document the message is about, or null. */
+    public final String uri;
+
+    public Message(String method, Object params, boolean request, String uri) {
+      this.method = method;
+      this.params = params;
+      this.request = request;
+      this.uri = uri;
+    }
+  }
+
+  private final List<Message> messages;
+
+  private LoadSession(List<Message> messages) {
+    this.messages = messages;
+  }
+
+  public List<Message> getMessages() {
+    return Collections.unmodifiableList(messages);
+  }
+
+  /** @return true if the session starts with an initialize request */
+  public boolean isInitializing() {
+    return !messages.isEmpty() && messages.get(0).method.equals("initialize");
+  }
+
+  /**
+   * Reads the messages a client sent from traces of the stream into the server, e.g. the magpie.in
+   * trace files written with {@link magpiebridge.core.WireTrace.Mode#FILE}. Rotated files are
+   * concatenated in the given order, a message cut off at the start of the first file is skipped.
+   * Responses of the client and the end of the session are left out.
+   *
+   * @param traces the trace files, oldest first
+   */
+  public static LoadSession fromTraces(List<Path> traces) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (Path trace : traces) {
+      bytes.write(Files.readAllBytes(trace));
+    }
+    byte[] stream = bytes.toByteArray();
+    List<Message> messages = new ArrayList<>();
+    int pos = indexOf(stream, HEADER, 0);
+    while (pos >= 0) {
+      int lineEnd = indexOf(stream, "\r\n", pos);
+      int headerEnd = indexOf(stream, "\r\n\r\n", pos);
+      if (lineEnd < 0 || headerEnd < 0) {
+        break;
+      }
+      int bodyStart = headerEnd + 4;
+      int length;
+      try {
+        length =
+            Integer.parseInt(
+                new String(
+                        stream,
+                        pos + HEADER.length(),
+                        lineEnd - pos - HEADER.length(),
+                        StandardCharsets.US_ASCII)
+                    .trim());
+      } catch (NumberFormatException e) {
+        pos = indexOf(stream, HEADER, pos + HEADER.length());
+        continue;
+      }
+      if (bodyStart + length > stream.length) {
+        break;
+      }
+      String body = new String(stream, bodyStart, length, StandardCharsets.UTF_8);
+      try {
+        JsonObject json = new JsonParser().parse(body).getAsJsonObject();
+        if (json.has("method") && !SESSION_END.contains(json.get("method").getAsString())) {
+          JsonElement params = json.get("params");
+          messages.add(
+              new Message(json.get("method").getAsString(), params, json.has("id"), uri(params)));
+        }
+        pos = indexOf(stream, HEADER, bodyStart + length);
+      } catch (JsonParseException | IllegalStateException e) {
+        // not a complete message, e.g. cut off by the rotation of the trace
+        pos = indexOf(stream, HEADER, bodyStart);
+      }
+    }
+    return new LoadSession(messages);
+  }
+
+  private static int indexOf(byte[] bytes, String ascii, int from) {
+    byte[] pattern = ascii.getBytes(StandardCharsets.US_ASCII);
+    outer:
+    for (int i = Math.max(0, from); i <= bytes.length - pattern.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (bytes[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static String uri(JsonElement params) {
+    if (params != null && params.isJsonObject()) {
+      JsonObject object = params.getAsJsonObject();
+      if (object.has("textDocument") && object.get("textDocument").isJsonObject()) {
+        JsonElement uri = object.getAsJsonObject("textDocument").get("uri");
+        return uri == null ? null : uri.getAsString();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Generates a session editing java documents: all documents are opened, then in every round each
+   * document gets a one character edit followed by hover requests at random positions.
+   *
+   * @param documents the number of documents
+   * @param lines the number of lines per document
+   * @param rounds the number of edit rounds
+   * @param hovers the number of hover requests per edit
+   * @param seed the seed of the random positions
+   */
+  public static LoadSession synthetic(int documents, int lines, int rounds, int hovers, long seed) {
+    Random random = new Random(seed);
+    List<Message> messages = new ArrayList<>();
+    for (int d = 0; d < documents; d++) {
+      String uri = uri(d);
+      TextDocumentItem item = new TextDocumentItem(uri, "java", 1, text(d, lines));
+      messages.add(
+          new Message("textDocument/didOpen", new DidOpenTextDocumentParams(item), false, uri));
+    }
+    for (int r = 0; r < rounds; r++) {
+      for (int d = 0; d < documents; d++) {
+        String uri = uri(d);
+        // appends a space to the end of a field declaration
+        int line = 1 + random.nextInt(lines);
+        Position end = new Position(line, fieldLength(d, line - 1));
+        TextDocumentContentChangeEvent change =
+            new TextDocumentContentChangeEvent(new Range(end, end), 0, " ");
+        DidChangeTextDocumentParams params =
+            new DidChangeTextDocumentParams(
+                new VersionedTextDocumentIdentifier(uri, r + 2), Collections.singletonList(change));
+        messages.add(new Message("textDocument/didChange", params, false, uri));
+        for (int h = 0; h < hovers; h++) {
+          Position position = new Position(1 + random.nextInt(lines), 2 + random.nextInt(6));
+          messages.add(
+              new Message(
+                  "textDocument/hover",
+                  new TextDocumentPositionParams(new TextDocumentIdentifier(uri), position),
+                  true,
+                  uri));
+        }
+      }
+    }
+    return new LoadSession(messages);
+  }
+
+  private static String uri(int document) {
+    return "file:///load/src/Document" + document + ".java";
+  }
+
+  private static String field(int document, int line) {
+    return "  int field" + document + "_" + line + ";";
+  }
+
+  private static int fieldLength(int document, int line) {
+    return field(document, line).length();
+  }
+
+  private static String text(int document, int lines) {
+    StringBuilder sb = new StringBuilder("class Document" + document + " {\n");
+    for (int i = 0; i < lines; i++) {
+      sb.append(field(document, i)).append('\n');
+    }
+    return sb.append("}\n").toString();
+  }
+}
@@ -0,0 +1,134 @@
+package magpiebridge.benchmark;
+
+import com.ibm.wala.classLoader.Module;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import magpiebridge.core.AnalysisResult;
+import magpiebridge.core.Kind;
+import magpiebridge.core.MagpieServer;
+import magpiebridge.core.ServerAnalysis;
+import magpiebridge.core.ServerConfiguration;
+import magpiebridge.project.java.SimpleResult;
+import org.eclipse.lsp4j.DidCloseTextDocumentParams;
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
+import org.eclipse.lsp4j.InitializeParams;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+import org.eclipse.lsp4j.TextDocumentItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency from a didOpen notification to the diagnostics of the opened document
+ * arriving at the client, through scheduling, the analysis run, result ingestion and publishing.
+ * The analysis itself reports a fixed number of findings without looking at the code, and the quiet
+ * period is zero, so the time is spent in the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishLatencyBenchmark {
+
+  private static final String LANGUAGE = "java";
+
+  @Param({"1", "100", "1000"})
+  public int diagnosticCount;
+
+  private MagpieServer server;
+
+  private StubClient client;
+
+  private int documentCount;
+
+  /** The document opened by the current invocation. */
+  private volatile String clientUri;
+
+  /** Counted down when the diagnostics of the current document are published. */
+  private volatile CountDownLatch published;
+
+  @Setup
+  public void setup() {
+    ServerConfiguration config = new ServerConfiguration();
+    config.setAnalysisQuietPeriod(0);
+    config.setClearResultsOnClose(true);
+    server = new MagpieServer(config);
+    server.initialize(new InitializeParams());
+    server.addAnalysis(
+        LANGUAGE,
+        new ServerAnalysis() {
+          @Override
+          public String source() {
+            return "benchmark";
+          }
+
+          @Override
+          public void analyze(Collection<Module> files, MagpieServer server) {
+            URL url;
+            try {
+              url = new URL(clientUri);
+            } catch (MalformedURLException e) {
+              throw new IllegalStateException(e);
+            }
+            List<AnalysisResult> results = new ArrayList<>();
+            for (int i = 1; i <= diagnosticCount; i++) {
+              results.add(new SimpleResult(Kind.Diagnostic, "finding " + i, url, i, 0, i, 10));
+            }
+            server.consume(results, source());
+          }
+        });
+    client = new StubClient();
+    client.setListener(
+        params -> {
+          CountDownLatch latch = published;
+          if (latch != null
+              && params.getUri().equals(clientUri)
+              && !params.getDiagnostics().isEmpty()) {
+            latch.countDown();
+          }
+        });
+    server.connect(client);
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.shutdown();
+  }
+
+  @Benchmark
+  public void didOpenToPublish() throws InterruptedException, TimeoutException {
+    clientUri = "file:///benchmark/Document" + documentCount++ + ".java";
+    published = new CountDownLatch(1);
+    TextDocumentItem doc = new TextDocumentItem(clientUri, LANGUAGE, 1, "class Document {}");
+    server.getTextDocumentService().didOpen(new DidOpenTextDocumentParams(doc));
+    if (!published.await(10, TimeUnit.SECONDS)) {
+      throw new TimeoutException("No diagnostics published for " + clientUri);
+    }
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeDocument() {
+    published = null;
+    server
+        .getTextDocumentService()
+        .didClose(new DidCloseTextDocumentParams(new TextDocumentIdentifier(clientUri)));
+  }
+}
@@ -0,0 +1,97 @@
+package magpiebridge.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import magpiebridge.projectservice.java.InferSourcePath;
+import magpiebridge.projectservice.java.SourceRootCache;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures source root inference over a synthetic workspace of several modules, each with a
+ * src/main/java and a src/test/java root holding packages of generated classes: the parallel header
+ * scan, the former scan parsing every file, and a lookup in a warm {@link SourceRootCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourcePathBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  public int fileCount;
+
+  @Param({"4"})
+  public int moduleCount;
+
+  @Param({"20"})
+  public int filesPerPackage;
+
+  private Path workspace;
+
+  private Path cacheDirectory;
+
+  private SourceRootCache cache;
+
+  @Setup
+  public void setup() throws IOException {
+    workspace = Files.createTempDirectory("workspace");
+    cacheDirectory = Files.createTempDirectory("sourcepath");
+    int packages = Math.max(1, fileCount / filesPerPackage);
+    for (int p = 0; p < packages; p++) {
+      Path module = workspace.resolve("module" + p % moduleCount);
+      Path root = module.resolve(p % 4 == 3 ? "src/test/java" : "src/main/java");
+      String packageName = "org.example.module" + p % moduleCount + ".p" + p;
+      Path dir = Files.createDirectories(root.resolve(packageName.replace('.', '/')));
+      for (int f = 0; f < filesPerPackage; f++) {
+        String text =
+            "/*\n * Copyright header\n */\npackage "
+                + packageName
+                + ";\n\nimport java.util.List;\n\npublic class C"
+                + f
+                + " {\n  List<String> names;\n\n  public int size() {\n    return names.size();\n  }\n}\n";
+        Files.write(dir.resolve("C" + f + ".java"), text.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    cache = new SourceRootCache(cacheDirectory);
+    InferSourcePath.sourcePath(workspace, cache);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(workspace.toFile());
+    FileUtils.deleteDirectory(cacheDirectory.toFile());
+  }
+
+  @Benchmark
+  public Set<Path> scan() {
+    return InferSourcePath.sourcePath(workspace, true);
+  }
+
+  @Benchmark
+  public Set<Path> parse() {
+    return InferSourcePath.sourcePath(workspace, false);
+  }
+
+  @Benchmark
+  public Set<Path> cached() {
+    return InferSourcePath.sourcePath(workspace, cache);
+  }
+}
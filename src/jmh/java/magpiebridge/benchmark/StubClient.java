@@ -0,0 +1,38 @@
+package magpiebridge.benchmark;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import org.eclipse.lsp4j.MessageActionItem;
+import org.eclipse.lsp4j.MessageParams;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.eclipse.lsp4j.ShowMessageRequestParams;
+import org.eclipse.lsp4j.services.LanguageClient;
+
+/** A {@link LanguageClient} handing the published diagnostics to a listener. */
+public class StubClient implements LanguageClient {
+  private volatile Consumer<PublishDiagnosticsParams> listener = params -> {};
+
+  public void setListener(Consumer<PublishDiagnosticsParams> listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void telemetryEvent(Object object) {}
+
+  @Override
+  public void publishDiagnostics(PublishDiagnosticsParams diagnostics) {
+    listener.accept(diagnostics);
+  }
+
+  @Override
+  public void showMessage(MessageParams messageParams) {}
+
+  @Override
+  public CompletableFuture<MessageActionItem> showMessageRequest(
+      ShowMessageRequestParams requestParams) {
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public void logMessage(MessageParams message) {}
+}
@@ -0,0 +1,135 @@
+package magpiebridge.projectservice.java;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures class path inference of a maven project against a fake local repository, so it runs
+ * offline and independent of the content of ~/.m2. Every artifact depends on the next two, the
+ * project on the first few, so resolution walks the whole repository. Lives in this package to use
+ * the constructor of {@link InferConfig} taking the repository locations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassPathBenchmark {
+
+  private static final String GROUP = "benchmark";
+
+  @Param({"10", "100", "500"})
+  public int artifactCount;
+
+  @Param({"5"})
+  public int directCount;
+
+  private Path directory;
+
+  private Path mavenHome;
+
+  private Path gradleHome;
+
+  private Path project;
+
+  private ClassPathCache cache;
+
+  @Setup
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("classpath");
+    mavenHome = directory.resolve("m2");
+    gradleHome = directory.resolve("gradle");
+    project = Files.createDirectories(directory.resolve("project"));
+    Path repository = mavenHome.resolve("repository");
+    for (int i = 0; i < artifactCount; i++) {
+      String artifactId = "lib" + i;
+      Path dir =
+          Files.createDirectories(repository.resolve(GROUP).resolve(artifactId).resolve("1"));
+      StringBuilder dependencies = new StringBuilder();
+      for (int j = i + 1; j <= i + 2 && j < artifactCount; j++) {
+        dependencies.append(dependency("lib" + j));
+      }
+      write(
+          dir.resolve(artifactId + "-1.pom"),
+          pom(artifactId, "<dependencies>" + dependencies + "</dependencies>"));
+      Files.createFile(dir.resolve(artifactId + "-1.jar"));
+    }
+    StringBuilder dependencies = new StringBuilder();
+    for (int i = 0; i < Math.min(directCount, artifactCount); i++) {
+      dependencies.append(dependency("lib" + i));
+    }
+    write(
+        project.resolve("pom.xml"),
+        pom("project", "<dependencies>" + dependencies + "</dependencies>"));
+    cache = new ClassPathCache(directory.resolve("cache"));
+    infer(cache).classPath();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(directory.toFile());
+  }
+
+  @Benchmark
+  public Optional<List<Artifact>> resolveDependencies() {
+    return new MavenPomResolver(mavenHome.resolve("repository"))
+        .dependencies(project.resolve("pom.xml"));
+  }
+
+  @Benchmark
+  public Set<Path> inferClassPath() {
+    return infer(null).classPath();
+  }
+
+  @Benchmark
+  public Set<Path> cachedClassPath() {
+    return infer(cache).classPath();
+  }
+
+  private InferConfig infer(ClassPathCache cache) {
+    return new InferConfig(project, Collections.emptySet(), mavenHome, gradleHome, cache);
+  }
+
+  private static String pom(String artifactId, String content) {
+    return "<project><groupId>"
+        + GROUP
+        + "</groupId><artifactId>"
+        + artifactId
+        + "</artifactId><version>1</version>"
+        + content
+        + "</project>";
+  }
+
+  private static String dependency(String artifactId) {
+    return "<dependency><groupId>"
+        + GROUP
+        + "</groupId><artifactId>"
+        + artifactId
+        + "</artifactId><version>1</version></dependency>";
+  }
+
+  private static void write(Path file, String content) throws IOException {
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,140 @@
+package magpiebridge.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class AnalysisScheduler runs the analyses of a {@link MagpieServer} off the message thread.
+ * Triggers are debounced per language: a run starts only after the configured quiet period passed
+ * without a new trigger, so a burst of triggers is coalesced into one run. A trigger arriving while
+ * a run is in flight cancels that run, the files it did not finish are analyzed by the next one.
+ * Each language has its own thread, so the runs of a language are serial while a slow analysis of
+ * one language doesn't hold up the others.
+ */
+public class AnalysisScheduler {
+
+  /** The server. */
+  private final MagpieServer server;
+
+  /** The quiet period in milliseconds. */
+  private final long quietPeriod;
+
+  /** The executors running the analyses, one thread per language. */
+  private final Map<String, ScheduledExecutorService> executors;
+
+  /** The pending runs per language. */
+  private final Map<String, ScheduledFuture<?>> pendingRuns;
+
+  /** The tokens of the runs in flight per language. */
+  private final Map<String, CancellationToken> runningTokens;
+
+  /**
+   * Instantiates a new analysis scheduler.
+   *
+   * @param server the server
+   * @param quietPeriod the quiet period in milliseconds
+   */
+  public AnalysisScheduler(MagpieServer server, long quietPeriod) {
+    this.server = server;
+    this.quietPeriod = quietPeriod;
+    this.executors = new HashMap<>();
+    this.pendingRuns = new HashMap<>();
+    this.runningTokens = new HashMap<>();
+  }
+
+  /**
+   * Schedule an analysis run for the given language.
+   *
+   * @param language the language
+   */
+  public synchronized void schedule(String language) {
+    ScheduledFuture<?> pending = pendingRuns.get(language);
+    if (pending != null) {
+      // coalesce with the run not started yet
+      pending.cancel(false);
+    }
+    CancellationToken running = runningTokens.get(language);
+    if (running != null) {
+      // superseded by the newer trigger
+      running.cancel();
+    }
+    Run run = new Run(language);
+    run.future = executor(language).schedule(run, quietPeriod, TimeUnit.MILLISECONDS);
+    pendingRuns.put(language, run.future);
+  }
+
+  /**
+   * Checks if a run of the given language is waiting for its quiet period to pass.
+   *
+   * @param language the language
+   * @return true, if a run is pending
+   */
+  public synchronized boolean isPending(String language) {
+    return pendingRuns.containsKey(language);
+  }
+
+  private ScheduledExecutorService executor(String language) {
+    return executors.computeIfAbsent(
+        language,
+        l ->
+            Executors.newSingleThreadScheduledExecutor(
+                r -> {
+                  Thread t = new Thread(r, "magpie-analysis-scheduler-" + l);
+                  t.setDaemon(true);
+                  return t;
+                }));
+  }
+
+  private void run(String language, ScheduledFuture<?> future) {
+    CancellationToken token = new CancellationToken();
+    synchronized (this) {
+      if (!pendingRuns.remove(language, future)) {
+        // superseded by a newer trigger before it started
+        return;
+      }
+      runningTokens.put(language, token);
+    }
+    try {
+      server.doAnalysis(language, token);
+    } catch (CancellationException e) {
+      // superseded by a newer run
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    } finally {
+      synchronized (this) {
+        runningTokens.remove(language, token);
+      }
+    }
+  }
+
+  /** Cancel all runs and stop the scheduler. */
+  public synchronized void shutdown() {
+    pendingRuns.values().forEach(f -> f.cancel(false));
+    runningTokens.values().forEach(CancellationToken::cancel);
+    executors.values().forEach(ScheduledExecutorService::shutdownNow);
+  }
+
+  /** A scheduled run, knowing its own future. */
+  private class Run implements Runnable {
+    private final String language;
+    private ScheduledFuture<?> future;
+
+    private Run(String language) {
+      this.language = language;
+    }
+
+    @Override
+    public void run() {
+      ScheduledFuture<?> own;
+      synchronized (AnalysisScheduler.this) {
+        own = future;
+      }
+      AnalysisScheduler.this.run(language, own);
+    }
+  }
+}
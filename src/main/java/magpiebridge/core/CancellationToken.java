@@ -0,0 +1,65 @@
+package magpiebridge.core;
+
+import java.util.concurrent.CancellationException;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+
+/**
+ * The Class CancellationToken is passed to a {@link ServerAnalysis} to signal that its run has been
+ * superseded, e.g. because a newer version of an analyzed document arrived. Long running analyses
+ * should check it regularly and stop early once it is cancelled.
+ */
+public class CancellationToken implements CancelChecker {
+
+  /** A token which is never cancelled. */
+  public static final CancellationToken NONE =
+      new CancellationToken() {
+        @Override
+        public void cancel() {}
+      };
+
+  /** The parent token, or null. */
+  private final CancellationToken parent;
+
+  /** The cancelled flag. */
+  private volatile boolean cancelled;
+
+  /** Instantiates a new cancellation token. */
+  public CancellationToken() {
+    this(null);
+  }
+
+  /**
+   * Instantiates a new cancellation token which is also cancelled when its parent gets cancelled.
+   *
+   * @param parent the parent token
+   */
+  public CancellationToken(CancellationToken parent) {
+    this.parent = parent;
+  }
+
+  /** Cancel the run this token belongs to. */
+  public void cancel() {
+    this.cancelled = true;
+  }
+
+  /**
+   * Checks if the run this token belongs to is cancelled.
+   *
+   * @return true, if cancelled
+   */
+  public boolean isCancelled() {
+    return cancelled || (parent != null && parent.isCancelled());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.eclipse.lsp4j.jsonrpc.CancelChecker#checkCanceled()
+   */
+  @Override
+  public void checkCanceled() {
+    if (isCancelled()) {
+      throw new CancellationException();
+    }
+  }
+}
@@ -0,0 +1,450 @@
+package magpiebridge.core;
+
+import com.ibm.wala.cast.java.ipa.callgraph.JavaSourceAnalysisScope;
+import com.ibm.wala.classLoader.BinaryDirectoryTreeModule;
+import com.ibm.wala.classLoader.ClassLoaderFactoryImpl;
+import com.ibm.wala.classLoader.IClassLoader;
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.ClassHierarchyFactory;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.util.config.FileOfClasses;
+import com.ibm.wala.util.config.SetOfClasses;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.jar.JarFile;
+import magpiebridge.projectservice.java.ClassPathCache;
+
+/**
+ * The Class ClassHierarchyService builds the library part of a WALA analysis scope and class
+ * hierarchy once and shares it between analysis runs. The JDK is loaded by the primordial loader
+ * and the libraries of the project by the extension loader. WALA reads the JDK from rt.jar, a
+ * server running on Java 9 or later needs the path of a Java 8 JDK, see {@link
+ * ServerConfiguration#setJdkPath}. A {@link Library} is cached by a fingerprint of its jars (path,
+ * size and modification time) and exclusions, so it is built again once a jar changes.
+ *
+ * <p>The most recently used libraries are kept, up to the capacity of the service, through soft
+ * references: the garbage collector may drop a library which no analysis is using when memory gets
+ * low, it is then built again on the next request.
+ *
+ * <p>An analysis layers its application code on top of a library:
+ *
+ * <pre>
+ * Library library = server.getClassHierarchyService().getLibrary(javaProjectService);
+ * AnalysisScope scope = library.newScope(applicationPath);
+ * IClassHierarchy cha = library.classHierarchy(scope);
+ * </pre>
+ *
+ * The class hierarchies layered on a library share its class loaders, so the library classes are
+ * parsed only once. WALA classes are not thread-safe, analyses using the same library should be
+ * declared mutually exclusive with {@link MagpieServer#declareMutuallyExclusive}.
+ */
+public class ClassHierarchyService {
+
+  /** The number of libraries kept. */
+  private final int capacity;
+
+  /** The JDK jars, empty if there is no JDK WALA can read. */
+  private final List<Path> jdkJars;
+
+  /** Where the JDK jars were looked for. */
+  private final Path jdkLocation;
+
+  /** The libraries by fingerprint, least recently used first. */
+  private final LinkedHashMap<String, Entry> entries;
+
+  /** The metrics. */
+  private final MetricsRegistry metrics;
+
+  /** The tracer. */
+  private final Tracer tracer;
+
+  /**
+   * Instantiates a new class hierarchy service.
+   *
+   * @param capacity the number of libraries kept
+   */
+  public ClassHierarchyService(int capacity) {
+    this(capacity, null, new MetricsRegistry(false), new Tracer(0));
+  }
+
+  /**
+   * Instantiates a new class hierarchy service using the running JDK and recording the cache hits
+   * and build times.
+   *
+   * @param capacity the number of libraries kept
+   * @param metrics the metrics
+   * @param tracer the tracer
+   */
+  public ClassHierarchyService(int capacity, MetricsRegistry metrics, Tracer tracer) {
+    this(capacity, null, metrics, tracer);
+  }
+
+  /**
+   * Instantiates a new class hierarchy service recording the cache hits and build times.
+   *
+   * @param capacity the number of libraries kept
+   * @param jdkPath the home or rt.jar of the JDK, or null for the running JDK
+   * @param metrics the metrics
+   * @param tracer the tracer
+   * @throws IllegalArgumentException if the JDK path has no rt.jar
+   */
+  public ClassHierarchyService(int capacity, Path jdkPath, MetricsRegistry metrics, Tracer tracer) {
+    if (jdkPath == null) {
+      this.jdkLocation = Paths.get(System.getProperty("java.home"));
+      this.jdkJars = jdkLibraries(jdkLocation);
+    } else {
+      this.jdkLocation = jdkPath;
+      this.jdkJars = jdkLibraries(jdkPath);
+      if (jdkJars.isEmpty()) {
+        throw new IllegalArgumentException("No rt.jar in the JDK path " + jdkPath);
+      }
+    }
+    this.capacity = Math.max(1, capacity);
+    this.metrics = metrics;
+    this.tracer = tracer;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Gets the jars of the running JDK, i.e. rt.jar. WALA can't read the modules of Java 9 and later,
+   * in that case the list is empty and the JDK jars must be passed explicitly.
+   *
+   * @return the JDK jars
+   */
+  public static List<Path> jdkLibraries() {
+    return jdkLibraries(Paths.get(System.getProperty("java.home")));
+  }
+
+  /**
+   * Gets the jars of a JDK, i.e. rt.jar.
+   *
+   * @param jdkPath the home of a JDK or JRE, or its rt.jar
+   * @return the JDK jars, empty if there is no rt.jar
+   */
+  public static List<Path> jdkLibraries(Path jdkPath) {
+    if (Files.isRegularFile(jdkPath)) {
+      return Collections.singletonList(jdkPath);
+    }
+    for (Path rt : new Path[] {jdkPath.resolve("lib/rt.jar"), jdkPath.resolve("jre/lib/rt.jar")}) {
+      if (Files.exists(rt)) {
+        return Collections.singletonList(rt);
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Gets the jars of the JDK the libraries of the java projects are built with.
+   *
+   * @return the JDK jars, empty if there is no JDK WALA can read
+   */
+  public List<Path> getJdkLibraries() {
+    return jdkJars;
+  }
+
+  /**
+   * Gets the library of a java project: the JDK and the library path of the project.
+   *
+   * @param project the project service
+   * @return the library
+   * @throws IOException if a jar can't be read
+   * @throws ClassHierarchyException if the class hierarchy can't be built, e.g. there is no JDK
+   */
+  public Library getLibrary(JavaProjectService project)
+      throws IOException, ClassHierarchyException {
+    if (jdkJars.isEmpty()) {
+      throw new ClassHierarchyException(
+          "No rt.jar in "
+              + jdkLocation
+              + ", WALA can't read the JDK of Java 9 and later. Set the path of a Java 8 JDK with"
+              + " ServerConfiguration#setJdkPath.");
+    }
+    return getLibrary(jdkJars, project.getLibraryPath(), null);
+  }
+
+  /**
+   * Gets the library of the given jars, building it unless it is cached.
+   *
+   * @param jdk the JDK jars, loaded by the primordial loader
+   * @param libraries the library jars and class directories, loaded by the extension loader
+   * @param exclusions the classes left out, in the format of WALA exclusion files, or null
+   * @return the library
+   * @throws IOException if a jar can't be read
+   * @throws ClassHierarchyException if the class hierarchy can't be built
+   */
+  public Library getLibrary(Collection<Path> jdk, Collection<Path> libraries, String exclusions)
+      throws IOException, ClassHierarchyException {
+    if (jdk.isEmpty()) {
+      throw new ClassHierarchyException("No JDK jars given");
+    }
+    List<Path> jdkPath = sorted(jdk);
+    List<Path> libraryPath = sorted(libraries);
+    String fingerprint = fingerprint(jdkPath, libraryPath, exclusions);
+    Entry entry;
+    synchronized (this) {
+      entry = entries.computeIfAbsent(fingerprint, f -> new Entry());
+      if (entries.size() > capacity) {
+        entries.remove(entries.keySet().iterator().next());
+      }
+    }
+    synchronized (entry) {
+      Library library = entry.library == null ? null : entry.library.get();
+      if (library != null) {
+        metrics.counter("cha.library.hits").inc();
+        return library;
+      }
+      metrics.counter("cha.library.misses").inc();
+      MetricsRegistry.Timer timer = metrics.timer("cha.library.build");
+      long start = timer.start();
+      try (Tracer.Span span =
+          tracer.span("cha", "build library").arg("jars", jdkPath.size() + libraryPath.size())) {
+        library = new Library(jdkPath, libraryPath, exclusions);
+        span.arg("classes", library.getClassHierarchy().getNumberOfClasses());
+      }
+      timer.stop(start);
+      entry.library = new SoftReference<>(library);
+      return library;
+    }
+  }
+
+  /** Discards all cached libraries. */
+  public synchronized void invalidate() {
+    entries.clear();
+  }
+
+  private static List<Path> sorted(Collection<Path> paths) {
+    List<Path> result = new ArrayList<>();
+    for (Path path : paths) {
+      result.add(path.toAbsolutePath().normalize());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  private static String fingerprint(List<Path> jdk, List<Path> libraries, String exclusions)
+      throws IOException {
+    ClassPathCache.Fingerprint fingerprint = new ClassPathCache.Fingerprint();
+    addFiles(fingerprint, jdk);
+    addFiles(fingerprint, libraries);
+    fingerprint.add(exclusions == null ? "" : exclusions);
+    return fingerprint.build();
+  }
+
+  /** Adds the paths and, for jars, their size and modification time. */
+  private static void addFiles(ClassPathCache.Fingerprint fingerprint, List<Path> paths)
+      throws IOException {
+    for (Path path : paths) {
+      fingerprint.add(path.toString());
+      if (Files.isRegularFile(path)) {
+        fingerprint.add(Long.toString(Files.size(path)));
+        fingerprint.add(Long.toString(Files.getLastModifiedTime(path).toMillis()));
+      }
+    }
+    fingerprint.add("");
+  }
+
+  private static void addToScope(AnalysisScope scope, ClassLoaderReference loader, Path path)
+      throws IOException {
+    Module module;
+    if (Files.isDirectory(path)) {
+      module = new BinaryDirectoryTreeModule(path.toFile());
+    } else if (Files.isRegularFile(path)) {
+      module = new JarFileModule(new JarFile(path.toFile()));
+    } else {
+      return;
+    }
+    scope.addToScope(loader, module);
+  }
+
+  /** A cached library, held softly. */
+  private static class Entry {
+    private SoftReference<Library> library;
+  }
+
+  /**
+   * The library part of an analysis scope and its class hierarchy, shared by the class hierarchies
+   * layered on top of it.
+   */
+  public class Library {
+
+    /** The scope with the JDK and the libraries. */
+    private final AnalysisScope scope;
+
+    /** The class hierarchy of the JDK and the libraries. */
+    private final IClassHierarchy classHierarchy;
+
+    private Library(List<Path> jdk, List<Path> libraries, String exclusions)
+        throws IOException, ClassHierarchyException {
+      scope = AnalysisScope.createJavaAnalysisScope();
+      if (exclusions != null) {
+        scope.setExclusions(
+            new FileOfClasses(
+                new ByteArrayInputStream(exclusions.getBytes(StandardCharsets.UTF_8))));
+      }
+      for (Path path : jdk) {
+        addToScope(scope, ClassLoaderReference.Primordial, path);
+      }
+      for (Path path : libraries) {
+        addToScope(scope, ClassLoaderReference.Extension, path);
+      }
+      classHierarchy = ClassHierarchyFactory.make(scope);
+    }
+
+    /**
+     * Gets the scope with the JDK and the libraries.
+     *
+     * @return the library scope, not to be modified
+     */
+    public AnalysisScope getScope() {
+      return scope;
+    }
+
+    /**
+     * Gets the class hierarchy of the JDK and the libraries.
+     *
+     * @return the library class hierarchy
+     */
+    public IClassHierarchy getClassHierarchy() {
+      return classHierarchy;
+    }
+
+    /**
+     * Creates a scope with the modules and exclusions of the library, for application code loaded
+     * as bytecode.
+     *
+     * @param applicationPath the jars and class directories of the application
+     * @return the new scope
+     * @throws IOException if a jar can't be read
+     */
+    public AnalysisScope newScope(Collection<Path> applicationPath) throws IOException {
+      return layer(AnalysisScope.createJavaAnalysisScope(), applicationPath);
+    }
+
+    /**
+     * Creates a scope with the modules and exclusions of the library and a source loader, for
+     * application code loaded from source. The source modules are added to {@link
+     * JavaSourceAnalysisScope#SOURCE}, the class hierarchy needs a {@link LayeredLoaderFactory}
+     * which creates the source loader.
+     *
+     * @param applicationPath the jars and class directories of the application
+     * @return the new scope
+     * @throws IOException if a jar can't be read
+     */
+    public JavaSourceAnalysisScope newSourceScope(Collection<Path> applicationPath)
+        throws IOException {
+      return layer(new JavaSourceAnalysisScope(), applicationPath);
+    }
+
+    private <T extends AnalysisScope> T layer(T layered, Collection<Path> applicationPath)
+        throws IOException {
+      layered.setExclusions(scope.getExclusions());
+      for (ClassLoaderReference loader :
+          new ClassLoaderReference[] {
+            ClassLoaderReference.Primordial, ClassLoaderReference.Extension
+          }) {
+        for (Module module : scope.getModules(loader)) {
+          layered.addToScope(loader, module);
+        }
+      }
+      for (Path path : applicationPath) {
+        addToScope(layered, ClassLoaderReference.Application, path);
+      }
+      return layered;
+    }
+
+    /**
+     * Builds the class hierarchy of a scope created by this library. Only the classes of the
+     * application loaders are loaded, the JDK and library classes are taken from the library.
+     *
+     * @param scope the scope
+     * @return the class hierarchy
+     * @throws ClassHierarchyException if the class hierarchy can't be built
+     */
+    public IClassHierarchy classHierarchy(AnalysisScope scope) throws ClassHierarchyException {
+      return classHierarchy(scope, new LayeredLoaderFactory(this, scope.getExclusions()));
+    }
+
+    /**
+     * Builds the class hierarchy of a scope created by this library with a custom loader factory,
+     * e.g. one creating a source loader.
+     *
+     * @param scope the scope
+     * @param factory the loader factory
+     * @return the class hierarchy
+     * @throws ClassHierarchyException if the class hierarchy can't be built
+     */
+    public IClassHierarchy classHierarchy(AnalysisScope scope, LayeredLoaderFactory factory)
+        throws ClassHierarchyException {
+      MetricsRegistry.Timer timer = metrics.timer("cha.layered.build");
+      long start = timer.start();
+      try {
+        return tracer
+            .span("cha", "build class hierarchy")
+            .call(() -> ClassHierarchyFactory.make(scope, factory));
+      } finally {
+        timer.stop(start);
+      }
+    }
+
+    /**
+     * Gets the loader of the library shared by the layered class hierarchies.
+     *
+     * @param loader the loader reference
+     * @return the shared loader, or null if the loader isn't part of the library
+     */
+    private IClassLoader sharedLoader(ClassLoaderReference loader) {
+      if (loader.equals(ClassLoaderReference.Primordial)
+          || loader.equals(ClassLoaderReference.Extension)) {
+        return classHierarchy.getLoader(loader);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The loader factory of a class hierarchy layered on a {@link Library}: the primordial and
+   * extension loaders are the ones of the library, the others are created. Analyses loading
+   * application source code extend it to create their source loader in {@link #makeNewClassLoader}.
+   */
+  public static class LayeredLoaderFactory extends ClassLoaderFactoryImpl {
+
+    /** The library. */
+    private final Library library;
+
+    /**
+     * Instantiates a new layered loader factory.
+     *
+     * @param library the library
+     * @param exclusions the exclusions
+     */
+    public LayeredLoaderFactory(Library library, SetOfClasses exclusions) {
+      super(exclusions);
+      this.library = library;
+    }
+
+    @Override
+    public IClassLoader getLoader(
+        ClassLoaderReference classLoaderReference, IClassHierarchy cha, AnalysisScope scope)
+        throws IOException {
+      IClassLoader shared = library.sharedLoader(classLoaderReference);
+      if (shared != null) {
+        return shared;
+      }
+      return super.getLoader(classLoaderReference, cha, scope);
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package magpiebridge.core;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.eclipse.lsp4j.CodeLens;
+import org.eclipse.lsp4j.Command;
+
+/**
+ * The Class CodeLensCache answers code lens requests of a document from the code lenses computed
+ * for its current version. The code lenses sent to the client carry only their range and a
+ * reference into the cache, their command is computed by {@link #resolve(CodeLens)} once the client
+ * shows them. Entries are dropped when the document changes. Each entry has its own generation, so
+ * a code lens of a replaced entry is never resolved against a newer one, even if the document was
+ * reopened with the same version.
+ */
+public class CodeLensCache {
+
+  /** The code lenses of a single document version. */
+  private static class Entry {
+    private final int generation;
+    private final int version;
+    private final List<CodeLens> results;
+    private final List<CodeLens> unresolved;
+    private final Command[] commands;
+
+    private Entry(int generation, int version, List<CodeLens> results, List<CodeLens> unresolved) {
+      this.generation = generation;
+      this.version = version;
+      this.results = results;
+      this.unresolved = unresolved;
+      this.commands = new Command[results.size()];
+    }
+  }
+
+  /** The cached code lenses, keyed by client uri. */
+  private final Map<String, Entry> entries;
+
+  /** The generation of the last created entry. */
+  private final AtomicInteger generations;
+
+  /** The function computing the command of a code lens. */
+  private final Function<CodeLens, Command> resolver;
+
+  /**
+   * Instantiates a new code lens cache.
+   *
+   * @param resolver the function computing the command of a code lens without one
+   */
+  public CodeLensCache(Function<CodeLens, Command> resolver) {
+    this.entries = new ConcurrentHashMap<>();
+    this.generations = new AtomicInteger();
+    this.resolver = resolver;
+  }
+
+  /**
+   * Gets the code lenses of a document version. They are computed from the given results only if
+   * the version or the results changed since the last request.
+   *
+   * @param clientUri the client uri
+   * @param version the document version
+   * @param results the code lenses reported by the analyses
+   * @return the code lenses to send to the client
+   */
+  public List<CodeLens> get(String clientUri, int version, List<CodeLens> results) {
+    Entry entry = entries.get(clientUri);
+    if (entry != null && entry.version == version && entry.results == results) {
+      return entry.unresolved;
+    }
+    int generation = generations.incrementAndGet();
+    List<CodeLens> unresolved = new ArrayList<>(results.size());
+    for (int i = 0; i < results.size(); i++) {
+      CodeLens result = results.get(i);
+      CodeLens codeLens = new CodeLens(result.getRange());
+      if (result.getCommand() != null) {
+        codeLens.setCommand(result.getCommand());
+      } else {
+        JsonObject data = new JsonObject();
+        data.addProperty("uri", clientUri);
+        data.addProperty("version", version);
+        data.addProperty("generation", generation);
+        data.addProperty("index", i);
+        codeLens.setData(data);
+      }
+      unresolved.add(codeLens);
+    }
+    entry = new Entry(generation, version, results, Collections.unmodifiableList(unresolved));
+    entries.put(clientUri, entry);
+    return entry.unresolved;
+  }
+
+  /**
+   * Resolves the command of a code lens sent to the client. Code lenses of outdated document
+   * versions or of replaced entries are returned unchanged.
+   *
+   * @param codeLens the code lens
+   * @return the code lens with its command
+   */
+  public CodeLens resolve(CodeLens codeLens) {
+    if (codeLens.getCommand() != null || !(codeLens.getData() instanceof JsonElement)) {
+      return codeLens;
+    }
+    JsonElement element = (JsonElement) codeLens.getData();
+    if (!element.isJsonObject()) {
+      return codeLens;
+    }
+    JsonObject data = element.getAsJsonObject();
+    if (!data.has("uri") || !data.has("version") || !data.has("generation") || !data.has("index")) {
+      return codeLens;
+    }
+    Entry entry = entries.get(data.get("uri").getAsString());
+    int index = data.get("index").getAsInt();
+    if (entry == null
+        || entry.version != data.get("version").getAsInt()
+        || entry.generation != data.get("generation").getAsInt()
+        || index < 0
+        || index >= entry.commands.length) {
+      return codeLens;
+    }
+    Command command = entry.commands[index];
+    if (command == null) {
+      command = resolver.apply(entry.results.get(index));
+      entry.commands[index] = command;
+    }
+    CodeLens resolved = new CodeLens(codeLens.getRange());
+    resolved.setCommand(command);
+    resolved.setData(codeLens.getData());
+    return resolved;
+  }
+
+  /**
+   * Removes the code lenses of a document, e.g. after it changed.
+   *
+   * @param clientUri the client uri
+   */
+  public void invalidate(String clientUri) {
+    entries.remove(clientUri);
+  }
+}
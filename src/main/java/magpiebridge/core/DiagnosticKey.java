@@ -0,0 +1,75 @@
+package magpiebridge.core;
+
+import java.util.Objects;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.Range;
+
+/**
+ * The Class DiagnosticKey identifies a {@link Diagnostic} by a fingerprint computed once from its
+ * range, severity, source and message hash. Looking up a diagnostic by this key costs O(1) and only
+ * falls back to comparing the messages and related information on a fingerprint match.
+ */
+public final class DiagnosticKey {
+
+  /** The diagnostic. */
+  private final Diagnostic diagnostic;
+
+  /** The fingerprint. */
+  private final int fingerprint;
+
+  /**
+   * Instantiates a new diagnostic key.
+   *
+   * @param diagnostic the diagnostic
+   */
+  public DiagnosticKey(Diagnostic diagnostic) {
+    this.diagnostic = diagnostic;
+    int hash = 17;
+    Range range = diagnostic.getRange();
+    if (range != null) {
+      hash = 31 * hash + range.getStart().getLine();
+      hash = 31 * hash + range.getStart().getCharacter();
+      hash = 31 * hash + range.getEnd().getLine();
+      hash = 31 * hash + range.getEnd().getCharacter();
+    }
+    hash = 31 * hash + Objects.hashCode(diagnostic.getSeverity());
+    hash = 31 * hash + Objects.hashCode(diagnostic.getSource());
+    hash = 31 * hash + Objects.hashCode(diagnostic.getMessage());
+    this.fingerprint = hash;
+  }
+
+  /**
+   * Gets the diagnostic.
+   *
+   * @return the diagnostic
+   */
+  public Diagnostic getDiagnostic() {
+    return diagnostic;
+  }
+
+  @Override
+  public int hashCode() {
+    return fingerprint;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof DiagnosticKey)) {
+      return false;
+    }
+    DiagnosticKey other = (DiagnosticKey) obj;
+    if (fingerprint != other.fingerprint) {
+      return false;
+    }
+    Diagnostic d = other.diagnostic;
+    return Objects.equals(diagnostic.getRange(), d.getRange())
+        && Objects.equals(diagnostic.getSeverity(), d.getSeverity())
+        && Objects.equals(diagnostic.getSource(), d.getSource())
+        && Objects.equals(diagnostic.getMessage(), d.getMessage())
+        && Objects.equals(diagnostic.getCode(), d.getCode())
+        && Objects.equals(diagnostic.getRelatedInformation(), d.getRelatedInformation());
+  }
+}
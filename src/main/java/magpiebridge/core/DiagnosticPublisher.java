@@ -0,0 +1,165 @@
+package magpiebridge.core;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+
+/**
+ * The Class DiagnosticPublisher sends the diagnostics of a {@link MagpieServer} to the client.
+ * Files whose diagnostics changed are buffered and published together, once per file, when an
+ * analysis run finishes or at the latest after the configured maximal latency. Publishing is
+ * skipped if the diagnostics of a file equal the ones sent last time.
+ *
+ * <p>If metrics are enabled, the publisher records the time from opening a file to publishing its
+ * first diagnostics as <code>didOpen.firstPublish</code>.
+ */
+public class DiagnosticPublisher {
+
+  /** The server. */
+  private final MagpieServer server;
+
+  /** The maximal latency in milliseconds. */
+  private final long maxLatency;
+
+  /** The files with pending diagnostics. */
+  private final Set<URL> pending;
+
+  /** The diagnostics published last, keyed by client uri. */
+  private final Map<String, List<Diagnostic>> published;
+
+  /** The timer flushing pending diagnostics. */
+  private final ScheduledExecutorService timer;
+
+  /** The scheduled flush, or null. */
+  private ScheduledFuture<?> scheduledFlush;
+
+  /** The times files were opened at, until their first diagnostics are published. */
+  private final Map<String, Long> opened;
+
+  /**
+   * Instantiates a new diagnostic publisher.
+   *
+   * @param server the server
+   * @param maxLatency the maximal latency in milliseconds
+   */
+  public DiagnosticPublisher(MagpieServer server, long maxLatency) {
+    this.server = server;
+    this.maxLatency = maxLatency;
+    this.pending = ConcurrentHashMap.newKeySet();
+    this.published = new ConcurrentHashMap<>();
+    this.opened = new ConcurrentHashMap<>();
+    this.timer =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "magpie-publisher");
+              t.setDaemon(true);
+              return t;
+            });
+  }
+
+  /**
+   * Marks the diagnostics of a file as changed. They are published with the next flush.
+   *
+   * @param url the file
+   */
+  public void markChanged(URL url) {
+    pending.add(url);
+    synchronized (this) {
+      if (scheduledFlush == null && !timer.isShutdown()) {
+        scheduledFlush = timer.schedule(this::flush, maxLatency, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * Notes that a file was opened in the client, to time the publishing of its first diagnostics.
+   *
+   * @param clientUri the client uri
+   */
+  public void opened(String clientUri) {
+    if (server.metrics.isEnabled()) {
+      opened.put(clientUri, System.nanoTime());
+    }
+  }
+
+  /**
+   * Notes that a file was closed in the client.
+   *
+   * @param clientUri the client uri
+   */
+  public void closed(String clientUri) {
+    opened.remove(clientUri);
+  }
+
+  /** Publish the diagnostics of all files marked as changed. */
+  public synchronized void flush() {
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    if (pending.isEmpty()) {
+      return;
+    }
+    MetricsRegistry.Timer timer = server.metrics.timer("publish.flush");
+    long start = timer.start();
+    try (Tracer.Span span = server.tracer.span("server", "publish")) {
+      int files = 0;
+      for (URL url : new ArrayList<>(pending)) {
+        pending.remove(url);
+        if (publish(url)) {
+          files++;
+        }
+      }
+      span.arg("files", files);
+    }
+    timer.stop(start);
+  }
+
+  private boolean publish(URL url) {
+    Optional<String> clientUri = server.getClientUri(url);
+    if (!clientUri.isPresent() || server.client == null) {
+      return false;
+    }
+    List<Diagnostic> diagnostics = server.diagnostics.get(url);
+    List<Diagnostic> last = published.get(clientUri.get());
+    if (last == diagnostics || diagnostics.equals(last)) {
+      return false;
+    }
+    published.put(clientUri.get(), diagnostics);
+    PublishDiagnosticsParams pdp = new PublishDiagnosticsParams(clientUri.get(), diagnostics);
+    server.client.publishDiagnostics(pdp);
+    server.metrics.counter("publish.files").inc();
+    server.metrics.counter("publish.diagnostics").add(diagnostics.size());
+    Long openedAt = opened.remove(clientUri.get());
+    if (openedAt != null) {
+      server.metrics.timer("didOpen.firstPublish").record(System.nanoTime() - openedAt);
+    }
+    server.logger.logServerMsg(pdp::toString);
+    return true;
+  }
+
+  /**
+   * Forgets the diagnostics published last for a file, e.g. after they were evicted.
+   *
+   * @param clientUri the client uri
+   */
+  public void forget(String clientUri) {
+    published.remove(clientUri);
+  }
+
+  /** Publish all pending diagnostics and stop the timer. */
+  public void shutdown() {
+    flush();
+    timer.shutdownNow();
+  }
+}
@@ -1,8 +1,49 @@
 package magpiebridge.core;
 
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
 
 /** @author Linghui Luo */
 public interface IProjectService {
   public void setRootPath(Path rootPath);
+
+  /** Start computing the project configuration in the background, called after initialize. */
+  public default void prefetch() {}
+
+  /** Discard the computed project configuration, it is computed again when needed. */
+  public default void invalidate() {}
+
+  /**
+   * Check if the project configuration is computed from the file, e.g. a build file.
+   *
+   * @param file the changed file
+   * @return true if the configuration must be invalidated when the file changes
+   */
+  public default boolean isConfigurationFile(Path file) {
+    return false;
+  }
+
+  /**
+   * Get the glob patterns of the configuration files, the server asks the client to watch them.
+   *
+   * @return the glob patterns, e.g. <code>**&#47;pom.xml</code>
+   */
+  public default List<String> getConfigurationFilePatterns() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Set the metrics of the server the project service is added to.
+   *
+   * @param metrics the metrics
+   */
+  public default void setMetrics(MetricsRegistry metrics) {}
+
+  /**
+   * Set the tracer of the server the project service is added to.
+   *
+   * @param tracer the tracer
+   */
+  public default void setTracer(Tracer tracer) {}
 }
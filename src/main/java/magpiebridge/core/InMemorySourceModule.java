@@ -0,0 +1,149 @@
+package magpiebridge.core;
+
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.classLoader.SourceModule;
+import com.ibm.wala.util.collections.NonNullSingletonIterator;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * The Class InMemorySourceModule is a WALA {@link SourceModule} backed by the text of a {@link
+ * SourceDocument} at a certain version, no file on disk is involved. The module is immutable, a new
+ * one is created whenever the document changes.
+ */
+public class InMemorySourceModule implements SourceModule {
+
+  /** The document. */
+  private final SourceDocument document;
+
+  /** The document version. */
+  private final int version;
+
+  /** The text. */
+  private final Rope rope;
+
+  /** The text as string, computed on demand. */
+  private volatile String text;
+
+  /**
+   * Instantiates a new in memory source module.
+   *
+   * @param document the document
+   * @param version the document version
+   * @param rope the text
+   */
+  public InMemorySourceModule(SourceDocument document, int version, Rope rope) {
+    this.document = document;
+    this.version = version;
+    this.rope = rope;
+  }
+
+  /**
+   * Gets the document this module was created from.
+   *
+   * @return the document
+   */
+  public SourceDocument getDocument() {
+    return document;
+  }
+
+  /**
+   * Gets the document version.
+   *
+   * @return the version
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Gets the text.
+   *
+   * @return the text
+   */
+  public String getText() {
+    String result = text;
+    if (result == null) {
+      result = rope.toString();
+      text = result;
+    }
+    return result;
+  }
+
+  /**
+   * Gets the text as rope.
+   *
+   * @return the rope
+   */
+  public Rope getRope() {
+    return rope;
+  }
+
+  @Override
+  public Iterator<? extends ModuleEntry> getEntries() {
+    return new NonNullSingletonIterator<>(this);
+  }
+
+  @Override
+  public String getName() {
+    return document.getClientUri();
+  }
+
+  @Override
+  public boolean isClassFile() {
+    return false;
+  }
+
+  @Override
+  public boolean isSourceFile() {
+    return true;
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return new ByteArrayInputStream(getText().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public boolean isModuleFile() {
+    return false;
+  }
+
+  @Override
+  public Module asModule() {
+    return this;
+  }
+
+  @Override
+  public String getClassName() {
+    String name = document.getClientUri();
+    name = name.substring(name.lastIndexOf('/') + 1);
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? name : name.substring(0, dot);
+  }
+
+  @Override
+  public Module getContainer() {
+    return null;
+  }
+
+  @Override
+  public Reader getInputReader() {
+    return rope.reader();
+  }
+
+  @Override
+  public URL getURL() {
+    return document.getUrl();
+  }
+
+  @Override
+  public String toString() {
+    return "InMemorySourceModule:" + document.getClientUri() + "@" + version;
+  }
+}
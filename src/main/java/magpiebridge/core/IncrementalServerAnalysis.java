@@ -0,0 +1,62 @@
+package magpiebridge.core;
+
+import com.ibm.wala.classLoader.Module;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * A {@link ServerAnalysis} which is able to analyze only the files changed since its last run. The
+ * {@link MagpieServer} passes the changed files together with their dependents, results are merged
+ * into the results of earlier runs.
+ */
+public interface IncrementalServerAnalysis extends ServerAnalysis {
+
+  /**
+   * Computes the files which depend on the changed files and need to be analyzed again.
+   *
+   * @param changed the changed files
+   * @param files all files known to the server
+   * @return the dependents of the changed files
+   */
+  public default Collection<Module> dependents(
+      Collection<Module> changed, Collection<Module> files) {
+    return Collections.emptySet();
+  }
+
+  /**
+   * Analyze the changed files.
+   *
+   * @param changed the changed files and their dependents
+   * @param files all files known to the server
+   * @param server the server
+   */
+  public void analyze(Collection<Module> changed, Collection<Module> files, MagpieServer server);
+
+  /**
+   * Analyze the changed files. Analyses which are able to stop early should override this method
+   * and check the token regularly, the default implementation ignores it.
+   *
+   * @param changed the changed files and their dependents
+   * @param files all files known to the server
+   * @param server the server
+   * @param token the token cancelled when this run is superseded by a newer one
+   */
+  public default void analyze(
+      Collection<Module> changed,
+      Collection<Module> files,
+      MagpieServer server,
+      CancellationToken token) {
+    analyze(changed, files, server);
+  }
+
+  @Override
+  public default void analyze(Collection<Module> files, MagpieServer server) {
+    analyze(files, files, server);
+  }
+
+  @Override
+  public default void analyze(
+      Collection<Module> files, MagpieServer server, CancellationToken token) {
+    analyze(files, files, server, token);
+  }
+}
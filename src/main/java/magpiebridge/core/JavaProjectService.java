@@ -1,40 +1,77 @@
 package magpiebridge.core;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import magpiebridge.projectservice.java.InferConfig;
 import magpiebridge.projectservice.java.InferSourcePath;
 
 /**
- * The Class JavaProjectService provides the configuration information of a java project.
+ * The Class JavaProjectService provides the configuration information of a java project. The
+ * configuration is computed once per root path as an immutable {@link Configuration} shared by all
+ * callers, in the background after {@link #prefetch()} or on first use, and recomputed after {@link
+ * #invalidate()} or a failure.
  *
  * @author Linghui Luo
  */
 public class JavaProjectService implements IProjectService {
 
+  /** The files the configuration is inferred from. */
+  private static final List<String> BUILD_FILES =
+      Arrays.asList(
+          "pom.xml",
+          "build.gradle",
+          "build.gradle.kts",
+          "settings.gradle",
+          "settings.gradle.kts",
+          "gradle.properties");
+
+  /** The executor computing the configurations in the background. */
+  private static final ExecutorService executor =
+      Executors.newCachedThreadPool(
+          r -> {
+            Thread t = new Thread(r, "magpie-project");
+            t.setDaemon(true);
+            return t;
+          });
+
   /** The root path. */
   private Optional<Path> rootPath;
 
-  /** The source path. */
+  /** The source path specified by the user. */
   private Set<Path> sourcePath;
 
-  /** The class path. */
+  /** The class path specified by the user. */
   private Set<Path> classPath;
 
-  /** The library path. */
-  private Set<Path> libraryPath;
-
   /** The external dependencies. */
   private Set<String> externalDependencies;
 
+  /** The configuration of the current root path, null until it is requested. */
+  private CompletableFuture<Configuration> configuration;
+
+  /** The metrics. */
+  private MetricsRegistry metrics;
+
+  /** The tracer. */
+  private Tracer tracer;
+
   /** Instantiates a new java project service. */
   public JavaProjectService() {
+    this.rootPath = Optional.empty();
     this.sourcePath = Collections.emptySet();
     this.classPath = Collections.emptySet();
-    this.libraryPath = Collections.emptySet();
     this.externalDependencies = Collections.emptySet();
+    this.metrics = new MetricsRegistry(false);
+    this.tracer = new Tracer(0);
   }
 
   /**
@@ -53,19 +90,26 @@ public class JavaProjectService implements IProjectService {
     this.externalDependencies = externalDependencies;
   }
 
+  /**
+   * Gets the configuration, waiting for it if it is being computed.
+   *
+   * @return the configuration
+   */
+  public Configuration getConfiguration() {
+    CompletableFuture<Configuration> configuration = configuration();
+    if (configuration.isDone()) {
+      return configuration.join();
+    }
+    return tracer.span("project", "wait for java configuration").call(configuration::join);
+  }
+
   /**
    * Gets the source path.
    *
    * @return the source path
    */
   public Set<Path> getSourcePath() {
-    if (this.sourcePath.isEmpty()) {
-      if (rootPath.isPresent()) {
-        // if source path is not specified by the user, infer the source path.
-        this.sourcePath = InferSourcePath.sourcePath(rootPath.get());
-      }
-    }
-    return sourcePath;
+    return getConfiguration().getSourcePath();
   }
 
   /**
@@ -74,15 +118,7 @@ public class JavaProjectService implements IProjectService {
    * @return the class path
    */
   public Set<Path> getClassPath() {
-    if (this.classPath.isEmpty()) {
-      // if class path is not specified by the user, infer the source path.
-      if (rootPath.isPresent()) {
-        InferConfig infer = new InferConfig(rootPath.get(), externalDependencies);
-        this.classPath = infer.classPath();
-        this.libraryPath = infer.libraryClassPath();
-      }
-    }
-    return classPath;
+    return getConfiguration().getClassPath();
   }
 
   /**
@@ -91,14 +127,7 @@ public class JavaProjectService implements IProjectService {
    * @return the library path
    */
   public Set<Path> getLibraryPath() {
-    if (this.libraryPath.isEmpty()) {
-      if (rootPath.isPresent()) {
-        InferConfig infer = new InferConfig(rootPath.get(), externalDependencies);
-        this.classPath = infer.classPath();
-        this.libraryPath = infer.libraryClassPath();
-      }
-    }
-    return this.libraryPath;
+    return getConfiguration().getLibraryPath();
   }
 
   /**
@@ -106,7 +135,7 @@ public class JavaProjectService implements IProjectService {
    *
    * @return the root path
    */
-  public Optional<Path> getRootPath() {
+  public synchronized Optional<Path> getRootPath() {
     return rootPath;
   }
 
@@ -116,8 +145,78 @@ public class JavaProjectService implements IProjectService {
    * @see magpiebridge.core.IProjectService#setRootPath(java.nio.file.Path)
    */
   @Override
-  public void setRootPath(Path rootPath) {
-    this.rootPath = Optional.ofNullable(rootPath);
+  public synchronized void setRootPath(Path rootPath) {
+    Optional<Path> root = Optional.ofNullable(rootPath);
+    if (!root.equals(this.rootPath)) {
+      this.rootPath = root;
+      this.configuration = null;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see magpiebridge.core.IProjectService#prefetch()
+   */
+  @Override
+  public void prefetch() {
+    configuration();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see magpiebridge.core.IProjectService#invalidate()
+   */
+  @Override
+  public synchronized void invalidate() {
+    this.configuration = null;
+    metrics.counter("project.java.invalidations").inc();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see magpiebridge.core.IProjectService#setMetrics(magpiebridge.core.MetricsRegistry)
+   */
+  @Override
+  public synchronized void setMetrics(MetricsRegistry metrics) {
+    this.metrics = metrics;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see magpiebridge.core.IProjectService#setTracer(magpiebridge.core.Tracer)
+   */
+  @Override
+  public synchronized void setTracer(Tracer tracer) {
+    this.tracer = tracer;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see magpiebridge.core.IProjectService#isConfigurationFile(java.nio.file.Path)
+   */
+  @Override
+  public boolean isConfigurationFile(Path file) {
+    Path name = file.getFileName();
+    return name != null && BUILD_FILES.contains(name.toString());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see magpiebridge.core.IProjectService#getConfigurationFilePatterns()
+   */
+  @Override
+  public List<String> getConfigurationFilePatterns() {
+    List<String> patterns = new ArrayList<>();
+    for (String file : BUILD_FILES) {
+      patterns.add("**/" + file);
+    }
+    return patterns;
   }
 
   /**
@@ -125,8 +224,9 @@ public class JavaProjectService implements IProjectService {
    *
    * @param sourcePath the new source path
    */
-  public void setSourcePath(Set<Path> sourcePath) {
+  public synchronized void setSourcePath(Set<Path> sourcePath) {
     this.sourcePath = sourcePath;
+    this.configuration = null;
   }
 
   /**
@@ -134,8 +234,9 @@ public class JavaProjectService implements IProjectService {
    *
    * @param classPath the new class path, usually called by user.
    */
-  public void setClassPath(Set<Path> classPath) {
+  public synchronized void setClassPath(Set<Path> classPath) {
     this.classPath = classPath;
+    this.configuration = null;
   }
 
   /**
@@ -143,7 +244,115 @@ public class JavaProjectService implements IProjectService {
    *
    * @param dependences the new external dependencies
    */
-  public void setExternalDependencies(Set<String> dependences) {
+  public synchronized void setExternalDependencies(Set<String> dependences) {
     this.externalDependencies = dependences;
+    this.configuration = null;
+  }
+
+  /** Starts computing the configuration from the current settings unless it already is. */
+  private synchronized CompletableFuture<Configuration> configuration() {
+    // a failed computation isn't kept, the next call tries again
+    if (configuration == null || configuration.isCompletedExceptionally()) {
+      Configuration.Inputs inputs =
+          new Configuration.Inputs(
+              rootPath,
+              new HashSet<>(sourcePath),
+              new HashSet<>(classPath),
+              new HashSet<>(externalDependencies));
+      MetricsRegistry metrics = this.metrics;
+      Tracer tracer = this.tracer;
+      configuration =
+          CompletableFuture.supplyAsync(() -> new Configuration(inputs, metrics, tracer), executor);
+    }
+    return configuration;
+  }
+
+  /** The immutable configuration of a java project. */
+  public static class Configuration {
+
+    /** The source path. */
+    private final Set<Path> sourcePath;
+
+    /** The class path. */
+    private final Set<Path> classPath;
+
+    /** The library path. */
+    private final Set<Path> libraryPath;
+
+    /** The values specified by the user, copied when the configuration is requested. */
+    private static class Inputs {
+      final Optional<Path> rootPath;
+      final Set<Path> sourcePath;
+      final Set<Path> classPath;
+      final Set<String> externalDependencies;
+
+      Inputs(
+          Optional<Path> rootPath,
+          Set<Path> sourcePath,
+          Set<Path> classPath,
+          Set<String> externalDependencies) {
+        this.rootPath = rootPath;
+        this.sourcePath = sourcePath;
+        this.classPath = classPath;
+        this.externalDependencies = externalDependencies;
+      }
+    }
+
+    /**
+     * Infers the paths not specified by the user. The class path and the library path are taken
+     * from the same {@link InferConfig}, so the build is only resolved once.
+     */
+    private Configuration(Inputs inputs, MetricsRegistry metrics, Tracer tracer) {
+      MetricsRegistry.Timer timer = metrics.timer("project.java.configuration");
+      long start = timer.start();
+      Set<Path> source = inputs.sourcePath;
+      Set<Path> classes = inputs.classPath;
+      Set<Path> libraries = Collections.emptySet();
+      try (Tracer.Span span = tracer.span("project", "java configuration")) {
+        if (inputs.rootPath.isPresent()) {
+          Path root = inputs.rootPath.get();
+          span.arg("root", root);
+          if (source.isEmpty()) {
+            MetricsRegistry.Timer sourceTimer = metrics.timer("project.java.sourcePath");
+            long sourceStart = sourceTimer.start();
+            source =
+                tracer
+                    .span("project", "InferSourcePath")
+                    .call(() -> InferSourcePath.sourcePath(root));
+            sourceTimer.stop(sourceStart);
+          }
+          MetricsRegistry.Timer classTimer = metrics.timer("project.java.classPath");
+          long classStart = classTimer.start();
+          try (Tracer.Span inferSpan = tracer.span("project", "InferConfig")) {
+            InferConfig infer = new InferConfig(root, inputs.externalDependencies);
+            libraries = infer.libraryClassPath();
+            if (classes.isEmpty()) {
+              classes = infer.classPath();
+            }
+            inferSpan.arg("libraries", libraries.size());
+          }
+          classTimer.stop(classStart);
+        }
+      }
+      this.sourcePath = Collections.unmodifiableSet(new HashSet<>(source));
+      this.classPath = Collections.unmodifiableSet(new HashSet<>(classes));
+      this.libraryPath = Collections.unmodifiableSet(new HashSet<>(libraries));
+      timer.stop(start);
+    }
+
+    /** @return the source path */
+    public Set<Path> getSourcePath() {
+      return sourcePath;
+    }
+
+    /** @return the class path */
+    public Set<Path> getClassPath() {
+      return classPath;
+    }
+
+    /** @return the library path */
+    public Set<Path> getLibraryPath() {
+      return libraryPath;
+    }
   }
 }
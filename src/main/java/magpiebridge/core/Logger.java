@@ -4,55 +4,303 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
 import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
+/**
+ * The Class Logger writes the messages exchanged with the client and other log messages of a {@link
+ * MagpieServer} to a file. Logging never blocks the calling thread: messages are put into a bounded
+ * lock-free ring buffer and written in batches by a background thread, which flushes the file once
+ * enough text is written or some time passed. Messages arriving while the buffer is full are
+ * dropped and counted. Messages are only formatted by the background thread, and not at all if
+ * their level is disabled.
+ */
 public class Logger {
+
+  /** The log levels, from the least to the most verbose. */
+  public enum Level {
+    OFF,
+    ERROR,
+    INFO,
+    /** The messages exchanged with the client. */
+    DEBUG
+  }
+
+  /** The number of characters written before the file is flushed. */
+  private static final int FLUSH_SIZE = 64 * 1024;
+
+  /** The time in milliseconds after which written messages are flushed. */
+  private static final long FLUSH_INTERVAL = 200;
+
+  /** The time in milliseconds the writer waits for new messages. */
+  private static final long IDLE_WAIT = 10;
+
+  /** A log message waiting to be written. */
+  private static class Entry {
+    private final long time;
+    private final String prefix;
+    private final Supplier<String> msg;
+
+    private Entry(long time, String prefix, Supplier<String> msg) {
+      this.time = time;
+      this.prefix = prefix;
+      this.msg = msg;
+    }
+  }
+
+  /** The log file. */
   private File file;
-  private BufferedWriter writer;
 
+  /** The writer of the log file. */
+  private Writer writer;
+
+  /** The most verbose level which is logged. */
+  private volatile Level level;
+
+  /** The ring buffer, a slot is null until its message is published. */
+  private final AtomicReferenceArray<Entry> buffer;
+
+  /** The mask mapping sequence numbers to slots. */
+  private final int mask;
+
+  /** The sequence number of the next message to write, only advanced by the writer thread. */
+  private volatile long head;
+
+  /** The sequence number of the next message to add. */
+  private final AtomicLong tail;
+
+  /** The number of dropped messages. */
+  private final AtomicLong dropped;
+
+  /** The number of dropped messages already reported in the log. */
+  private long reportedDropped;
+
+  /** The background thread writing the messages. */
+  private final Thread writerThread;
+
+  /** Whether the logger was closed. */
+  private volatile boolean closed;
+
+  /** Instantiates a new logger writing messages up to {@link Level#INFO} to a temporary file. */
   public Logger() {
+    this(Level.INFO, 8192);
+  }
+
+  /**
+   * Instantiates a new logger writing to a temporary file.
+   *
+   * @param level the most verbose level which is logged
+   * @param bufferSize the number of messages buffered, rounded up to a power of two
+   */
+  public Logger(Level level, int bufferSize) {
+    this.level = level;
+    int capacity = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+    this.buffer = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+    this.tail = new AtomicLong();
+    this.dropped = new AtomicLong();
     try {
       file = File.createTempFile("logger", ".txt");
-      writer = new BufferedWriter(new FileWriter(file));
+      writer = new BufferedWriter(new FileWriter(file), FLUSH_SIZE);
     } catch (IOException e) {
       e.printStackTrace();
     }
+    this.writerThread = new Thread(this::writeLoop, "magpie-logger");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
   }
 
-  private void log(boolean isServer, String msg) {
-    StringBuilder sb = new StringBuilder();
-    sb.append("LOG-" + LocalTime.now());
-    if (isServer) {
-      sb.append(": Server sends ");
-    } else {
-      sb.append(": Client sends");
-    }
-    sb.append("\n");
-    sb.append(msg);
-    try {
-      writer.write(sb.toString());
-      writer.newLine();
-      writer.newLine();
-      writer.flush();
-    } catch (IOException e) {
-      assert false : e;
+  /**
+   * Checks if messages of a level are logged.
+   *
+   * @param level the level
+   * @return true, if enabled
+   */
+  public boolean isEnabled(Level level) {
+    return level != Level.OFF && level.compareTo(this.level) <= 0;
+  }
+
+  /**
+   * Sets the most verbose level which is logged.
+   *
+   * @param level the level
+   */
+  public void setLevel(Level level) {
+    this.level = level;
+  }
+
+  /**
+   * Gets the number of messages dropped because the buffer was full.
+   *
+   * @return the number of dropped messages
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Gets the log file.
+   *
+   * @return the file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Logs a message. The supplier is called on the writer thread, only if the level is enabled.
+   *
+   * @param level the level
+   * @param msg the message
+   */
+  public void log(Level level, Supplier<String> msg) {
+    if (isEnabled(level)) {
+      enqueue(new Entry(System.currentTimeMillis(), " " + level + ": ", msg));
     }
   }
 
   public void logServerMsg(String msg) {
-    log(true, msg);
+    logServerMsg(() -> msg);
+  }
+
+  public void logServerMsg(Supplier<String> msg) {
+    if (isEnabled(Level.DEBUG)) {
+      enqueue(new Entry(System.currentTimeMillis(), ": Server sends\n", msg));
+    }
   }
 
   public void logClientMsg(String msg) {
-    log(false, msg);
+    logClientMsg(() -> msg);
+  }
+
+  public void logClientMsg(Supplier<String> msg) {
+    if (isEnabled(Level.DEBUG)) {
+      enqueue(new Entry(System.currentTimeMillis(), ": Client sends\n", msg));
+    }
   }
 
   public void logVerbose(String msg) {
+    if (isEnabled(Level.DEBUG)) {
+      enqueue(new Entry(-1, "VERBOSE-:", () -> msg));
+    }
+  }
+
+  /** Writes all buffered messages, flushes and closes the log file. */
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writerThread);
+    try {
+      writerThread.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void enqueue(Entry entry) {
+    while (true) {
+      long t = tail.get();
+      if (closed || t - head > mask) {
+        dropped.incrementAndGet();
+        return;
+      }
+      if (tail.compareAndSet(t, t + 1)) {
+        buffer.set((int) (t & mask), entry);
+        return;
+      }
+    }
+  }
+
+  private void writeLoop() {
+    long lastFlush = System.currentTimeMillis();
+    int unflushed = 0;
+    while (true) {
+      boolean stopping = closed;
+      Entry entry = buffer.get((int) (head & mask));
+      if (entry != null) {
+        buffer.set((int) (head & mask), null);
+        head++;
+        unflushed += write(entry);
+      } else if (head != tail.get()) {
+        // the slot is claimed, but its message not yet published
+        Thread.yield();
+        continue;
+      }
+      long now = System.currentTimeMillis();
+      if (unflushed >= FLUSH_SIZE || (unflushed > 0 && now - lastFlush >= FLUSH_INTERVAL)) {
+        reportDropped();
+        flush();
+        unflushed = 0;
+        lastFlush = now;
+      }
+      if (entry == null) {
+        if (stopping) {
+          break;
+        }
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT));
+      }
+    }
+    reportDropped();
+    flush();
+    try {
+      if (writer != null) {
+        writer.close();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private int write(Entry entry) {
+    if (writer == null) {
+      return 0;
+    }
+    StringBuilder sb = new StringBuilder();
+    if (entry.time >= 0) {
+      sb.append("LOG-");
+      sb.append(LocalTime.from(Instant.ofEpochMilli(entry.time).atZone(ZoneId.systemDefault())));
+    }
+    sb.append(entry.prefix);
+    try {
+      sb.append(entry.msg.get());
+    } catch (RuntimeException e) {
+      sb.append(e);
+    }
+    sb.append("\n\n");
+    try {
+      writer.write(sb.toString());
+    } catch (IOException e) {
+      assert false : e;
+    }
+    return sb.length();
+  }
+
+  private void reportDropped() {
+    long count = dropped.get();
+    if (count == reportedDropped || writer == null) {
+      return;
+    }
+    String msg =
+        "LOG-" + LocalTime.now() + ": " + (count - reportedDropped) + " messages dropped\n\n";
+    reportedDropped = count;
+    try {
+      writer.write(msg);
+    } catch (IOException e) {
+      assert false : e;
+    }
+  }
+
+  private void flush() {
     try {
-      writer.write("VERBOSE-:" + msg);
-      writer.newLine();
-      writer.newLine();
-      writer.flush();
+      if (writer != null) {
+        writer.flush();
+      }
     } catch (IOException e) {
       assert false : e;
     }
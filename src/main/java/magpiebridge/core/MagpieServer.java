@@ -5,19 +5,19 @@ import com.ibm.wala.cast.tree.impl.AbstractSourcePosition;
 import com.ibm.wala.classLoader.Module;
 import com.ibm.wala.classLoader.SourceFileModule;
 import com.ibm.wala.util.collections.Pair;
-import com.ibm.wala.util.io.TemporaryFile;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -25,33 +25,56 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.io.output.TeeOutputStream;
+import org.eclipse.lsp4j.ClientCapabilities;
 import org.eclipse.lsp4j.CodeLens;
 import org.eclipse.lsp4j.CodeLensOptions;
+import org.eclipse.lsp4j.Command;
 import org.eclipse.lsp4j.Diagnostic;
 import org.eclipse.lsp4j.DiagnosticRelatedInformation;
+import org.eclipse.lsp4j.DidChangeWatchedFilesRegistrationOptions;
 import org.eclipse.lsp4j.ExecuteCommandOptions;
+import org.eclipse.lsp4j.FileSystemWatcher;
 import org.eclipse.lsp4j.Hover;
 import org.eclipse.lsp4j.InitializeParams;
 import org.eclipse.lsp4j.InitializeResult;
 import org.eclipse.lsp4j.InitializedParams;
 import org.eclipse.lsp4j.Location;
 import org.eclipse.lsp4j.MarkedString;
-import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.Registration;
+import org.eclipse.lsp4j.RegistrationParams;
 import org.eclipse.lsp4j.ServerCapabilities;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 import org.eclipse.lsp4j.TextDocumentSyncKind;
 import org.eclipse.lsp4j.jsonrpc.Launcher;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
-import org.eclipse.lsp4j.launch.LSPLauncher;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.LanguageClientAware;
 import org.eclipse.lsp4j.services.LanguageServer;
@@ -65,9 +88,26 @@ import org.eclipse.lsp4j.services.WorkspaceService;
  */
 public class MagpieServer implements LanguageServer, LanguageClientAware {
 
+  /** The command reporting the metrics, see {@link ServerConfiguration#setMetricsEnabled}. */
+  public static final String METRICS_COMMAND = "magpiebridge.metrics";
+
+  /**
+   * The command exporting the tracing spans as Chrome trace events, see {@link
+   * ServerConfiguration#setSpanBufferSize}. If a file name is passed as argument, the trace is also
+   * written to that file in the {@link ServerConfiguration#setTraceExportDirectory trace export
+   * directory}.
+   */
+  public static final String TRACE_COMMAND = "magpiebridge.trace";
+
+  /** The id of the registration of the watched configuration files. */
+  public static final String WATCHED_FILES_REGISTRATION = "magpiebridge.watchedFiles";
+
   /** The client. */
   protected LanguageClient client;
 
+  /** The capabilities of the client, null until the server is initialized. */
+  protected ClientCapabilities clientCapabilities;
+
   /** The text document service. */
   protected TextDocumentService textDocumentService;
 
@@ -84,13 +124,19 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
   protected Map<String, IProjectService> languageProjectServices;
 
   /** The diagnostics. */
-  protected Map<URL, List<Diagnostic>> diagnostics;
+  protected ResultStore<Diagnostic> diagnostics;
 
   /** The hovers. */
-  protected Map<URL, NavigableMap<Position, Hover>> hovers;
+  protected ResultStore<Hover> hovers;
 
   /** The code lenses. */
-  protected Map<URL, List<CodeLens>> codeLenses;
+  protected ResultStore<CodeLens> codeLenses;
+
+  /** The hover indexes per file, each with the hover list it was built from. */
+  private Map<URL, Pair<List<Hover>, RangeIndex<Hover>>> hoverIndexes;
+
+  /** The code lenses sent to the client, keyed by client uri and document version. */
+  protected CodeLensCache codeLensCache;
 
   /** The root path. */
   protected Optional<Path> rootPath;
@@ -98,27 +144,109 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
   /** The server client uri. */
   private Map<String, String> serverClientUri;
 
+  /** The in-memory documents of the source files, keyed by client uri. */
+  private Map<String, SourceDocument> documents;
+
+  /** The source file tracker. */
+  protected SourceFileTracker sourceFileTracker;
+
+  /** The server configuration. */
+  protected ServerConfiguration config;
+
+  /** The analysis scheduler. */
+  protected AnalysisScheduler analysisScheduler;
+
+  /** The diagnostic publisher. */
+  protected DiagnosticPublisher diagnosticPublisher;
+
+  /** The metrics. */
+  protected MetricsRegistry metrics;
+
+  /** The tracer. */
+  protected Tracer tracer;
+
+  /** The class hierarchies shared by the analyses. */
+  protected ClassHierarchyService classHierarchyService;
+
+  /** The executor running the analyses concurrently. */
+  protected ExecutorService analysisExecutor;
+
+  /** The timer enforcing the analysis timeout. */
+  private ScheduledExecutorService analysisTimer;
+
+  /**
+   * The exclusion groups of the analyses, analyses of the same group never run together. The
+   * bookkeeping of all groups is guarded by this map.
+   */
+  private Map<ServerAnalysis, AnalysisGroup> analysisGroups;
+
+  /** The results consumed by the analyses currently running, keyed by analysis source. */
+  private Map<String, RunResults> runResults;
+
+  /** The client uris of the documents open in the editor. */
+  private Set<String> openDocuments;
+
   /** The connection socket. */
   private Socket connectionSocket;
 
   /** The logger. */
   public Logger logger;
 
+  /** The traces of the streams from and to the client, null while tracing is off. */
+  private WireTrace inTrace, outTrace;
+
   /**
    * Instantiates a new magpie server using default {@link MagpieTextDocumentService} and {@link
    * MagpieWorkspaceService}.
    */
   public MagpieServer() {
+    this(new ServerConfiguration());
+  }
+
+  /**
+   * Instantiates a new magpie server with given {@link ServerConfiguration} using default {@link
+   * MagpieTextDocumentService} and {@link MagpieWorkspaceService}.
+   *
+   * @param config the server configuration
+   */
+  public MagpieServer(ServerConfiguration config) {
+    this.config = config;
     this.textDocumentService = new MagpieTextDocumentService(this);
     this.workspaceService = new MagpieWorkspaceService(this);
     languageAnalyses = new HashMap<String, Collection<ServerAnalysis>>();
-    languageSourceFiles = new HashMap<String, Map<Module, URI>>();
+    languageSourceFiles = new ConcurrentHashMap<String, Map<Module, URI>>();
     languageProjectServices = new HashMap<String, IProjectService>();
-    diagnostics = new HashMap<>();
-    hovers = new HashMap<>();
-    codeLenses = new HashMap<>();
-    serverClientUri = new HashMap<>();
-    logger = new Logger();
+    diagnostics = new ResultStore<>(DiagnosticKey::new);
+    hovers = new ResultStore<>();
+    codeLenses = new ResultStore<>();
+    hoverIndexes = new ConcurrentHashMap<>();
+    codeLensCache = new CodeLensCache(this::createCodeLensCommand);
+    serverClientUri = new ConcurrentHashMap<>();
+    documents = new ConcurrentHashMap<>();
+    sourceFileTracker = new SourceFileTracker();
+    metrics = new MetricsRegistry(config.isMetricsEnabled());
+    tracer = new Tracer(config.getSpanBufferSize());
+    classHierarchyService =
+        new ClassHierarchyService(
+            config.getClassHierarchyCacheSize(), config.getJdkPath(), metrics, tracer);
+    analysisScheduler = new AnalysisScheduler(this, config.getAnalysisQuietPeriod());
+    analysisExecutor =
+        Executors.newFixedThreadPool(config.getAnalysisThreads(), daemonThreads("magpie-analysis"));
+    if (analysisExecutor instanceof ThreadPoolExecutor) {
+      ThreadPoolExecutor pool = (ThreadPoolExecutor) analysisExecutor;
+      metrics.gauge("analysis.queued", () -> pool.getQueue().size());
+      metrics.gauge("analysis.active", pool::getActiveCount);
+    }
+    analysisTimer = Executors.newSingleThreadScheduledExecutor(daemonThreads("magpie-timeout"));
+    analysisGroups = new HashMap<>();
+    runResults = new ConcurrentHashMap<>();
+    openDocuments = ConcurrentHashMap.newKeySet();
+    diagnosticPublisher = new DiagnosticPublisher(this, config.getPublishMaxLatency());
+    logger = new Logger(config.getLogLevel(), config.getLogBufferSize());
+    metrics.gauge("documents.open", openDocuments::size);
+    if (config.isMetricsJmx()) {
+      metrics.registerMBean("magpiebridge:type=Metrics");
+    }
   }
 
   /**
@@ -136,7 +264,7 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
 
   /** Launch on stdio. */
   public void launchOnStdio() {
-    launchOnStream(logStream(System.in, "magpie.in"), logStream(System.out, "magpie.out"));
+    launchOnStream(System.in, System.out);
   }
 
   /**
@@ -147,12 +275,9 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
    */
   public void launchOnStream(InputStream in, OutputStream out) {
     Launcher<LanguageClient> launcher =
-        LSPLauncher.createServerLauncher(
-            this,
-            logStream(in, "magpie.in"),
-            logStream(out, "magpie.out"),
-            true,
-            new PrintWriter(System.err));
+        createLauncher(traceStream(in, "magpie.in"), traceStream(out, "magpie.out"))
+            .validateMessages(true)
+            .create();
     connect(launcher.getRemoteProxy());
     launcher.startListening();
   }
@@ -167,10 +292,10 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
     try {
       connectionSocket = new Socket(host, port);
       Launcher<LanguageClient> launcher =
-          LSPLauncher.createServerLauncher(
-              this,
-              logStream(connectionSocket.getInputStream(), "magpie.in"),
-              logStream(connectionSocket.getOutputStream(), "magpie.out"));
+          createLauncher(
+                  traceStream(connectionSocket.getInputStream(), "magpie.in"),
+                  traceStream(connectionSocket.getOutputStream(), "magpie.out"))
+              .create();
       connect(launcher.getRemoteProxy());
       launcher.startListening();
     } catch (IOException e) {
@@ -178,6 +303,31 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
     }
   }
 
+  /**
+   * Creates the builder of the launcher connecting the server to the client. The requests are timed
+   * by {@link RequestMetrics} if metrics are enabled, and the messages are printed to standard
+   * error if configured.
+   *
+   * @param in the in
+   * @param out the out
+   * @return the launcher builder
+   */
+  protected Launcher.Builder<LanguageClient> createLauncher(InputStream in, OutputStream out) {
+    Launcher.Builder<LanguageClient> builder =
+        new Launcher.Builder<LanguageClient>()
+            .setLocalService(this)
+            .setRemoteInterface(LanguageClient.class)
+            .setInput(in)
+            .setOutput(out);
+    if (metrics.isEnabled()) {
+      builder.wrapMessages(new RequestMetrics(metrics));
+    }
+    if (config.isTraceMessages()) {
+      builder.traceMessages(new PrintWriter(System.err));
+    }
+    return builder;
+  }
+
   /** Launch on web socket port. */
   public void launchOnWebSocketPort() {}
 
@@ -198,16 +348,22 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
    */
   @Override
   public CompletableFuture<InitializeResult> initialize(InitializeParams params) {
-    logger.logClientMsg(params.toString());
-    System.err.println("client:\n" + params);
+    logger.logClientMsg(params::toString);
+    this.clientCapabilities = params.getCapabilities();
     if (params.getRootUri() != null) {
       this.rootPath = Optional.ofNullable(Paths.get(URI.create(params.getRootUri())));
     } else {
       this.rootPath = Optional.empty();
     }
+    if (rootPath.isPresent()) {
+      for (IProjectService projectService : languageProjectServices.values()) {
+        projectService.setRootPath(rootPath.get());
+        projectService.prefetch();
+      }
+    }
     final ServerCapabilities caps = new ServerCapabilities();
     caps.setHoverProvider(true);
-    caps.setTextDocumentSync(TextDocumentSyncKind.Full);
+    caps.setTextDocumentSync(TextDocumentSyncKind.Incremental);
     CodeLensOptions cl = new CodeLensOptions();
     cl.setResolveProvider(true);
     caps.setCodeLensProvider(cl);
@@ -216,11 +372,16 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
     caps.setReferencesProvider(true);
     ExecuteCommandOptions exec = new ExecuteCommandOptions();
     exec.setCommands(new LinkedList<String>());
+    if (metrics.isEnabled()) {
+      exec.getCommands().add(METRICS_COMMAND);
+    }
+    if (tracer.isEnabled()) {
+      exec.getCommands().add(TRACE_COMMAND);
+    }
     caps.setExecuteCommandProvider(exec);
     caps.setCodeActionProvider(false);
     InitializeResult v = new InitializeResult(caps);
-    System.err.println("server:\n" + caps);
-    logger.logServerMsg(v.toString());
+    logger.logServerMsg(v::toString);
     return CompletableFuture.completedFuture(v);
   }
 
@@ -231,8 +392,43 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
    */
   @Override
   public void initialized(InitializedParams params) {
-    logger.logClientMsg(params.toString());
-    System.err.println("client:\n" + params);
+    logger.logClientMsg(params::toString);
+    registerWatchedFiles();
+  }
+
+  /**
+   * Asks the client to notify the server of changes of the configuration files of the project
+   * services, if the client supports registering file watchers.
+   */
+  private void registerWatchedFiles() {
+    if (client == null
+        || clientCapabilities == null
+        || clientCapabilities.getWorkspace() == null
+        || clientCapabilities.getWorkspace().getDidChangeWatchedFiles() == null
+        || !Boolean.TRUE.equals(
+            clientCapabilities
+                .getWorkspace()
+                .getDidChangeWatchedFiles()
+                .getDynamicRegistration())) {
+      return;
+    }
+    Set<String> patterns = new LinkedHashSet<>();
+    for (IProjectService projectService : getProjectServices()) {
+      patterns.addAll(projectService.getConfigurationFilePatterns());
+    }
+    if (patterns.isEmpty()) {
+      return;
+    }
+    List<FileSystemWatcher> watchers = new ArrayList<>();
+    for (String pattern : patterns) {
+      watchers.add(new FileSystemWatcher(pattern));
+    }
+    Registration registration =
+        new Registration(
+            WATCHED_FILES_REGISTRATION,
+            "workspace/didChangeWatchedFiles",
+            new DidChangeWatchedFilesRegistrationOptions(watchers));
+    client.registerCapability(new RegistrationParams(Collections.singletonList(registration)));
   }
 
   /*
@@ -242,6 +438,13 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
    */
   @Override
   public CompletableFuture<Object> shutdown() {
+    analysisScheduler.shutdown();
+    analysisExecutor.shutdownNow();
+    analysisTimer.shutdownNow();
+    diagnosticPublisher.shutdown();
+    metrics.unregisterMBean();
+    documents.values().forEach(SourceDocument::releaseFile);
+    logger.close();
     return CompletableFuture.completedFuture(new Object());
   }
 
@@ -253,7 +456,10 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
   @Override
   public void exit() {
     try {
-      connectionSocket.close();
+      closeWireTraces();
+      if (connectionSocket != null) {
+        connectionSocket.close();
+      }
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -265,23 +471,45 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
    * @param language the language
    * @param text the text
    * @param clientUri the client uri
-   * @return true, if successful
+   * @return true, if the source code was added or its content changed
    */
   public boolean addSource(String language, String text, String clientUri) {
+    return addSource(language, text, clientUri, -1);
+  }
+
+  /**
+   * Adds the source code with given document version. The source file is marked as dirty and will
+   * be analyzed in the next {@link #doAnalysis(String)} if its content changed.
+   *
+   * @param language the language
+   * @param text the text
+   * @param clientUri the client uri
+   * @param version the document version, or -1 if unknown
+   * @return true, if the source code was added or its content changed
+   */
+  public synchronized boolean addSource(
+      String language, String text, String clientUri, int version) {
+    if (!sourceFileTracker.update(language, clientUri, version, text)) {
+      return false;
+    }
+    codeLensCache.invalidate(clientUri);
     try {
-      File file = File.createTempFile("temp", ".java");
-      file.deleteOnExit();
-      TemporaryFile.stringToFile(file, text);
-      Module sourceFile = new SourceFileModule(file, clientUri.toString(), null);
-      String serverUri = Paths.get(file.toURI()).toUri().toString();
-      serverClientUri.put(serverUri, clientUri);
-      if (!languageSourceFiles.containsKey(language)) {
-        languageSourceFiles.put(language, new HashMap<Module, URI>());
-      }
-      if (!languageSourceFiles.get(language).containsKey(sourceFile)) {
-        languageSourceFiles.get(language).put(sourceFile, new URI(clientUri));
-        return true;
+      SourceDocument document = documents.get(clientUri);
+      if (document == null) {
+        document = new SourceDocument(language, clientUri);
+        documents.put(clientUri, document);
+        serverClientUri.put(document.getUrl().toString(), clientUri);
       }
+      Map<Module, URI> sourceFiles =
+          languageSourceFiles.computeIfAbsent(language, l -> new ConcurrentHashMap<>());
+      Module old = document.getModule();
+      if (old != null) {
+        // replace the module holding the outdated content
+        sourceFiles.remove(old);
+      }
+      Module sourceFile = document.update(sourceFileTracker.getVersion(clientUri), text);
+      sourceFiles.put(sourceFile, new URI(clientUri));
+      return true;
     } catch (IOException e) {
       e.printStackTrace();
     } catch (URISyntaxException e) {
@@ -290,6 +518,81 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
     return false;
   }
 
+  /**
+   * Adds the source code of a document opened in the editor. Results of open documents are never
+   * evicted.
+   *
+   * @param language the language
+   * @param text the text
+   * @param clientUri the client uri
+   * @param version the document version
+   * @return true, if the source code was added or its content changed
+   */
+  public boolean openSource(String language, String text, String clientUri, int version) {
+    if (openDocuments.add(clientUri)) {
+      diagnosticPublisher.opened(clientUri);
+    }
+    return addSource(language, text, clientUri, version);
+  }
+
+  /**
+   * Updates the content of an already added source file, e.g. after a change in the editor.
+   *
+   * @param text the new text
+   * @param clientUri the client uri
+   * @param version the document version, or -1 if unknown
+   * @return true, if the content changed
+   */
+  public boolean updateSource(String text, String clientUri, int version) {
+    Optional<String> language = sourceFileTracker.getLanguage(clientUri);
+    if (!language.isPresent()) {
+      return false;
+    }
+    return addSource(language.get(), text, clientUri, version);
+  }
+
+  /**
+   * Applies the changes sent by the client to an already added source file.
+   *
+   * @param clientUri the client uri
+   * @param version the document version after the changes, or -1 if unknown
+   * @param changes the changes
+   * @return true, if the source file was changed
+   */
+  public synchronized boolean changeSource(
+      String clientUri, int version, List<TextDocumentContentChangeEvent> changes) {
+    SourceDocument document = documents.get(clientUri);
+    if (document == null || changes.isEmpty()) {
+      return false;
+    }
+    Map<Module, URI> sourceFiles = languageSourceFiles.get(document.getLanguage());
+    URI uri = sourceFiles.remove(document.getModule());
+    sourceFiles.put(document.applyChanges(version, changes), uri);
+    sourceFileTracker.changed(clientUri, version);
+    codeLensCache.invalidate(clientUri);
+    return true;
+  }
+
+  /**
+   * Marks an added source file as dirty, so it will be analyzed in the next {@link
+   * #doAnalysis(String)}.
+   *
+   * @param clientUri the client uri
+   */
+  public void markDirty(String clientUri) {
+    sourceFileTracker.markDirty(clientUri);
+  }
+
+  /**
+   * Gets the language of an added source file.
+   *
+   * @param clientUri the client uri
+   * @return the language
+   */
+  public Optional<String> getLanguage(String clientUri) {
+    return sourceFileTracker.getLanguage(clientUri);
+  }
+
   /**
    * Add project service for different languages. This should be specified by the user of
    * MagpieServer.<br>
@@ -311,6 +614,8 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
   public void addProjectService(String language, IProjectService projectService) {
     if (!this.languageProjectServices.containsKey(language)) {
       this.languageProjectServices.put(language, projectService);
+      projectService.setMetrics(metrics);
+      projectService.setTracer(tracer);
     }
   }
 
@@ -334,7 +639,7 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
    * @param analysis
    *          the analysis
    */
-  public void addAnalysis(String language, ServerAnalysis analysis) {
+  public synchronized void addAnalysis(String language, ServerAnalysis analysis) {
     if (!languageAnalyses.containsKey(language)) {
       languageAnalyses.put(language, new HashSet<ServerAnalysis>());
     }
@@ -342,50 +647,586 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
   }
 
   /**
-   * Do analysis.
+   * Declares that two analyses must not run at the same time, e.g. because they share WALA state.
+   * Analyses are otherwise run concurrently.
+   *
+   * @param first the first analysis
+   * @param second the second analysis
+   */
+  public void declareMutuallyExclusive(ServerAnalysis first, ServerAnalysis second) {
+    synchronized (analysisGroups) {
+      AnalysisGroup group = analysisGroup(first);
+      AnalysisGroup other = analysisGroup(second);
+      if (group != other) {
+        group.merge(other);
+      }
+    }
+  }
+
+  /**
+   * Gets the exclusion group of an analysis, an analysis not declared mutually exclusive with
+   * another one is a group of its own. Must be called holding the lock of {@link #analysisGroups}.
+   *
+   * @param analysis the analysis
+   * @return the root of the group
+   */
+  private AnalysisGroup analysisGroup(ServerAnalysis analysis) {
+    return analysisGroups.computeIfAbsent(analysis, a -> new AnalysisGroup()).root();
+  }
+
+  /**
+   * Schedule an analysis run for the given language on the {@link AnalysisScheduler}. The run
+   * starts after the configured quiet period and supersedes the run in flight.
+   *
+   * @param language the language
+   */
+  public void scheduleAnalysis(String language) {
+    analysisScheduler.schedule(language);
+  }
+
+  /**
+   * Do analysis. Only the source files changed since the last run are analyzed: an {@link
+   * IncrementalServerAnalysis} receives the changed files and their dependents, any other {@link
+   * ServerAnalysis} receives all source files once at least one of them changed.
    *
    * @param language the language
    */
   public void doAnalysis(String language) {
-    Map<Module, URI> sourceFiles = this.languageSourceFiles.get(language);
-    if (!languageAnalyses.containsKey(language)) {
-      languageAnalyses.put(language, Collections.emptyList());
+    doAnalysis(language, CancellationToken.NONE);
+  }
+
+  /**
+   * Do analysis. If the token gets cancelled, the changed files are marked as dirty again and left
+   * to the run superseding this one.
+   *
+   * @param language the language
+   * @param token the cancellation token
+   */
+  public void doAnalysis(String language, CancellationToken token) {
+    Set<String> changedUris;
+    Set<Module> changed = new LinkedHashSet<>();
+    List<Module> files;
+    List<ServerAnalysis> analyses;
+    synchronized (this) {
+      if (!languageAnalyses.containsKey(language)) {
+        languageAnalyses.put(language, Collections.emptyList());
+      }
+      changedUris = sourceFileTracker.takeDirty(language);
+      for (String clientUri : changedUris) {
+        SourceDocument document = documents.get(clientUri);
+        if (document != null) {
+          changed.add(document.getModule());
+        }
+      }
+      if (changed.isEmpty()) {
+        return;
+      }
+      files = new ArrayList<>(this.languageSourceFiles.get(language).keySet());
+      analyses = new ArrayList<>(languageAnalyses.get(language));
+    }
+    tracer
+        .span("server", "doAnalysis")
+        .arg("language", language)
+        .arg("changed", changed.size())
+        .run(() -> runAnalyses(changed, files, analyses, token));
+    if (token.isCancelled()) {
+      changedUris.forEach(sourceFileTracker::markDirty);
+      token.checkCanceled();
     }
-    for (ServerAnalysis analysis : languageAnalyses.get(language)) {
-      analysis.analyze(sourceFiles.keySet(), this);
+  }
+
+  /**
+   * Run the analyses on the changed files and publish the results.
+   *
+   * @param changed the changed files
+   * @param files all files
+   * @param analyses the analyses
+   * @param token the cancellation token
+   */
+  private void runAnalyses(
+      Set<Module> changed,
+      List<Module> files,
+      List<ServerAnalysis> analyses,
+      CancellationToken token) {
+    MetricsRegistry.Timer timer = metrics.timer("analysis.run");
+    long start = timer.start();
+    metrics.counter("analysis.files.changed").add(changed.size());
+    List<CompletableFuture<Void>> runs = new ArrayList<>();
+    for (ServerAnalysis analysis : analyses) {
+      runs.add(runAnalysis(analysis, changed, files, token));
+    }
+    for (CompletableFuture<Void> run : runs) {
+      try {
+        run.join();
+      } catch (CancellationException | CompletionException e) {
+        Throwable cause = e.getCause() == null ? e : e.getCause();
+        if (cause instanceof TimeoutException) {
+          logger.log(Logger.Level.ERROR, cause::getMessage);
+        } else if (!(cause instanceof CancellationException)) {
+          cause.printStackTrace();
+        }
+      }
+    }
+    evictResults();
+    diagnosticPublisher.flush();
+    timer.stop(start);
+  }
+
+  /**
+   * Run a single analysis on the analysis executor. The run takes a thread of the executor only
+   * once no other analysis of its exclusion group is running. If the analysis is still running,
+   * e.g. because its previous run timed out but did not stop yet, the run waits for it; a run
+   * already waiting is coalesced with this one.
+   *
+   * @param analysis the analysis
+   * @param changed the changed files
+   * @param files all files
+   * @param runToken the cancellation token of the whole run
+   * @return the future completed when the analysis finished or timed out
+   */
+  private CompletableFuture<Void> runAnalysis(
+      ServerAnalysis analysis,
+      Set<Module> changed,
+      List<Module> files,
+      CancellationToken runToken) {
+    AnalysisRequest request = new AnalysisRequest(analysis, changed, files, runToken);
+    synchronized (analysisGroups) {
+      AnalysisGroup group = analysisGroup(analysis);
+      AnalysisRequest waiting = group.waiting.get(analysis);
+      if (waiting != null) {
+        request.coalesce(waiting);
+      }
+      group.waiting.put(analysis, request);
+      startNext(group);
+    }
+    return request.result;
+  }
+
+  /**
+   * Submit the next waiting run of a group to the analysis executor, unless one is running. Must be
+   * called holding the lock of {@link #analysisGroups}.
+   *
+   * @param group the group
+   */
+  private void startNext(AnalysisGroup group) {
+    Iterator<AnalysisRequest> waiting = group.waiting.values().iterator();
+    while (group.running == 0 && waiting.hasNext()) {
+      AnalysisRequest request = waiting.next();
+      waiting.remove();
+      if (request.token.isCancelled()) {
+        request.result.cancel(false);
+        continue;
+      }
+      try {
+        request.worker = analysisExecutor.submit(() -> execute(request));
+        group.running++;
+      } catch (RejectedExecutionException e) {
+        request.result.completeExceptionally(e);
+      }
     }
   }
 
   /**
-   * Consume the analysis results.
+   * Execute a run of an analysis on a thread of the analysis executor and start the next waiting
+   * run of its group when done.
+   *
+   * @param request the run
+   */
+  private void execute(AnalysisRequest request) {
+    ServerAnalysis analysis = request.analysis;
+    Set<Module> changed = request.changed;
+    List<Module> files = request.files;
+    CancellationToken token = request.token;
+    CompletableFuture<Void> result = request.result;
+    ScheduledFuture<?> timeout = null;
+    if (config.getAnalysisTimeout() > 0) {
+      timeout =
+          analysisTimer.schedule(
+              () -> timeOut(request), config.getAnalysisTimeout(), TimeUnit.MILLISECONDS);
+    }
+    RunResults run = new RunResults();
+    runResults.put(analysis.source(), run);
+    MetricsRegistry.Timer timer = metrics.timer("analysis." + analysis.source());
+    long start = timer.start();
+    try (Tracer.Span span =
+        tracer.span("analysis", analysis.source()).arg("changed", changed.size())) {
+      Set<Module> changedFiles = changed;
+      List<Module> allFiles = files;
+      if (analysis.requiresFileSystem()) {
+        changedFiles = new LinkedHashSet<>(toFileModules(changed));
+        allFiles = toFileModules(files);
+      }
+      Set<URL> analyzed;
+      if (analysis instanceof IncrementalServerAnalysis) {
+        IncrementalServerAnalysis incremental = (IncrementalServerAnalysis) analysis;
+        Set<Module> affected = new LinkedHashSet<>(changedFiles);
+        affected.addAll(incremental.dependents(changedFiles, allFiles));
+        incremental.analyze(affected, allFiles, this, token);
+        analyzed = new HashSet<>();
+        for (Module module : affected) {
+          getServerUrl(module).ifPresent(analyzed::add);
+        }
+      } else {
+        analysis.analyze(allFiles, this, token);
+        analyzed = new HashSet<>(diagnostics.getFiles(analysis.source()));
+        analyzed.addAll(hovers.getFiles(analysis.source()));
+        analyzed.addAll(codeLenses.getFiles(analysis.source()));
+      }
+      span.arg("analyzed", analyzed.size());
+      if (!token.isCancelled()) {
+        commitResults(analysis.source(), run, analyzed);
+      }
+      timer.stop(start);
+      result.complete(null);
+    } catch (Throwable e) {
+      timer.stop(start);
+      // a run which timed out is counted as timeout only
+      if (result.completeExceptionally(e)) {
+        metrics.counter("analysis." + analysis.source() + ".failures").inc();
+      }
+    } finally {
+      runResults.remove(analysis.source(), run);
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+      synchronized (analysisGroups) {
+        AnalysisGroup group = analysisGroup(analysis);
+        group.running--;
+        startNext(group);
+      }
+    }
+  }
+
+  /**
+   * Cancel a run which exceeded the analysis timeout and interrupt its thread. The thread is only
+   * free for the next run of the group once the analysis actually stopped.
+   *
+   * @param request the run
+   */
+  private void timeOut(AnalysisRequest request) {
+    if (request.result.isDone()) {
+      return;
+    }
+    Future<?> worker;
+    synchronized (analysisGroups) {
+      worker = request.worker;
+    }
+    request.token.cancel();
+    worker.cancel(true);
+    String source = request.analysis.source();
+    metrics.counter("analysis." + source + ".timeouts").inc();
+    request.result.completeExceptionally(
+        new TimeoutException(
+            "Analysis " + source + " timed out after " + config.getAnalysisTimeout() + " ms."));
+  }
+
+  /**
+   * Replace the in-memory modules by modules backed by files on disk, for analyses which need a
+   * real path.
+   *
+   * @param modules the modules
+   * @return the file modules
+   * @throws IOException if a file cannot be written
+   */
+  private List<Module> toFileModules(Collection<Module> modules) throws IOException {
+    List<Module> fileModules = new ArrayList<>(modules.size());
+    for (Module module : modules) {
+      if (module instanceof InMemorySourceModule) {
+        SourceDocument document = ((InMemorySourceModule) module).getDocument();
+        fileModules.add(document.getFileModule());
+        serverClientUri.put(document.getFileUri(), document.getClientUri());
+      } else {
+        fileModules.add(module);
+      }
+    }
+    return fileModules;
+  }
+
+  /**
+   * Replace the results of an analysis for the analyzed files with the results of its last run, so
+   * results of earlier runs which were not reported again are removed.
+   *
+   * @param source the analysis source
+   * @param run the results of the run
+   * @param analyzed the files analyzed by the run
+   */
+  private void commitResults(String source, RunResults run, Set<URL> analyzed) {
+    Set<URL> files = new HashSet<>(analyzed);
+    files.addAll(run.diagnostics.keySet());
+    files.addAll(run.hovers.keySet());
+    files.addAll(run.codeLenses.keySet());
+    for (URL url : files) {
+      diagnostics.replace(url, source, run.diagnostics.getOrDefault(url, Collections.emptyList()));
+      hovers.replace(url, source, run.hovers.getOrDefault(url, Collections.emptyList()));
+      codeLenses.replace(url, source, run.codeLenses.getOrDefault(url, Collections.emptyList()));
+      diagnosticPublisher.markChanged(url);
+    }
+  }
+
+  /**
+   * Remove the results of the least recently analyzed files which are not open in the editor once
+   * more diagnostics than configured are retained.
+   */
+  protected void evictResults() {
+    List<URL> evicted =
+        diagnostics.evict(
+            config.getMaxRetainedDiagnostics(),
+            url -> {
+              Optional<String> clientUri = getClientUri(url);
+              return clientUri.isPresent() && openDocuments.contains(clientUri.get());
+            });
+    for (URL url : evicted) {
+      hovers.remove(url);
+      hoverIndexes.remove(url);
+      codeLenses.remove(url);
+      getClientUri(url).ifPresent(diagnosticPublisher::forget);
+      getClientUri(url).ifPresent(codeLensCache::invalidate);
+      // the results come back when the file is added again
+      getClientUri(url).ifPresent(sourceFileTracker::forgetContent);
+    }
+  }
+
+  /**
+   * Gets the url of the file backing a module, as used by the positions of analysis results.
+   *
+   * @param module the module
+   * @return the url
+   */
+  protected Optional<URL> getServerUrl(Module module) {
+    if (module instanceof InMemorySourceModule) {
+      return Optional.of(((InMemorySourceModule) module).getURL());
+    }
+    if (module instanceof SourceFileModule) {
+      try {
+        return Optional.of(normalizeUrl(((SourceFileModule) module).getFile().toURI().toURL()));
+      } catch (MalformedURLException e) {
+        e.printStackTrace();
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Closes a source file opened in the editor. If configured, its results are removed and empty
+   * diagnostics are published for it.
+   *
+   * @param clientUri the client uri
+   */
+  public void closeSource(String clientUri) {
+    openDocuments.remove(clientUri);
+    diagnosticPublisher.closed(clientUri);
+    codeLensCache.invalidate(clientUri);
+    SourceDocument document = documents.get(clientUri);
+    if (document == null) {
+      return;
+    }
+    // the file is written again if an analysis needs it
+    document.releaseFile();
+    if (!config.isClearResultsOnClose()) {
+      return;
+    }
+    // the results come back when the file is opened again
+    sourceFileTracker.forgetContent(clientUri);
+    Set<URL> urls = new HashSet<>();
+    urls.add(document.getUrl());
+    String fileUri = document.getFileUri();
+    if (fileUri != null) {
+      try {
+        urls.add(new URI(fileUri).toURL());
+      } catch (URISyntaxException | MalformedURLException e) {
+        e.printStackTrace();
+      }
+    }
+    for (URL url : urls) {
+      diagnostics.remove(url);
+      hovers.remove(url);
+      hoverIndexes.remove(url);
+      codeLenses.remove(url);
+      diagnosticPublisher.markChanged(url);
+    }
+    diagnosticPublisher.flush();
+  }
+
+  /** The results consumed during a single run of an analysis. */
+  private static class RunResults {
+    private final Map<URL, List<Diagnostic>> diagnostics = new ConcurrentHashMap<>();
+    private final Map<URL, List<Hover>> hovers = new ConcurrentHashMap<>();
+    private final Map<URL, List<CodeLens>> codeLenses = new ConcurrentHashMap<>();
+
+    private static <T> void record(Map<URL, List<T>> run, Map<URL, List<T>> consumed) {
+      consumed.forEach(
+          (url, list) ->
+              run.computeIfAbsent(url, u -> Collections.synchronizedList(new ArrayList<>()))
+                  .addAll(list));
+    }
+  }
+
+  /**
+   * A group of mutually exclusive analyses, of which at most one runs at a time. Groups are merged
+   * by linking the root of one group to the root of the other, the root holds the state of the
+   * whole group.
+   */
+  private static class AnalysisGroup {
+    private AnalysisGroup parent;
+    private int running;
+    private final Map<ServerAnalysis, AnalysisRequest> waiting = new LinkedHashMap<>();
+
+    private AnalysisGroup root() {
+      AnalysisGroup root = this;
+      while (root.parent != null) {
+        root = root.parent;
+      }
+      if (parent != null && parent != root) {
+        parent = root;
+      }
+      return root;
+    }
+
+    private void merge(AnalysisGroup other) {
+      other.parent = this;
+      running += other.running;
+      other.running = 0;
+      other.waiting.forEach(waiting::putIfAbsent);
+      other.waiting.clear();
+    }
+  }
+
+  /** A run of an analysis, waiting for its group or running. */
+  private static class AnalysisRequest {
+    private final ServerAnalysis analysis;
+    private final Set<Module> changed;
+    private final List<Module> files;
+    private final List<CancellationToken> runTokens;
+    private final CancellationToken token;
+    private final CompletableFuture<Void> result;
+    private Future<?> worker;
+
+    private AnalysisRequest(
+        ServerAnalysis analysis,
+        Set<Module> changed,
+        List<Module> files,
+        CancellationToken runToken) {
+      this.analysis = analysis;
+      this.changed = new LinkedHashSet<>(changed);
+      this.files = files;
+      this.runTokens = new CopyOnWriteArrayList<>(Collections.singletonList(runToken));
+      this.result = new CompletableFuture<>();
+      // cancelled by a timeout, or once every run it was coalesced from is cancelled
+      this.token =
+          new CancellationToken() {
+            @Override
+            public boolean isCancelled() {
+              return super.isCancelled()
+                  || runTokens.stream().allMatch(CancellationToken::isCancelled);
+            }
+          };
+    }
+
+    /**
+     * Take over the files of an older run still waiting, which completes with this one.
+     *
+     * @param older the older run
+     */
+    private void coalesce(AnalysisRequest older) {
+      Set<Module> current = new HashSet<>(files);
+      Set<Module> merged = new LinkedHashSet<>();
+      for (Module module : older.changed) {
+        // an outdated version of a file changed again is left out
+        if (current.contains(module)) {
+          merged.add(module);
+        }
+      }
+      merged.addAll(changed);
+      changed.clear();
+      changed.addAll(merged);
+      runTokens.addAll(older.runTokens);
+      result.whenComplete(
+          (v, e) -> {
+            if (e == null) {
+              older.result.complete(null);
+            } else {
+              older.result.completeExceptionally(e);
+            }
+          });
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  /**
+   * Consume the analysis results. The results are grouped by file and stored at once per file, so
+   * this method can be called concurrently by analyses running on different threads. Results
+   * consumed during a run of the analysis are stored when the run finishes, and dropped if it is
+   * cancelled, times out or fails. Diagnostics are published by the {@link DiagnosticPublisher}
+   * when the analysis run finishes.
    *
    * @param results the results
    * @param source the source
    */
   public void consume(Collection<AnalysisResult> results, String source) {
+    tracer
+        .span("server", "consume")
+        .arg("source", source)
+        .arg("results", results.size())
+        .run(() -> consumeResults(results, source));
+  }
+
+  /**
+   * Group the analysis results by file and store them.
+   *
+   * @param results the results
+   * @param source the source
+   */
+  private void consumeResults(Collection<AnalysisResult> results, String source) {
+    MetricsRegistry.Timer timer = metrics.timer("consume");
+    long start = timer.start();
+    metrics.counter("consume.results").add(results.size());
+    Map<URL, List<Diagnostic>> newDiagnostics = new LinkedHashMap<>();
+    Map<URL, List<Hover>> newHovers = new LinkedHashMap<>();
+    Map<URL, List<CodeLens>> newCodeLenses = new LinkedHashMap<>();
     for (AnalysisResult result : results) {
-      URL url = result.position().getURL();
-      List<Diagnostic> diagList = null;
-      if (this.diagnostics.containsKey(url)) {
-        diagList = diagnostics.get(url);
-      } else {
-        diagList = new ArrayList<>();
-        this.diagnostics.put(url, diagList);
-      }
+      URL url = normalizeUrl(result.position().getURL());
       switch (result.kind()) {
         case Diagnostic:
-          createDiagnosticConsumer(diagList, source).accept(result);
+          createDiagnosticConsumer(
+                  newDiagnostics.computeIfAbsent(url, u -> new ArrayList<>()), source)
+              .accept(result);
           break;
         case Hover:
-          createHoverConsumer().accept(result);
+          createHoverConsumer(newHovers.computeIfAbsent(url, u -> new ArrayList<>()))
+              .accept(result);
           break;
         case CodeLens:
-          createCodeLensConsumer().accept(result);
+          createCodeLensConsumer(newCodeLenses.computeIfAbsent(url, u -> new ArrayList<>()))
+              .accept(result);
           break;
         default:
           break;
       }
     }
+    RunResults run = runResults.get(source);
+    if (run != null) {
+      // stored when the run finishes, dropped if it is cancelled, times out or fails
+      RunResults.record(run.diagnostics, newDiagnostics);
+      RunResults.record(run.hovers, newHovers);
+      RunResults.record(run.codeLenses, newCodeLenses);
+    } else {
+      newHovers.forEach((url, list) -> hovers.add(url, source, list));
+      newCodeLenses.forEach((url, list) -> codeLenses.add(url, source, list));
+      newDiagnostics.forEach(
+          (url, list) -> {
+            diagnostics.add(url, source, list);
+            diagnosticPublisher.markChanged(url);
+          });
+    }
+    timer.stop(start);
   }
 
   /*
@@ -418,10 +1259,57 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
     return Optional.ofNullable(languageProjectServices.get(language));
   }
 
+  /**
+   * Gets the project services of all languages.
+   *
+   * @return the project services
+   */
+  public Collection<IProjectService> getProjectServices() {
+    return languageProjectServices.values();
+  }
+
+  /**
+   * Gets the scheduler of the analysis runs triggered by document changes.
+   *
+   * @return the analysis scheduler
+   */
+  public AnalysisScheduler getAnalysisScheduler() {
+    return analysisScheduler;
+  }
+
+  /**
+   * Gets the metrics, which record nothing unless enabled in the {@link ServerConfiguration}.
+   *
+   * @return the metrics
+   */
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Gets the tracer, which records nothing unless enabled in the {@link ServerConfiguration}.
+   * Analyses may record their own spans, e.g. for building a call graph, to show up in the trace.
+   *
+   * @return the tracer
+   */
+  public Tracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * Gets the service sharing the WALA class hierarchy of the JDK and the project libraries between
+   * analyses and analysis runs.
+   *
+   * @return the class hierarchy service
+   */
+  public ClassHierarchyService getClassHierarchyService() {
+    return classHierarchyService;
+  }
+
   /**
    * Creates the diagnostic consumer.
    *
-   * @param diagList the diag list
+   * @param diagList the list the created diagnostics are added to
    * @param source the source
    * @return the consumer
    */
@@ -442,49 +1330,77 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
           }
           d.setRelatedInformation(relatedList);
           d.setSeverity(result.severity());
-          if (!diagList.contains(d)) {
-            diagList.add(d);
-          }
-          PublishDiagnosticsParams pdp = new PublishDiagnosticsParams();
-          pdp.setDiagnostics(diagList);
-          String serverUri = result.position().getURL().toString();
-          if (System.getProperty("os.name").toLowerCase().indexOf("win") >= 0) {
-            // take care of uri in windows
-            if (!serverUri.startsWith("file:///")) {
-              serverUri = serverUri.replace("file://", "file:///");
-            }
-          }
-          String clientUri = null;
-          if (serverClientUri.containsKey(serverUri)) {
-            // the file was at least opened once in the editor
-            clientUri = serverClientUri.get(serverUri);
-          } else {
-            // the file was not opened, but whole project was analyzed
-            try {
-              File file = new File(new URI(serverUri));
-              if (file.exists()) {
-                clientUri = serverUri;
-              }
-            } catch (URISyntaxException e) {
-              e.printStackTrace();
-            }
-          }
-          if (clientUri != null) {
-            pdp.setUri(clientUri);
-            client.publishDiagnostics(pdp);
-            logger.logServerMsg(pdp.toString());
-            System.err.println("server:\n" + pdp);
-          }
+          // duplicates are dropped by the diagnostic store
+          diagList.add(d);
         };
     return consumer;
   }
 
+  /**
+   * Maps the url of a temporary file written for a document to the url of the document, so the
+   * results of a document are stored under a single url regardless of the modules they came from.
+   *
+   * @param url the url
+   * @return the normalized url
+   */
+  protected URL normalizeUrl(URL url) {
+    String clientUri = serverClientUri.get(url.toString());
+    if (clientUri == null && "file".equals(url.getProtocol())) {
+      try {
+        // file urls come as file:/path as well as file:///path
+        clientUri = serverClientUri.get(Paths.get(url.toURI()).toUri().toString());
+      } catch (URISyntaxException | IllegalArgumentException e) {
+        // not a path of a temporary file
+      }
+    }
+    if (clientUri != null) {
+      SourceDocument document = documents.get(clientUri);
+      if (document != null) {
+        return document.getUrl();
+      }
+    }
+    return url;
+  }
+
+  /**
+   * Gets the uri the client knows a file by.
+   *
+   * @param url the file
+   * @return the client uri, or empty if the file is not known to the client
+   */
+  protected Optional<String> getClientUri(URL url) {
+    String serverUri = url.toString();
+    if (System.getProperty("os.name").toLowerCase().indexOf("win") >= 0) {
+      // take care of uri in windows
+      if (!serverUri.startsWith("file:///")) {
+        serverUri = serverUri.replace("file://", "file:///");
+      }
+    }
+    String clientUri = null;
+    if (serverClientUri.containsKey(serverUri)) {
+      // the file was at least opened once in the editor
+      clientUri = serverClientUri.get(serverUri);
+    } else {
+      // the file was not opened, but whole project was analyzed
+      try {
+        File file = new File(new URI(serverUri));
+        if (file.exists()) {
+          clientUri = serverUri;
+        }
+      } catch (URISyntaxException e) {
+        e.printStackTrace();
+      }
+    }
+    return Optional.ofNullable(clientUri);
+  }
+
   /**
    * Creates the hover consumer.
    *
+   * @param hoverList the list the created hovers are added to
    * @return the consumer
    */
-  protected Consumer<AnalysisResult> createHoverConsumer() {
+  protected Consumer<AnalysisResult> createHoverConsumer(List<Hover> hoverList) {
     Consumer<AnalysisResult> consumer =
         result -> {
           Hover hover = new Hover();
@@ -493,6 +1409,7 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
           contents.add(content);
           hover.setContents(contents);
           hover.setRange(getLocationFrom(result.position()).getRange());
+          hoverList.add(hover);
         };
     return consumer;
   }
@@ -500,18 +1417,38 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
   /**
    * Creates the code lens consumer.
    *
+   * @param codeLensList the list the created code lenses are added to
    * @return the consumer
    */
-  protected Consumer<AnalysisResult> createCodeLensConsumer() {
+  protected Consumer<AnalysisResult> createCodeLensConsumer(List<CodeLens> codeLensList) {
     Consumer<AnalysisResult> consumer =
         result -> {
           CodeLens codeLens = new CodeLens();
-
           codeLens.setRange(getLocationFrom(result.position()).getRange());
+          // the command is created when the client resolves the code lens
+          codeLens.setData(result);
+          codeLensList.add(codeLens);
         };
     return consumer;
   }
 
+  /**
+   * Creates the command of a code lens created by {@link #createCodeLensConsumer(List)}.
+   *
+   * @param codeLens the code lens
+   * @return the command
+   */
+  protected Command createCodeLensCommand(CodeLens codeLens) {
+    Command command = new Command();
+    command.setCommand("");
+    if (codeLens.getData() instanceof AnalysisResult) {
+      command.setTitle(((AnalysisResult) codeLens.getData()).toString(false));
+    } else {
+      command.setTitle("");
+    }
+    return command;
+  }
+
   /**
    * Gets the location from given position.
    *
@@ -520,10 +1457,15 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
    */
   protected Location getLocationFrom(Position pos) {
     Location codeLocation = new Location();
-    try {
-      codeLocation.setUri(pos.getURL().toURI().toString());
-    } catch (URISyntaxException e) {
-      e.printStackTrace();
+    Optional<String> clientUri = getClientUri(normalizeUrl(pos.getURL()));
+    if (clientUri.isPresent()) {
+      codeLocation.setUri(clientUri.get());
+    } else {
+      try {
+        codeLocation.setUri(pos.getURL().toURI().toString());
+      } catch (URISyntaxException e) {
+        e.printStackTrace();
+      }
     }
     Range codeRange = new Range();
     if (pos.getFirstCol() < 0) {
@@ -620,8 +1562,34 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
    * @return the hover
    */
   public Hover findHover(Position lookupPos) {
-    // TODO Auto-generated method stub
-    return null;
+    URL url = normalizeUrl(lookupPos.getURL());
+    List<Hover> hoverList = hovers.get(url);
+    if (hoverList.isEmpty()) {
+      hoverIndexes.remove(url);
+      return null;
+    }
+    Pair<List<Hover>, RangeIndex<Hover>> index = hoverIndexes.get(url);
+    if (index == null || index.fst != hoverList) {
+      // the hovers changed since the index was built
+      index = Pair.make(hoverList, new RangeIndex<>(hoverList, Hover::getRange));
+      hoverIndexes.put(url, index);
+    }
+    List<Hover> found = index.snd.find(lookupPos.getFirstLine() - 1, lookupPos.getFirstCol());
+    if (found.isEmpty()) {
+      return null;
+    }
+    // the innermost range, with the contents of all hovers containing the position
+    Hover hover = new Hover();
+    List<Either<String, MarkedString>> contents = new ArrayList<>();
+    for (Hover h : found) {
+      if (!h.getContents().isLeft()) {
+        return found.get(0);
+      }
+      contents.addAll(h.getContents().getLeft());
+    }
+    hover.setContents(contents);
+    hover.setRange(found.get(0).getRange());
+    return hover;
   }
 
   /**
@@ -631,41 +1599,91 @@ public class MagpieServer implements LanguageServer, LanguageClientAware {
    * @return the list
    */
   public List<CodeLens> findCodeLenses(URI uri) {
-    // TODO Auto-generated method stub
-    return null;
+    String clientUri = uri.toString();
+    SourceDocument document = documents.get(clientUri);
+    URL url;
+    if (document != null) {
+      url = document.getUrl();
+    } else {
+      try {
+        url = normalizeUrl(uri.toURL());
+      } catch (MalformedURLException | IllegalArgumentException e) {
+        e.printStackTrace();
+        return Collections.emptyList();
+      }
+    }
+    return codeLensCache.get(
+        clientUri, sourceFileTracker.getVersion(clientUri), codeLenses.get(url));
   }
 
   /**
-   * Log stream.
+   * Resolve the command of a code lens returned by {@link #findCodeLenses(URI)}.
    *
-   * @param is the is
-   * @param logFileName the log file name
-   * @return the input stream
+   * @param codeLens the code lens
+   * @return the resolved code lens
    */
-  static InputStream logStream(InputStream is, String logFileName) {
-    File log;
-    try {
-      log = File.createTempFile(logFileName, ".txt");
-      return new TeeInputStream(is, new FileOutputStream(log));
-    } catch (IOException e) {
+  public CodeLens resolveCodeLens(CodeLens codeLens) {
+    return codeLensCache.resolve(codeLens);
+  }
+
+  /**
+   * Traces the stream from the client if wire tracing is enabled.
+   *
+   * @param is the stream
+   * @param name the name of the trace
+   * @return the traced stream
+   */
+  protected InputStream traceStream(InputStream is, String name) {
+    WireTrace trace = WireTrace.create(config, name);
+    if (trace == null) {
       return is;
     }
+    inTrace = trace;
+    return new TeeInputStream(is, trace);
   }
 
   /**
-   * Log stream.
+   * Traces the stream to the client if wire tracing is enabled.
    *
-   * @param os the os
-   * @param logFileName the log file name
-   * @return the output stream
+   * @param os the stream
+   * @param name the name of the trace
+   * @return the traced stream
    */
-  static OutputStream logStream(OutputStream os, String logFileName) {
-    File log;
-    try {
-      log = File.createTempFile(logFileName, ".txt");
-      return new TeeOutputStream(os, new FileOutputStream(log));
-    } catch (IOException e) {
+  protected OutputStream traceStream(OutputStream os, String name) {
+    WireTrace trace = WireTrace.create(config, name);
+    if (trace == null) {
       return os;
     }
+    outTrace = trace;
+    return new TeeOutputStream(os, trace);
+  }
+
+  /**
+   * Dumps the bytes kept in memory by wire tracing in {@link WireTrace.Mode#MEMORY}.
+   *
+   * @return the most recent bytes received from and sent to the client
+   */
+  public String dumpWireTrace() {
+    StringBuilder sb = new StringBuilder();
+    if (inTrace != null) {
+      sb.append("client sends:\n");
+      sb.append(new String(inTrace.dump(), StandardCharsets.UTF_8));
+      sb.append("\n");
+    }
+    if (outTrace != null) {
+      sb.append("server sends:\n");
+      sb.append(new String(outTrace.dump(), StandardCharsets.UTF_8));
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
+
+  private void closeWireTraces() throws IOException {
+    if (inTrace != null) {
+      inTrace.close();
+    }
+    if (outTrace != null) {
+      outTrace.close();
+    }
   }
 }
@@ -7,6 +7,7 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import org.eclipse.lsp4j.CodeLens;
 import org.eclipse.lsp4j.CodeLensParams;
@@ -17,6 +18,7 @@ import org.eclipse.lsp4j.DidSaveTextDocumentParams;
 import org.eclipse.lsp4j.Hover;
 import org.eclipse.lsp4j.TextDocumentItem;
 import org.eclipse.lsp4j.TextDocumentPositionParams;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
 import org.eclipse.lsp4j.services.TextDocumentService;
 
 /**
@@ -34,64 +36,115 @@ public class MagpieTextDocumentService implements TextDocumentService {
 
   @Override
   public void didOpen(DidOpenTextDocumentParams params) {
-    server.logger.logClientMsg(params.toString());
-    System.err.println("client didOpen:\n" + params);
+    server.logger.logClientMsg(params::toString);
     TextDocumentItem doc = params.getTextDocument();
     String language = doc.getLanguageId();
-    if (server.rootPath.isPresent()) {
-      if (server.getProjectService(language).isPresent())
-        server.getProjectService(language).get().setRootPath(server.rootPath.get());
-    }
-    server.addSource(language, doc.getText(), doc.getUri());
-    server.doAnalysis(language);
+    server
+        .tracer
+        .span("request", "didOpen")
+        .arg("uri", doc.getUri())
+        .run(
+            () -> {
+              if (server.rootPath.isPresent()) {
+                if (server.getProjectService(language).isPresent())
+                  server.getProjectService(language).get().setRootPath(server.rootPath.get());
+              }
+              server.openSource(language, doc.getText(), doc.getUri(), doc.getVersion());
+              server.scheduleAnalysis(language);
+            });
   }
 
   @Override
   public void didChange(DidChangeTextDocumentParams params) {
-    server.logger.logClientMsg(params.toString());
+    server.logger.logClientMsg(params::toString);
+    VersionedTextDocumentIdentifier doc = params.getTextDocument();
+    Integer version = doc.getVersion();
+    server
+        .tracer
+        .span("request", "didChange")
+        .arg("uri", doc.getUri())
+        .run(
+            () -> {
+              if (server.changeSource(
+                  doc.getUri(), version == null ? -1 : version, params.getContentChanges())) {
+                server.scheduleAnalysis(server.getLanguage(doc.getUri()).get());
+              }
+            });
   }
 
   @Override
   public void didClose(DidCloseTextDocumentParams params) {
-    // TODO Auto-generated method stub
-
+    server.logger.logClientMsg(params::toString);
+    String uri = params.getTextDocument().getUri();
+    server.tracer.span("request", "didClose").arg("uri", uri).run(() -> server.closeSource(uri));
   }
 
   @Override
   public void didSave(DidSaveTextDocumentParams params) {
-    // TODO Auto-generated method stub
-
+    server.logger.logClientMsg(params::toString);
+    String uri = params.getTextDocument().getUri();
+    Optional<String> language = server.getLanguage(uri);
+    if (language.isPresent()) {
+      server
+          .tracer
+          .span("request", "didSave")
+          .arg("uri", uri)
+          .run(
+              () -> {
+                if (params.getText() != null) {
+                  server.updateSource(params.getText(), uri, -1);
+                }
+                server.scheduleAnalysis(language.get());
+              });
+    }
   }
 
   @Override
   public CompletableFuture<Hover> hover(TextDocumentPositionParams position) {
     return CompletableFuture.supplyAsync(
         () -> {
-          Hover hover = new Hover();
-          try {
-            String uri = position.getTextDocument().getUri();
-            URL url = new URI(uri).toURL();
-            Position lookupPos = server.lookupPos(position.getPosition(), url);
-            hover = server.findHover(lookupPos);
-          } catch (MalformedURLException | URISyntaxException e) {
-            e.printStackTrace();
-          }
-          return hover;
+          String uri = position.getTextDocument().getUri();
+          return server
+              .tracer
+              .span("request", "hover")
+              .arg("uri", uri)
+              .call(
+                  () -> {
+                    try {
+                      URL url = new URI(uri).toURL();
+                      Position lookupPos = server.lookupPos(position.getPosition(), url);
+                      return server.findHover(lookupPos);
+                    } catch (MalformedURLException | URISyntaxException e) {
+                      e.printStackTrace();
+                      return new Hover();
+                    }
+                  });
         });
   }
 
   @Override
   public CompletableFuture<List<? extends CodeLens>> codeLens(CodeLensParams params) {
-    return CompletableFuture.supplyAsync(
-        () -> {
-          List<CodeLens> codeLenses = new ArrayList<CodeLens>();
-          String uri = params.getTextDocument().getUri();
-          try {
-            codeLenses = server.findCodeLenses(new URI(uri));
-          } catch (URISyntaxException e) {
-            e.printStackTrace();
-          }
-          return codeLenses;
-        });
+    // answered from the cache, no need to leave the message thread
+    String uri = params.getTextDocument().getUri();
+    List<CodeLens> codeLenses =
+        server
+            .tracer
+            .span("request", "codeLens")
+            .arg("uri", uri)
+            .call(
+                () -> {
+                  try {
+                    return server.findCodeLenses(new URI(uri));
+                  } catch (URISyntaxException e) {
+                    e.printStackTrace();
+                    return new ArrayList<CodeLens>();
+                  }
+                });
+    return CompletableFuture.completedFuture(codeLenses);
+  }
+
+  @Override
+  public CompletableFuture<CodeLens> resolveCodeLens(CodeLens unresolved) {
+    return CompletableFuture.completedFuture(server.resolveCodeLens(unresolved));
   }
 }
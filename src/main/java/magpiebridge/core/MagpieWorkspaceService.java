@@ -1,7 +1,23 @@
 package magpiebridge.core;
 
+import com.google.gson.JsonPrimitive;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import org.eclipse.lsp4j.DidChangeConfigurationParams;
 import org.eclipse.lsp4j.DidChangeWatchedFilesParams;
+import org.eclipse.lsp4j.ExecuteCommandParams;
+import org.eclipse.lsp4j.FileEvent;
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseError;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
 import org.eclipse.lsp4j.services.WorkspaceService;
 
 /**
@@ -25,7 +41,94 @@ public class MagpieWorkspaceService implements WorkspaceService {
 
   @Override
   public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
-    // TODO Auto-generated method stub
+    server.logger.logClientMsg(params::toString);
+    Set<IProjectService> outdated = new HashSet<>();
+    for (FileEvent event : params.getChanges()) {
+      Path file;
+      try {
+        file = Paths.get(new URI(event.getUri()));
+      } catch (URISyntaxException | IllegalArgumentException e) {
+        continue;
+      }
+      for (IProjectService projectService : server.getProjectServices()) {
+        if (projectService.isConfigurationFile(file)) {
+          outdated.add(projectService);
+        }
+      }
+    }
+    for (IProjectService projectService : outdated) {
+      projectService.invalidate();
+      projectService.prefetch();
+    }
+  }
+
+  /**
+   * Executes the commands of the server: {@link MagpieServer#METRICS_COMMAND} returns a snapshot of
+   * the metrics, {@link MagpieServer#TRACE_COMMAND} the tracing spans.
+   */
+  @Override
+  public CompletableFuture<Object> executeCommand(ExecuteCommandParams params) {
+    server.logger.logClientMsg(params::toString);
+    if (MagpieServer.METRICS_COMMAND.equals(params.getCommand())) {
+      return CompletableFuture.completedFuture(server.getMetrics().snapshot());
+    }
+    if (MagpieServer.TRACE_COMMAND.equals(params.getCommand())) {
+      return CompletableFuture.supplyAsync(() -> exportTrace(params.getArguments()));
+    }
+    return WorkspaceService.super.executeCommand(params);
+  }
+
+  /**
+   * Exports the tracing spans, and writes them to the file given as first argument if any.
+   *
+   * @param arguments the command arguments
+   * @return the Chrome trace
+   */
+  private Object exportTrace(List<Object> arguments) {
+    Tracer tracer = server.getTracer();
+    if (arguments != null && !arguments.isEmpty()) {
+      Object file = arguments.get(0);
+      String name =
+          file instanceof JsonPrimitive
+              ? ((JsonPrimitive) file).getAsString()
+              : String.valueOf(file);
+      try {
+        tracer.write(traceFile(name));
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return tracer.toChromeTrace();
+  }
+
+  /**
+   * Resolves the file a trace is written to in the trace export directory.
+   *
+   * @param name the file name given by the client
+   * @return the file
+   * @throws ResponseErrorException if no directory is configured or the file is outside of it
+   */
+  private Path traceFile(String name) {
+    Path directory = server.config.getTraceExportDirectory();
+    if (directory == null) {
+      throw invalidParams("No trace export directory is configured");
+    }
+    try {
+      directory = directory.toRealPath();
+      Path file = directory.resolve(name).normalize();
+      if (file.startsWith(directory)
+          && !file.equals(directory)
+          && file.getParent().toRealPath().startsWith(directory)) {
+        return file;
+      }
+    } catch (IOException | InvalidPathException e) {
+      // rejected below
+    }
+    throw invalidParams("Traces can only be written to " + directory);
+  }
 
+  private static ResponseErrorException invalidParams(String message) {
+    return new ResponseErrorException(
+        new ResponseError(ResponseErrorCode.InvalidParams, message, null));
   }
 }
@@ -0,0 +1,414 @@
+package magpiebridge.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The Class MetricsRegistry holds the counters, timers and gauges of a {@link MagpieServer}.
+ * Metrics are created on first use and looked up by name. A disabled registry hands out shared
+ * instances which record nothing, so instrumented code costs a branch when metrics are off.
+ *
+ * <p>Timers keep a histogram with eight buckets per power of two of nanoseconds, percentiles are
+ * reported as the upper bound of their bucket, which is at most 12.5% above the exact value.
+ */
+public class MetricsRegistry {
+
+  /** The counter of a disabled registry. */
+  private static final Counter NOOP_COUNTER = new Counter(false);
+
+  /** The timer of a disabled registry. */
+  private static final Timer NOOP_TIMER = new Timer(false);
+
+  /** Whether metrics are recorded. */
+  private final boolean enabled;
+
+  /** The counters by name. */
+  private final Map<String, Counter> counters;
+
+  /** The timers by name. */
+  private final Map<String, Timer> timers;
+
+  /** The gauges by name. */
+  private final Map<String, Supplier<? extends Number>> gauges;
+
+  /** The name the registry is registered under in JMX, or null. */
+  private ObjectName objectName;
+
+  /**
+   * Instantiates a new metrics registry.
+   *
+   * @param enabled whether metrics are recorded
+   */
+  public MetricsRegistry(boolean enabled) {
+    this.enabled = enabled;
+    this.counters = new ConcurrentHashMap<>();
+    this.timers = new ConcurrentHashMap<>();
+    this.gauges = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Checks if metrics are recorded.
+   *
+   * @return true, if enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Gets the counter with the given name, creating it on first use.
+   *
+   * @param name the name
+   * @return the counter
+   */
+  public Counter counter(String name) {
+    if (!enabled) {
+      return NOOP_COUNTER;
+    }
+    return counters.computeIfAbsent(name, n -> new Counter(true));
+  }
+
+  /**
+   * Gets the timer with the given name, creating it on first use.
+   *
+   * @param name the name
+   * @return the timer
+   */
+  public Timer timer(String name) {
+    if (!enabled) {
+      return NOOP_TIMER;
+    }
+    return timers.computeIfAbsent(name, n -> new Timer(true));
+  }
+
+  /**
+   * Registers a gauge, a value read whenever the metrics are reported.
+   *
+   * @param name the name
+   * @param value the supplier of the current value
+   */
+  public void gauge(String name, Supplier<? extends Number> value) {
+    if (enabled) {
+      gauges.put(name, value);
+    }
+  }
+
+  /**
+   * Takes a snapshot of all metrics, sorted by name. Counters and gauges map to their value, timers
+   * to a map of their count, mean, percentiles and maximum in milliseconds.
+   *
+   * @return the snapshot
+   */
+  public Map<String, Object> snapshot() {
+    Map<String, Object> result = new TreeMap<>();
+    counters.forEach((name, counter) -> result.put(name, counter.get()));
+    timers.forEach((name, timer) -> result.put(name, timer.snapshot()));
+    gauges.forEach((name, gauge) -> result.put(name, gauge.get()));
+    return result;
+  }
+
+  /**
+   * Registers the metrics as attributes of an MBean in the platform MBean server. Timer values are
+   * flattened to attributes like <code>analysis.run.p99Ms</code>.
+   *
+   * @param name the object name, e.g. <code>magpiebridge:type=Metrics</code>
+   */
+  public synchronized void registerMBean(String name) {
+    if (!enabled || objectName != null) {
+      return;
+    }
+    try {
+      ObjectName on = new ObjectName(name);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(on)) {
+        server.unregisterMBean(on);
+      }
+      server.registerMBean(new MetricsMBean(), on);
+      objectName = on;
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** Removes the MBean registered by {@link #registerMBean(String)}. */
+  public synchronized void unregisterMBean() {
+    if (objectName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+    objectName = null;
+  }
+
+  /** The snapshot with the values of timers flattened into one entry each. */
+  private Map<String, Number> flatSnapshot() {
+    Map<String, Number> result = new TreeMap<>();
+    snapshot()
+        .forEach(
+            (name, value) -> {
+              if (value instanceof Map) {
+                ((Map<?, ?>) value).forEach((key, v) -> result.put(name + "." + key, (Number) v));
+              } else {
+                result.put(name, (Number) value);
+              }
+            });
+    return result;
+  }
+
+  /** A counter of events or amounts. */
+  public static class Counter {
+
+    /** Whether the counter records anything. */
+    private final boolean active;
+
+    /** The count. */
+    private final LongAdder count = new LongAdder();
+
+    private Counter(boolean active) {
+      this.active = active;
+    }
+
+    /** Increments the counter. */
+    public void inc() {
+      if (active) {
+        count.increment();
+      }
+    }
+
+    /**
+     * Adds to the counter.
+     *
+     * @param amount the amount
+     */
+    public void add(long amount) {
+      if (active) {
+        count.add(amount);
+      }
+    }
+
+    /**
+     * Gets the count.
+     *
+     * @return the count
+     */
+    public long get() {
+      return count.sum();
+    }
+  }
+
+  /** A timer recording durations in a histogram. */
+  public static class Timer {
+
+    /** The number of buckets per power of two, as a power of two. */
+    private static final int SUB_BITS = 3;
+
+    /** The number of buckets, enough for any long. */
+    private static final int BUCKETS = (64 - SUB_BITS + 1) << SUB_BITS;
+
+    /** Whether the timer records anything. */
+    private final boolean active;
+
+    /** The number of recorded durations per bucket. */
+    private final AtomicLongArray buckets;
+
+    /** The number of recorded durations. */
+    private final LongAdder count = new LongAdder();
+
+    /** The sum of the recorded durations in nanoseconds. */
+    private final LongAdder total = new LongAdder();
+
+    /** The longest recorded duration in nanoseconds. */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    private Timer(boolean active) {
+      this.active = active;
+      this.buckets = new AtomicLongArray(active ? BUCKETS : 0);
+    }
+
+    /**
+     * Starts timing.
+     *
+     * @return the start time to pass to {@link #stop(long)}
+     */
+    public long start() {
+      return active ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Stops timing and records the duration since the start.
+     *
+     * @param start the start time returned by {@link #start()}
+     */
+    public void stop(long start) {
+      if (active) {
+        record(System.nanoTime() - start);
+      }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+      if (!active) {
+        return;
+      }
+      nanos = Math.max(0, nanos);
+      buckets.incrementAndGet(bucket(nanos));
+      count.increment();
+      total.add(nanos);
+      max.accumulate(nanos);
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     *
+     * @return the count
+     */
+    public long getCount() {
+      return count.sum();
+    }
+
+    /**
+     * Gets a percentile of the recorded durations.
+     *
+     * @param p the percentile, between 0 and 1
+     * @return the upper bound of the bucket holding the percentile, in nanoseconds
+     */
+    public long percentile(double p) {
+      long[] counts = new long[buckets.length()];
+      long n = 0;
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = buckets.get(i);
+        n += counts[i];
+      }
+      long rank = Math.max(1, (long) Math.ceil(p * n));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(upperBound(i), max.get());
+        }
+      }
+      return 0;
+    }
+
+    /** The bucket of a duration: exact below 2^SUB_BITS, then 2^SUB_BITS per power of two. */
+    static int bucket(long nanos) {
+      int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+      if (magnitude < SUB_BITS) {
+        return (int) nanos;
+      }
+      int shift = magnitude - SUB_BITS;
+      return ((shift + 1) << SUB_BITS) + (int) ((nanos >>> shift) - (1 << SUB_BITS));
+    }
+
+    /** The largest duration in a bucket. */
+    static long upperBound(int bucket) {
+      if (bucket < 1 << SUB_BITS) {
+        return bucket;
+      }
+      int shift = (bucket >>> SUB_BITS) - 1;
+      long mantissa = (bucket & ((1 << SUB_BITS) - 1)) + (1 << SUB_BITS);
+      long upper = ((mantissa + 1) << shift) - 1;
+      return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    private Map<String, Number> snapshot() {
+      Map<String, Number> result = new TreeMap<>();
+      long n = count.sum();
+      result.put("count", n);
+      result.put(
+          "meanMs", n == 0 ? 0.0 : total.sum() / (double) n / TimeUnit.MILLISECONDS.toNanos(1));
+      result.put("p50Ms", millis(percentile(0.5)));
+      result.put("p90Ms", millis(percentile(0.9)));
+      result.put("p99Ms", millis(percentile(0.99)));
+      result.put("maxMs", millis(max.get()));
+      return result;
+    }
+
+    private static double millis(long nanos) {
+      return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+  }
+
+  /** Exposes the flattened snapshot as read-only attributes. */
+  private class MetricsMBean implements DynamicMBean {
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      Number value = flatSnapshot().get(attribute);
+      if (value == null) {
+        throw new AttributeNotFoundException(attribute);
+      }
+      return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+      throw new UnsupportedOperationException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+      Map<String, Number> snapshot = flatSnapshot();
+      AttributeList result = new AttributeList();
+      for (String attribute : attributes) {
+        if (snapshot.containsKey(attribute)) {
+          result.add(new Attribute(attribute, snapshot.get(attribute)));
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+      throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      List<MBeanAttributeInfo> attributes = new ArrayList<>();
+      flatSnapshot()
+          .forEach(
+              (name, value) ->
+                  attributes.add(
+                      new MBeanAttributeInfo(
+                          name, value.getClass().getName(), name, true, false, false)));
+      return new MBeanInfo(
+          MetricsRegistry.class.getName(),
+          "The metrics of a MagpieBridge server",
+          attributes.toArray(new MBeanAttributeInfo[0]),
+          null,
+          null,
+          null);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package magpiebridge.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+
+/**
+ * The Class RangeIndex is an immutable interval tree over the ranges of results in a file. It
+ * answers which results contain a position in O(log n + k), for k matching results, including
+ * nested and overlapping ranges. The ranges are kept in primitive arrays sorted by start, the tree
+ * is implicit: the middle of every sub-array is the root of its subtree and stores the maximal end
+ * of that subtree.
+ *
+ * @param <T> the type of the results
+ */
+public class RangeIndex<T> {
+
+  /** The start positions, sorted. */
+  private final long[] starts;
+
+  /** The end positions. */
+  private final long[] ends;
+
+  /** The maximal end position in the subtree rooted at each index. */
+  private final long[] maxEnds;
+
+  /** The results. */
+  private final Object[] values;
+
+  /**
+   * Instantiates a new range index.
+   *
+   * @param items the results
+   * @param range the function computing the range of a result
+   */
+  public RangeIndex(Collection<T> items, Function<T, Range> range) {
+    List<T> sorted = new ArrayList<>();
+    for (T item : items) {
+      if (range.apply(item) != null) {
+        sorted.add(item);
+      }
+    }
+    sorted.sort(
+        Comparator.<T>comparingLong(item -> encode(range.apply(item).getStart()))
+            .thenComparing(
+                Comparator.<T>comparingLong(item -> encode(range.apply(item).getEnd()))
+                    .reversed()));
+    int n = sorted.size();
+    this.starts = new long[n];
+    this.ends = new long[n];
+    this.maxEnds = new long[n];
+    this.values = new Object[n];
+    for (int i = 0; i < n; i++) {
+      Range r = range.apply(sorted.get(i));
+      starts[i] = encode(r.getStart());
+      ends[i] = Math.max(starts[i], encode(r.getEnd()));
+      values[i] = sorted.get(i);
+    }
+    Arrays.fill(maxEnds, Long.MIN_VALUE);
+    computeMaxEnds(0, n);
+  }
+
+  private long computeMaxEnds(int from, int to) {
+    if (from >= to) {
+      return Long.MIN_VALUE;
+    }
+    int mid = (from + to) >>> 1;
+    long max =
+        Math.max(ends[mid], Math.max(computeMaxEnds(from, mid), computeMaxEnds(mid + 1, to)));
+    maxEnds[mid] = max;
+    return max;
+  }
+
+  /**
+   * Finds the results whose range contains a position, both ends inclusive.
+   *
+   * @param line the zero-based line
+   * @param character the zero-based character
+   * @return the results, the innermost range first
+   */
+  public List<T> find(int line, int character) {
+    long position = encode(line, character);
+    List<Integer> found = new ArrayList<>();
+    find(0, starts.length, position, found);
+    found.sort(Comparator.comparingLong(i -> ends[i] - starts[i]));
+    List<T> result = new ArrayList<>(found.size());
+    for (int i : found) {
+      @SuppressWarnings("unchecked")
+      T value = (T) values[i];
+      result.add(value);
+    }
+    return result;
+  }
+
+  private void find(int from, int to, long position, List<Integer> found) {
+    if (from >= to) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    if (maxEnds[mid] < position) {
+      // no range in this subtree reaches the position
+      return;
+    }
+    find(from, mid, position, found);
+    if (starts[mid] <= position) {
+      if (ends[mid] >= position) {
+        found.add(mid);
+      }
+      find(mid + 1, to, position, found);
+    }
+  }
+
+  /**
+   * Gets the number of results.
+   *
+   * @return the number of results
+   */
+  public int size() {
+    return values.length;
+  }
+
+  private static long encode(Position position) {
+    return encode(position.getLine(), position.getCharacter());
+  }
+
+  private static long encode(int line, int character) {
+    return ((long) line << 32) | (character & 0xffffffffL);
+  }
+}
@@ -0,0 +1,90 @@
+package magpiebridge.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseMessage;
+
+/**
+ * The Class RequestMetrics times the JSON-RPC requests of a connection and counts the ones waiting
+ * for a response. It wraps the incoming and the outgoing message stream of a {@link
+ * org.eclipse.lsp4j.jsonrpc.Launcher}: a request seen on one stream is pending until the response
+ * with its id is seen on the other one, and is recorded by the timer <code>request.METHOD</code>.
+ */
+public class RequestMetrics implements Function<MessageConsumer, MessageConsumer> {
+
+  /** The metrics. */
+  private final MetricsRegistry metrics;
+
+  /** The pending requests by id, one map per wrapped stream. */
+  private final List<Map<String, Pending>> streams;
+
+  /**
+   * Instantiates new request metrics and registers the gauge <code>requests.pending</code>.
+   *
+   * @param metrics the metrics
+   */
+  public RequestMetrics(MetricsRegistry metrics) {
+    this.metrics = metrics;
+    this.streams = new CopyOnWriteArrayList<>();
+    metrics.gauge("requests.pending", this::getPending);
+  }
+
+  /**
+   * Gets the number of requests waiting for a response.
+   *
+   * @return the number of pending requests
+   */
+  public int getPending() {
+    int pending = 0;
+    for (Map<String, Pending> stream : streams) {
+      pending += stream.size();
+    }
+    return pending;
+  }
+
+  @Override
+  public MessageConsumer apply(MessageConsumer consumer) {
+    Map<String, Pending> pending = new ConcurrentHashMap<>();
+    streams.add(pending);
+    return message -> {
+      record(pending, message);
+      consumer.consume(message);
+    };
+  }
+
+  private void record(Map<String, Pending> pending, Message message) {
+    if (message instanceof RequestMessage) {
+      RequestMessage request = (RequestMessage) message;
+      Pending p = new Pending(metrics.timer("request." + request.getMethod()));
+      pending.put(request.getId(), p);
+    } else if (message instanceof ResponseMessage) {
+      String id = ((ResponseMessage) message).getId();
+      for (Map<String, Pending> stream : streams) {
+        if (stream != pending) {
+          Pending p = stream.remove(id);
+          if (p != null) {
+            p.timer.stop(p.start);
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /** A request waiting for its response. */
+  private static class Pending {
+    private final MetricsRegistry.Timer timer;
+    private final long start;
+
+    private Pending(MetricsRegistry.Timer timer) {
+      this.timer = timer;
+      this.start = timer.start();
+    }
+  }
+}
@@ -0,0 +1,295 @@
+package magpiebridge.core;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The Class ResultStore holds the results of the analyses per file and analysis source. It is safe
+ * to be used from multiple threads: every file has its own lock, so writers only contend when they
+ * update the same file. Readers get an immutable snapshot of the results of a file which is built
+ * once after each update, so they never see half-updated results.
+ *
+ * <p>Results are deduplicated per file and source by a key, which defaults to the result itself.
+ *
+ * @param <T> the type of the results
+ */
+public class ResultStore<T> {
+
+  /** The immutable results of a single file. */
+  private static class Snapshot<T> {
+    private final Map<String, List<T>> bySource;
+    private final List<T> all;
+
+    private Snapshot(Map<String, LinkedHashMap<Object, T>> results) {
+      Map<String, List<T>> bySource = new HashMap<>();
+      List<T> all = new ArrayList<>();
+      results.forEach(
+          (source, items) -> {
+            bySource.put(source, Collections.unmodifiableList(new ArrayList<>(items.values())));
+            all.addAll(items.values());
+          });
+      this.bySource = bySource;
+      this.all = Collections.unmodifiableList(all);
+    }
+  }
+
+  /** The mutable results of a single file, guarded by its own monitor. */
+  private static class FileResults<T> {
+    private final Map<String, LinkedHashMap<Object, T>> bySource = new HashMap<>();
+    private volatile Snapshot<T> snapshot;
+    private volatile long lastModified;
+    private int size;
+    private boolean removed;
+  }
+
+  /** The results per file. */
+  private final ConcurrentHashMap<URL, FileResults<T>> results;
+
+  /** The function computing the key a result is deduplicated by. */
+  private final Function<T, Object> key;
+
+  /** The number of results in the store. */
+  private final AtomicInteger size;
+
+  /** The logical clock ordering the updates of the files. */
+  private final AtomicLong clock;
+
+  /** Instantiates a new result store deduplicating equal results. */
+  public ResultStore() {
+    this(item -> item);
+  }
+
+  /**
+   * Instantiates a new result store deduplicating results with equal keys.
+   *
+   * @param key the function computing the key of a result
+   */
+  public ResultStore(Function<T, Object> key) {
+    this.results = new ConcurrentHashMap<>();
+    this.key = key;
+    this.size = new AtomicInteger();
+    this.clock = new AtomicLong();
+  }
+
+  /**
+   * Adds results of an analysis for a file, keeping its results added before. Results with the key
+   * of an existing one are ignored.
+   *
+   * @param url the file
+   * @param source the analysis source
+   * @param items the results
+   */
+  public void add(URL url, String source, Collection<T> items) {
+    update(
+        url,
+        file -> {
+          LinkedHashMap<Object, T> existing =
+              file.bySource.computeIfAbsent(source, s -> new LinkedHashMap<>());
+          for (T item : items) {
+            existing.putIfAbsent(key.apply(item), item);
+          }
+        });
+  }
+
+  /**
+   * Atomically replaces all results of an analysis for a file.
+   *
+   * @param url the file
+   * @param source the analysis source
+   * @param items the new results, an empty collection removes the results
+   */
+  public void replace(URL url, String source, Collection<T> items) {
+    if (items.isEmpty() && !results.containsKey(url)) {
+      return;
+    }
+    update(
+        url,
+        file -> {
+          if (items.isEmpty()) {
+            file.bySource.remove(source);
+          } else {
+            LinkedHashMap<Object, T> replaced = new LinkedHashMap<>();
+            for (T item : items) {
+              replaced.putIfAbsent(key.apply(item), item);
+            }
+            file.bySource.put(source, replaced);
+          }
+        });
+  }
+
+  private void update(URL url, Consumer<FileResults<T>> action) {
+    while (true) {
+      FileResults<T> file = results.computeIfAbsent(url, u -> new FileResults<>());
+      synchronized (file) {
+        if (file.removed) {
+          // removed concurrently, retry with a fresh entry
+          continue;
+        }
+        action.accept(file);
+        file.snapshot = null;
+        file.lastModified = clock.incrementAndGet();
+        int newSize = 0;
+        for (LinkedHashMap<Object, T> items : file.bySource.values()) {
+          newSize += items.size();
+        }
+        size.addAndGet(newSize - file.size);
+        file.size = newSize;
+        if (file.bySource.isEmpty()) {
+          file.removed = true;
+          results.remove(url, file);
+        }
+        return;
+      }
+    }
+  }
+
+  private Snapshot<T> snapshot(URL url) {
+    FileResults<T> file = results.get(url);
+    if (file == null) {
+      return null;
+    }
+    Snapshot<T> snapshot = file.snapshot;
+    if (snapshot == null) {
+      synchronized (file) {
+        snapshot = file.snapshot;
+        if (snapshot == null) {
+          snapshot = new Snapshot<>(file.bySource);
+          file.snapshot = snapshot;
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Gets the results of all analyses for a file.
+   *
+   * @param url the file
+   * @return the immutable results
+   */
+  public List<T> get(URL url) {
+    Snapshot<T> snapshot = snapshot(url);
+    return snapshot == null ? Collections.emptyList() : snapshot.all;
+  }
+
+  /**
+   * Gets the results of an analysis for a file.
+   *
+   * @param url the file
+   * @param source the analysis source
+   * @return the immutable results
+   */
+  public List<T> get(URL url, String source) {
+    Snapshot<T> snapshot = snapshot(url);
+    return snapshot == null
+        ? Collections.emptyList()
+        : snapshot.bySource.getOrDefault(source, Collections.emptyList());
+  }
+
+  /**
+   * Removes the results of all analyses for a file.
+   *
+   * @param url the file
+   */
+  public void remove(URL url) {
+    FileResults<T> file = results.remove(url);
+    if (file != null) {
+      synchronized (file) {
+        file.removed = true;
+        size.addAndGet(-file.size);
+      }
+    }
+  }
+
+  /**
+   * Removes the results of an analysis for a file.
+   *
+   * @param url the file
+   * @param source the analysis source
+   */
+  public void remove(URL url, String source) {
+    replace(url, source, Collections.emptyList());
+  }
+
+  /**
+   * Gets the files with results.
+   *
+   * @return the files
+   */
+  public Set<URL> getFiles() {
+    return Collections.unmodifiableSet(results.keySet());
+  }
+
+  /**
+   * Gets the files with results of an analysis.
+   *
+   * @param source the analysis source
+   * @return the files
+   */
+  public Set<URL> getFiles(String source) {
+    Set<URL> files = new HashSet<>();
+    results.forEach(
+        (url, file) -> {
+          synchronized (file) {
+            if (file.bySource.containsKey(source)) {
+              files.add(url);
+            }
+          }
+        });
+    return files;
+  }
+
+  /**
+   * Gets the number of results in the store.
+   *
+   * @return the number of results
+   */
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Removes the results of the least recently updated files until the store holds at most the given
+   * number of results. Files to keep are never removed.
+   *
+   * @param maxSize the maximal number of results
+   * @param keep the files to keep
+   * @return the removed files
+   */
+  public List<URL> evict(int maxSize, Predicate<URL> keep) {
+    if (size.get() <= maxSize) {
+      return Collections.emptyList();
+    }
+    List<Map.Entry<URL, FileResults<T>>> candidates = new ArrayList<>();
+    for (Map.Entry<URL, FileResults<T>> entry : results.entrySet()) {
+      if (!keep.test(entry.getKey())) {
+        candidates.add(entry);
+      }
+    }
+    candidates.sort(Comparator.comparingLong(entry -> entry.getValue().lastModified));
+    List<URL> evicted = new ArrayList<>();
+    for (Map.Entry<URL, FileResults<T>> entry : candidates) {
+      if (size.get() <= maxSize) {
+        break;
+      }
+      remove(entry.getKey());
+      evicted.add(entry.getKey());
+    }
+    return evicted;
+  }
+}
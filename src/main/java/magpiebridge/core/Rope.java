@@ -0,0 +1,394 @@
+package magpiebridge.core;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Class Rope is an immutable text buffer organized as a balanced binary tree of string chunks.
+ * Edits create a new rope sharing all untouched chunks with the old one in O(log n), so every
+ * version of a document can be kept as a cheap snapshot. Each node counts the line breaks below it,
+ * which maps line/character positions to offsets in O(log n) as well.
+ */
+public abstract class Rope {
+
+  /** The maximal length of a chunk. */
+  static final int MAX_LEAF = 1024;
+
+  /** The empty rope. */
+  public static final Rope EMPTY = new Leaf("");
+
+  /**
+   * Creates a rope for the given text.
+   *
+   * @param text the text
+   * @return the rope
+   */
+  public static Rope of(String text) {
+    List<Leaf> leaves = new ArrayList<>();
+    for (int i = 0; i < text.length(); i += MAX_LEAF) {
+      leaves.add(new Leaf(text.substring(i, Math.min(text.length(), i + MAX_LEAF))));
+    }
+    return leaves.isEmpty() ? EMPTY : build(leaves, 0, leaves.size());
+  }
+
+  /**
+   * Gets the number of characters.
+   *
+   * @return the length
+   */
+  public abstract int length();
+
+  /**
+   * Gets the number of line breaks.
+   *
+   * @return the number of line breaks
+   */
+  public abstract int lineBreaks();
+
+  /**
+   * Gets the character at an offset.
+   *
+   * @param offset the offset
+   * @return the character
+   */
+  public abstract char charAt(int offset);
+
+  abstract int depth();
+
+  abstract Rope[] split(int offset);
+
+  /** The offset of the k-th line break, counting from 1. */
+  abstract int lineBreakOffset(int k);
+
+  /** The number of line breaks before an offset. */
+  abstract int lineBreaksBefore(int offset);
+
+  abstract void collectLeaves(List<Leaf> leaves);
+
+  /**
+   * Gets the number of lines.
+   *
+   * @return the number of lines
+   */
+  public int lineCount() {
+    return lineBreaks() + 1;
+  }
+
+  /**
+   * Gets the offset of the first character of a line. Lines beyond the end map to the length.
+   *
+   * @param line the zero-based line
+   * @return the offset
+   */
+  public int lineStart(int line) {
+    if (line <= 0) {
+      return 0;
+    }
+    if (line > lineBreaks()) {
+      return length();
+    }
+    return lineBreakOffset(line) + 1;
+  }
+
+  /**
+   * Gets the offset of a zero-based line and character position, as used by the language server
+   * protocol. Characters beyond the end of the line map to the end of the line.
+   *
+   * @param line the zero-based line
+   * @param character the zero-based character
+   * @return the offset
+   */
+  public int offsetAt(int line, int character) {
+    if (line > lineBreaks()) {
+      return length();
+    }
+    int start = lineStart(line);
+    int end = line < lineBreaks() ? lineBreakOffset(line + 1) : length();
+    return Math.min(start + Math.max(character, 0), end);
+  }
+
+  /**
+   * Gets the zero-based line containing an offset.
+   *
+   * @param offset the offset
+   * @return the line
+   */
+  public int lineAt(int offset) {
+    return lineBreaksBefore(Math.max(0, Math.min(offset, length())));
+  }
+
+  /**
+   * Replaces the characters between two offsets.
+   *
+   * @param start the start offset, inclusive
+   * @param end the end offset, exclusive
+   * @param text the replacement
+   * @return the new rope
+   */
+  public Rope replace(int start, int end, String text) {
+    if (start < 0 || end > length() || start > end) {
+      throw new IndexOutOfBoundsException(start + ".." + end + " of " + length());
+    }
+    Rope[] head = split(start);
+    Rope[] tail = head[1].split(end - start);
+    return concat(concat(head[0], of(text)), tail[1]);
+  }
+
+  /**
+   * Inserts text at an offset.
+   *
+   * @param offset the offset
+   * @param text the text
+   * @return the new rope
+   */
+  public Rope insert(int offset, String text) {
+    return replace(offset, offset, text);
+  }
+
+  /**
+   * Deletes the characters between two offsets.
+   *
+   * @param start the start offset, inclusive
+   * @param end the end offset, exclusive
+   * @return the new rope
+   */
+  public Rope delete(int start, int end) {
+    return replace(start, end, "");
+  }
+
+  /**
+   * Creates a reader over the characters without copying them into a single string.
+   *
+   * @return the reader
+   */
+  public Reader reader() {
+    List<Leaf> leaves = new ArrayList<>();
+    collectLeaves(leaves);
+    return new Reader() {
+      private int leaf = 0;
+      private int pos = 0;
+
+      @Override
+      public int read(char[] cbuf, int off, int len) {
+        while (leaf < leaves.size() && pos == leaves.get(leaf).text.length()) {
+          leaf++;
+          pos = 0;
+        }
+        if (leaf == leaves.size()) {
+          return -1;
+        }
+        String text = leaves.get(leaf).text;
+        int n = Math.min(len, text.length() - pos);
+        text.getChars(pos, pos + n, cbuf, off);
+        pos += n;
+        return n;
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  @Override
+  public String toString() {
+    List<Leaf> leaves = new ArrayList<>();
+    collectLeaves(leaves);
+    StringBuilder sb = new StringBuilder(length());
+    for (Leaf leaf : leaves) {
+      sb.append(leaf.text);
+    }
+    return sb.toString();
+  }
+
+  private static Rope concat(Rope left, Rope right) {
+    if (left.length() == 0) {
+      return right;
+    }
+    if (right.length() == 0) {
+      return left;
+    }
+    if (left instanceof Leaf && right instanceof Leaf) {
+      if (left.length() + right.length() <= MAX_LEAF) {
+        return new Leaf(((Leaf) left).text + ((Leaf) right).text);
+      }
+    } else if (left instanceof Node && right instanceof Leaf) {
+      // typing appends to the last chunk
+      Node node = (Node) left;
+      if (node.right instanceof Leaf && node.right.length() + right.length() <= MAX_LEAF) {
+        return new Node(node.left, new Leaf(((Leaf) node.right).text + ((Leaf) right).text));
+      }
+    }
+    Node node = new Node(left, right);
+    int leaves = node.length() / (MAX_LEAF / 2) + 1;
+    int maxDepth = 2 * (32 - Integer.numberOfLeadingZeros(leaves)) + 8;
+    return node.depth() > maxDepth ? rebalance(node) : node;
+  }
+
+  private static Rope rebalance(Rope rope) {
+    List<Leaf> leaves = new ArrayList<>();
+    rope.collectLeaves(leaves);
+    List<Leaf> merged = new ArrayList<>();
+    StringBuilder sb = new StringBuilder();
+    for (Leaf leaf : leaves) {
+      if (sb.length() + leaf.length() > MAX_LEAF && sb.length() > 0) {
+        merged.add(new Leaf(sb.toString()));
+        sb.setLength(0);
+      }
+      sb.append(leaf.text);
+    }
+    if (sb.length() > 0) {
+      merged.add(new Leaf(sb.toString()));
+    }
+    return merged.isEmpty() ? EMPTY : build(merged, 0, merged.size());
+  }
+
+  private static Rope build(List<Leaf> leaves, int from, int to) {
+    if (to - from == 1) {
+      return leaves.get(from);
+    }
+    int mid = (from + to) >>> 1;
+    return new Node(build(leaves, from, mid), build(leaves, mid, to));
+  }
+
+  /** A chunk of text. */
+  private static final class Leaf extends Rope {
+    private final String text;
+    private final int lineBreaks;
+
+    private Leaf(String text) {
+      this.text = text;
+      int count = 0;
+      for (int i = 0; i < text.length(); i++) {
+        if (text.charAt(i) == '\n') {
+          count++;
+        }
+      }
+      this.lineBreaks = count;
+    }
+
+    @Override
+    public int length() {
+      return text.length();
+    }
+
+    @Override
+    public int lineBreaks() {
+      return lineBreaks;
+    }
+
+    @Override
+    public char charAt(int offset) {
+      return text.charAt(offset);
+    }
+
+    @Override
+    int depth() {
+      return 0;
+    }
+
+    @Override
+    Rope[] split(int offset) {
+      return new Rope[] {new Leaf(text.substring(0, offset)), new Leaf(text.substring(offset))};
+    }
+
+    @Override
+    int lineBreakOffset(int k) {
+      int index = -1;
+      for (int i = 0; i < k; i++) {
+        index = text.indexOf('\n', index + 1);
+      }
+      return index;
+    }
+
+    @Override
+    int lineBreaksBefore(int offset) {
+      int count = 0;
+      for (int i = 0; i < offset; i++) {
+        if (text.charAt(i) == '\n') {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    @Override
+    void collectLeaves(List<Leaf> leaves) {
+      if (!text.isEmpty()) {
+        leaves.add(this);
+      }
+    }
+  }
+
+  /** The concatenation of two ropes. */
+  private static final class Node extends Rope {
+    private final Rope left;
+    private final Rope right;
+    private final int length;
+    private final int lineBreaks;
+    private final int depth;
+
+    private Node(Rope left, Rope right) {
+      this.left = left;
+      this.right = right;
+      this.length = left.length() + right.length();
+      this.lineBreaks = left.lineBreaks() + right.lineBreaks();
+      this.depth = Math.max(left.depth(), right.depth()) + 1;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public int lineBreaks() {
+      return lineBreaks;
+    }
+
+    @Override
+    public char charAt(int offset) {
+      return offset < left.length() ? left.charAt(offset) : right.charAt(offset - left.length());
+    }
+
+    @Override
+    int depth() {
+      return depth;
+    }
+
+    @Override
+    Rope[] split(int offset) {
+      if (offset < left.length()) {
+        Rope[] parts = left.split(offset);
+        return new Rope[] {parts[0], concat(parts[1], right)};
+      } else if (offset > left.length()) {
+        Rope[] parts = right.split(offset - left.length());
+        return new Rope[] {concat(left, parts[0]), parts[1]};
+      } else {
+        return new Rope[] {left, right};
+      }
+    }
+
+    @Override
+    int lineBreakOffset(int k) {
+      if (k <= left.lineBreaks()) {
+        return left.lineBreakOffset(k);
+      }
+      return left.length() + right.lineBreakOffset(k - left.lineBreaks());
+    }
+
+    @Override
+    int lineBreaksBefore(int offset) {
+      if (offset <= left.length()) {
+        return left.lineBreaksBefore(offset);
+      }
+      return left.lineBreaks() + right.lineBreaksBefore(offset - left.length());
+    }
+
+    @Override
+    void collectLeaves(List<Leaf> leaves) {
+      left.collectLeaves(leaves);
+      right.collectLeaves(leaves);
+    }
+  }
+}
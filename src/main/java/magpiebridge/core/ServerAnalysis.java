@@ -8,4 +8,28 @@ public interface ServerAnalysis {
   public String source();
 
   public void analyze(Collection<Module> files, MagpieServer server);
+
+  /**
+   * Analyze the files. Analyses which are able to stop early should override this method and check
+   * the token regularly, the default implementation ignores it.
+   *
+   * @param files the files
+   * @param server the server
+   * @param token the token cancelled when this run is superseded by a newer one
+   */
+  public default void analyze(
+      Collection<Module> files, MagpieServer server, CancellationToken token) {
+    analyze(files, server);
+  }
+
+  /**
+   * Checks if this analysis needs the source files on disk. If so, it receives {@link
+   * com.ibm.wala.classLoader.SourceFileModule}s backed by temporary files, otherwise {@link
+   * InMemorySourceModule}s read from the in-memory documents without any disk I/O.
+   *
+   * @return true, if the analysis requires source files on disk
+   */
+  public default boolean requiresFileSystem() {
+    return true;
+  }
 }
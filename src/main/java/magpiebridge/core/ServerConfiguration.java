@@ -0,0 +1,460 @@
+package magpiebridge.core;
+
+import java.nio.file.Path;
+
+/**
+ * The Class ServerConfiguration holds the settings of a {@link MagpieServer}.
+ *
+ * <pre>{@code
+ * ServerConfiguration config = new ServerConfiguration();
+ * config.setAnalysisQuietPeriod(500);
+ * MagpieServer server = new MagpieServer(config);
+ * }</pre>
+ */
+public class ServerConfiguration {
+
+  /** The quiet period in milliseconds before a triggered analysis starts. */
+  private long analysisQuietPeriod;
+
+  /** The number of threads running analyses concurrently. */
+  private int analysisThreads;
+
+  /** The timeout in milliseconds of a single analysis, 0 for no timeout. */
+  private long analysisTimeout;
+
+  /** The maximal time in milliseconds diagnostics are buffered before being published. */
+  private long publishMaxLatency;
+
+  /** Whether the results of a document are removed when it is closed. */
+  private boolean clearResultsOnClose;
+
+  /** The maximal number of diagnostics retained for files not open in the editor. */
+  private int maxRetainedDiagnostics;
+
+  /** The most verbose level which is logged. */
+  private Logger.Level logLevel;
+
+  /** The number of log messages buffered before further messages are dropped. */
+  private int logBufferSize;
+
+  /** The mode of wire tracing. */
+  private WireTrace.Mode traceMode;
+
+  /** The maximal size in bytes of a trace file. */
+  private long traceMaxFileSize;
+
+  /** The maximal number of trace files per stream. */
+  private int traceMaxFiles;
+
+  /** The number of bytes per stream kept in memory. */
+  private int traceMemorySize;
+
+  /** Whether the JSON-RPC messages are printed to standard error. */
+  private boolean traceMessages;
+
+  /** Whether metrics are recorded. */
+  private boolean metricsEnabled;
+
+  /** Whether the metrics are registered as MBean. */
+  private boolean metricsJmx;
+
+  /** The number of tracing spans kept in memory. */
+  private int spanBufferSize;
+
+  /** The directory the tracing spans may be exported to, or null. */
+  private Path traceExportDirectory;
+
+  /** The number of class hierarchy libraries kept in memory. */
+  private int classHierarchyCacheSize;
+
+  /** The JDK loaded by the class hierarchies, or null for the running one. */
+  private Path jdkPath;
+
+  /** Instantiates a new server configuration with default settings. */
+  public ServerConfiguration() {
+    this.analysisQuietPeriod = 300;
+    this.analysisThreads = Runtime.getRuntime().availableProcessors();
+    this.analysisTimeout = 0;
+    this.publishMaxLatency = 1000;
+    this.clearResultsOnClose = false;
+    this.maxRetainedDiagnostics = 100000;
+    this.logLevel = Logger.Level.INFO;
+    this.logBufferSize = 8192;
+    this.traceMode = WireTrace.Mode.OFF;
+    this.traceMaxFileSize = 10 * 1024 * 1024;
+    this.traceMaxFiles = 3;
+    this.traceMemorySize = 1024 * 1024;
+    this.traceMessages = false;
+    this.metricsEnabled = false;
+    this.metricsJmx = false;
+    this.spanBufferSize = 0;
+    this.traceExportDirectory = null;
+    this.classHierarchyCacheSize = 2;
+    this.jdkPath = null;
+  }
+
+  /**
+   * Gets the analysis quiet period.
+   *
+   * @return the quiet period in milliseconds
+   */
+  public long getAnalysisQuietPeriod() {
+    return analysisQuietPeriod;
+  }
+
+  /**
+   * Sets the time in milliseconds an analysis waits after being triggered. Triggers arriving within
+   * this period are coalesced into a single analysis run.
+   *
+   * @param analysisQuietPeriod the quiet period in milliseconds
+   */
+  public void setAnalysisQuietPeriod(long analysisQuietPeriod) {
+    this.analysisQuietPeriod = analysisQuietPeriod;
+  }
+
+  /**
+   * Gets the number of analysis threads.
+   *
+   * @return the number of analysis threads
+   */
+  public int getAnalysisThreads() {
+    return analysisThreads;
+  }
+
+  /**
+   * Sets the number of threads running the registered analyses concurrently, defaults to the number
+   * of available processors.
+   *
+   * @param analysisThreads the number of analysis threads
+   */
+  public void setAnalysisThreads(int analysisThreads) {
+    this.analysisThreads = analysisThreads;
+  }
+
+  /**
+   * Gets the analysis timeout.
+   *
+   * @return the timeout in milliseconds, 0 for no timeout
+   */
+  public long getAnalysisTimeout() {
+    return analysisTimeout;
+  }
+
+  /**
+   * Sets the time in milliseconds a single analysis may run. When it elapses, the cancellation
+   * token of the analysis is cancelled, its thread is interrupted and the run stops waiting for it.
+   * The next run of the analysis starts once it stopped.
+   *
+   * @param analysisTimeout the timeout in milliseconds, 0 for no timeout
+   */
+  public void setAnalysisTimeout(long analysisTimeout) {
+    this.analysisTimeout = analysisTimeout;
+  }
+
+  /**
+   * Gets the maximal publish latency.
+   *
+   * @return the maximal publish latency in milliseconds
+   */
+  public long getPublishMaxLatency() {
+    return publishMaxLatency;
+  }
+
+  /**
+   * Sets the maximal time in milliseconds diagnostics consumed during an analysis run are buffered
+   * before being published. Buffered diagnostics are always published when the run finishes.
+   *
+   * @param publishMaxLatency the maximal publish latency in milliseconds
+   */
+  public void setPublishMaxLatency(long publishMaxLatency) {
+    this.publishMaxLatency = publishMaxLatency;
+  }
+
+  /**
+   * Checks if results are cleared on close.
+   *
+   * @return true, if results are cleared on close
+   */
+  public boolean isClearResultsOnClose() {
+    return clearResultsOnClose;
+  }
+
+  /**
+   * Sets whether the results of a document are removed, and its diagnostics cleared in the client,
+   * when the document is closed in the editor.
+   *
+   * @param clearResultsOnClose true, to clear results on close
+   */
+  public void setClearResultsOnClose(boolean clearResultsOnClose) {
+    this.clearResultsOnClose = clearResultsOnClose;
+  }
+
+  /**
+   * Gets the maximal number of retained diagnostics.
+   *
+   * @return the maximal number of retained diagnostics
+   */
+  public int getMaxRetainedDiagnostics() {
+    return maxRetainedDiagnostics;
+  }
+
+  /**
+   * Sets the maximal number of diagnostics the server retains. When exceeded, the results of the
+   * least recently analyzed files not open in the editor are evicted.
+   *
+   * @param maxRetainedDiagnostics the maximal number of retained diagnostics
+   */
+  public void setMaxRetainedDiagnostics(int maxRetainedDiagnostics) {
+    this.maxRetainedDiagnostics = maxRetainedDiagnostics;
+  }
+
+  /**
+   * Gets the log level.
+   *
+   * @return the most verbose level which is logged
+   */
+  public Logger.Level getLogLevel() {
+    return logLevel;
+  }
+
+  /**
+   * Sets the most verbose level which is logged. The messages exchanged with the client are only
+   * logged at {@link Logger.Level#DEBUG}.
+   *
+   * @param logLevel the log level
+   */
+  public void setLogLevel(Logger.Level logLevel) {
+    this.logLevel = logLevel;
+  }
+
+  /**
+   * Gets the log buffer size.
+   *
+   * @return the number of buffered log messages
+   */
+  public int getLogBufferSize() {
+    return logBufferSize;
+  }
+
+  /**
+   * Sets the number of log messages buffered while the log file is written. Messages arriving while
+   * the buffer is full are dropped.
+   *
+   * @param logBufferSize the number of buffered log messages
+   */
+  public void setLogBufferSize(int logBufferSize) {
+    this.logBufferSize = logBufferSize;
+  }
+
+  /**
+   * Gets the wire trace mode.
+   *
+   * @return the trace mode
+   */
+  public WireTrace.Mode getTraceMode() {
+    return traceMode;
+  }
+
+  /**
+   * Sets whether the bytes exchanged with the client are traced, to files or in memory. Tracing is
+   * off by default, so the transport runs at the speed of the raw streams.
+   *
+   * @param traceMode the trace mode
+   */
+  public void setTraceMode(WireTrace.Mode traceMode) {
+    this.traceMode = traceMode;
+  }
+
+  /**
+   * Gets the maximal trace file size.
+   *
+   * @return the maximal size in bytes
+   */
+  public long getTraceMaxFileSize() {
+    return traceMaxFileSize;
+  }
+
+  /**
+   * Sets the size in bytes at which a trace file is rotated.
+   *
+   * @param traceMaxFileSize the maximal size in bytes
+   */
+  public void setTraceMaxFileSize(long traceMaxFileSize) {
+    this.traceMaxFileSize = traceMaxFileSize;
+  }
+
+  /**
+   * Gets the maximal number of trace files.
+   *
+   * @return the maximal number of files per stream
+   */
+  public int getTraceMaxFiles() {
+    return traceMaxFiles;
+  }
+
+  /**
+   * Sets the number of trace files kept per stream, including the current one. Older files are
+   * deleted when a trace file is rotated.
+   *
+   * @param traceMaxFiles the maximal number of files per stream
+   */
+  public void setTraceMaxFiles(int traceMaxFiles) {
+    this.traceMaxFiles = traceMaxFiles;
+  }
+
+  /**
+   * Gets the in-memory trace size.
+   *
+   * @return the number of bytes per stream
+   */
+  public int getTraceMemorySize() {
+    return traceMemorySize;
+  }
+
+  /**
+   * Sets the number of most recent bytes per stream kept in {@link WireTrace.Mode#MEMORY}.
+   *
+   * @param traceMemorySize the number of bytes per stream
+   */
+  public void setTraceMemorySize(int traceMemorySize) {
+    this.traceMemorySize = traceMemorySize;
+  }
+
+  /**
+   * Checks if the JSON-RPC messages are printed.
+   *
+   * @return true, if messages are printed
+   */
+  public boolean isTraceMessages() {
+    return traceMessages;
+  }
+
+  /**
+   * Sets whether every JSON-RPC message exchanged with the client is printed to standard error.
+   * Unlike wire tracing, the messages are formatted, which costs time on every message, so it is
+   * off by default.
+   *
+   * @param traceMessages whether messages are printed
+   */
+  public void setTraceMessages(boolean traceMessages) {
+    this.traceMessages = traceMessages;
+  }
+
+  /**
+   * Checks if metrics are recorded.
+   *
+   * @return true, if metrics are enabled
+   */
+  public boolean isMetricsEnabled() {
+    return metricsEnabled;
+  }
+
+  /**
+   * Sets whether the server records metrics of analysis runs, result ingestion, publishing and
+   * requests. They are reported by the {@link MagpieServer#METRICS_COMMAND} command. Metrics are
+   * off by default.
+   *
+   * @param metricsEnabled whether metrics are recorded
+   */
+  public void setMetricsEnabled(boolean metricsEnabled) {
+    this.metricsEnabled = metricsEnabled;
+  }
+
+  /**
+   * Checks if the metrics are registered as MBean.
+   *
+   * @return true, if the metrics are exposed via JMX
+   */
+  public boolean isMetricsJmx() {
+    return metricsJmx;
+  }
+
+  /**
+   * Sets whether the metrics are also exposed via JMX, as attributes of the MBean <code>
+   * magpiebridge:type=Metrics</code>. Only takes effect if metrics are enabled.
+   *
+   * @param metricsJmx whether the metrics are registered as MBean
+   */
+  public void setMetricsJmx(boolean metricsJmx) {
+    this.metricsJmx = metricsJmx;
+  }
+
+  /**
+   * Gets the number of tracing spans kept in memory.
+   *
+   * @return the number of spans, 0 if tracing is off
+   */
+  public int getSpanBufferSize() {
+    return spanBufferSize;
+  }
+
+  /**
+   * Sets the number of most recent tracing spans kept in memory by the {@link Tracer}. The spans
+   * are exported by the {@link MagpieServer#TRACE_COMMAND} command. Tracing is off by default.
+   *
+   * @param spanBufferSize the number of spans, 0 turns tracing off
+   */
+  public void setSpanBufferSize(int spanBufferSize) {
+    this.spanBufferSize = spanBufferSize;
+  }
+
+  /**
+   * Gets the directory the tracing spans may be exported to.
+   *
+   * @return the directory, or null if traces aren't written to files
+   */
+  public Path getTraceExportDirectory() {
+    return traceExportDirectory;
+  }
+
+  /**
+   * Sets the directory the {@link MagpieServer#TRACE_COMMAND} command may write traces to. The
+   * client only names the file, files outside of the directory are rejected. By default no
+   * directory is set and the command only returns the trace.
+   *
+   * @param traceExportDirectory the existing directory, or null
+   */
+  public void setTraceExportDirectory(Path traceExportDirectory) {
+    this.traceExportDirectory = traceExportDirectory;
+  }
+
+  /**
+   * Gets the number of class hierarchy libraries kept in memory.
+   *
+   * @return the number of libraries
+   */
+  public int getClassHierarchyCacheSize() {
+    return classHierarchyCacheSize;
+  }
+
+  /**
+   * Sets the number of libraries, i.e. class paths, the {@link ClassHierarchyService} keeps the
+   * class hierarchy of. Libraries are held softly and may be dropped earlier when memory gets low.
+   * The default is 2.
+   *
+   * @param classHierarchyCacheSize the number of libraries
+   */
+  public void setClassHierarchyCacheSize(int classHierarchyCacheSize) {
+    this.classHierarchyCacheSize = classHierarchyCacheSize;
+  }
+
+  /**
+   * Gets the JDK loaded by the class hierarchies.
+   *
+   * @return the JDK home or rt.jar, or null for the running JDK
+   */
+  public Path getJdkPath() {
+    return jdkPath;
+  }
+
+  /**
+   * Sets the JDK the {@link ClassHierarchyService} loads the JDK classes from: the home of a Java 8
+   * JDK or JRE, or its rt.jar. WALA can't read the modules of Java 9 and later, a server running on
+   * them needs it to build class hierarchies. By default the running JDK is used.
+   *
+   * @param jdkPath the JDK home or rt.jar, or null
+   */
+  public void setJdkPath(Path jdkPath) {
+    this.jdkPath = jdkPath;
+  }
+}
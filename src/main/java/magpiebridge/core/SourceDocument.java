@@ -0,0 +1,174 @@
+package magpiebridge.core;
+
+import com.ibm.wala.classLoader.SourceFileModule;
+import com.ibm.wala.util.io.TemporaryFile;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.List;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+
+/**
+ * The Class SourceDocument is the in-memory buffer of a source file known to the {@link
+ * MagpieServer}, keyed by its client uri. The current content is exposed as an immutable {@link
+ * InMemorySourceModule}. Only analyses which need a real path get the content written to disk, into
+ * a single temporary file per document which is rewritten when the content changed.
+ */
+public class SourceDocument {
+
+  /** The client uri. */
+  private final String clientUri;
+
+  /** The language. */
+  private final String language;
+
+  /** The url of the document as used by the in-memory modules. */
+  private final URL url;
+
+  /** The module holding the current content. */
+  private volatile InMemorySourceModule module;
+
+  /** The temporary file the content is written to, created on demand. */
+  private File file;
+
+  /** The module backed by the temporary file, or null if outdated. */
+  private SourceFileModule fileModule;
+
+  /** The in-memory module the file module was written from. */
+  private InMemorySourceModule fileModuleSource;
+
+  /**
+   * Instantiates a new source document.
+   *
+   * @param language the language
+   * @param clientUri the client uri
+   * @throws MalformedURLException if the client uri is not a valid url
+   */
+  public SourceDocument(String language, String clientUri) throws MalformedURLException {
+    this.language = language;
+    this.clientUri = clientUri;
+    try {
+      this.url = new URI(clientUri).toURL();
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      throw new MalformedURLException(e.getMessage());
+    }
+  }
+
+  /**
+   * Sets the content of the document.
+   *
+   * @param version the document version
+   * @param text the text
+   * @return the module holding the new content
+   */
+  public InMemorySourceModule update(int version, String text) {
+    module = new InMemorySourceModule(this, version, Rope.of(text));
+    return module;
+  }
+
+  /**
+   * Applies the changes sent by the client to the content of the document. A change without range
+   * replaces the whole content.
+   *
+   * @param version the document version after the changes
+   * @param changes the changes
+   * @return the module holding the new content
+   */
+  public InMemorySourceModule applyChanges(
+      int version, List<TextDocumentContentChangeEvent> changes) {
+    Rope rope = module.getRope();
+    for (TextDocumentContentChangeEvent change : changes) {
+      Range range = change.getRange();
+      if (range == null) {
+        rope = Rope.of(change.getText());
+      } else {
+        int start = rope.offsetAt(range.getStart().getLine(), range.getStart().getCharacter());
+        int end = rope.offsetAt(range.getEnd().getLine(), range.getEnd().getCharacter());
+        rope = rope.replace(start, Math.max(start, end), change.getText());
+      }
+    }
+    module = new InMemorySourceModule(this, version, rope);
+    return module;
+  }
+
+  /**
+   * Gets the module holding the current content.
+   *
+   * @return the module
+   */
+  public InMemorySourceModule getModule() {
+    return module;
+  }
+
+  /**
+   * Gets a module for the current content backed by a file on disk, for analyses which need a real
+   * path. The file is only rewritten if the content changed since the last call.
+   *
+   * @return the file module
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized SourceFileModule getFileModule() throws IOException {
+    InMemorySourceModule current = module;
+    if (fileModule == null || fileModuleSource != current) {
+      if (file == null) {
+        String name = clientUri.substring(clientUri.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        file = File.createTempFile("temp", dot < 0 ? ".tmp" : name.substring(dot));
+        file.deleteOnExit();
+      }
+      TemporaryFile.stringToFile(file, current.getText());
+      fileModule = new SourceFileModule(file, clientUri, null);
+      fileModuleSource = current;
+    }
+    return fileModule;
+  }
+
+  /**
+   * Gets the uri of the file backing the file module, if it was created.
+   *
+   * @return the file uri, or null
+   */
+  public synchronized String getFileUri() {
+    return file == null ? null : file.toPath().toUri().toString();
+  }
+
+  /** Deletes the file written for the file module, it is written again on demand. */
+  public synchronized void releaseFile() {
+    if (file != null) {
+      file.delete();
+      fileModule = null;
+      fileModuleSource = null;
+    }
+  }
+
+  /**
+   * Gets the client uri.
+   *
+   * @return the client uri
+   */
+  public String getClientUri() {
+    return clientUri;
+  }
+
+  /**
+   * Gets the language.
+   *
+   * @return the language
+   */
+  public String getLanguage() {
+    return language;
+  }
+
+  /**
+   * Gets the url of the document.
+   *
+   * @return the url
+   */
+  public URL getUrl() {
+    return url;
+  }
+}
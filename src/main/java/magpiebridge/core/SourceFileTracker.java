@@ -0,0 +1,168 @@
+package magpiebridge.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The Class SourceFileTracker keeps track of the version and content hash of every source file
+ * known to the {@link MagpieServer} and computes the set of files which changed since they were
+ * analyzed the last time.
+ */
+public class SourceFileTracker {
+
+  /** The state of a single tracked file. */
+  private static class FileState {
+    private final String language;
+    private int version;
+    private byte[] hash;
+
+    private FileState(String language) {
+      this.language = language;
+      this.version = -1;
+    }
+  }
+
+  /** The tracked files, keyed by client uri. */
+  private final Map<String, FileState> files;
+
+  /** The dirty files per language. */
+  private final Map<String, Set<String>> dirtyFiles;
+
+  /** Instantiates a new source file tracker. */
+  public SourceFileTracker() {
+    this.files = new HashMap<>();
+    this.dirtyFiles = new HashMap<>();
+  }
+
+  /**
+   * Updates the content of a file. The file is marked as dirty if it was not tracked before or its
+   * content differs from the last known content.
+   *
+   * @param language the language
+   * @param clientUri the client uri
+   * @param version the document version, or -1 if unknown
+   * @param text the text
+   * @return true, if the content changed
+   */
+  public synchronized boolean update(String language, String clientUri, int version, String text) {
+    FileState state = files.get(clientUri);
+    if (state == null) {
+      state = new FileState(language);
+      files.put(clientUri, state);
+    }
+    if (version >= 0) {
+      state.version = version;
+    }
+    byte[] hash = hash(text);
+    if (Arrays.equals(hash, state.hash)) {
+      return false;
+    }
+    state.hash = hash;
+    markDirty(clientUri);
+    return true;
+  }
+
+  /**
+   * Records that the content of a tracked file changed without hashing the new content, e.g. for
+   * incremental changes sent by the client.
+   *
+   * @param clientUri the client uri
+   * @param version the document version, or -1 if unknown
+   */
+  public synchronized void changed(String clientUri, int version) {
+    FileState state = files.get(clientUri);
+    if (state != null) {
+      if (version >= 0) {
+        state.version = version;
+      }
+      state.hash = null;
+      markDirty(clientUri);
+    }
+  }
+
+  /**
+   * Forgets the last known content of a tracked file, e.g. after its results were removed, so the
+   * next update marks it as dirty even if the content is the same.
+   *
+   * @param clientUri the client uri
+   */
+  public synchronized void forgetContent(String clientUri) {
+    FileState state = files.get(clientUri);
+    if (state != null) {
+      state.hash = null;
+    }
+  }
+
+  /**
+   * Marks a tracked file as dirty, so it will be analyzed again.
+   *
+   * @param clientUri the client uri
+   */
+  public synchronized void markDirty(String clientUri) {
+    FileState state = files.get(clientUri);
+    if (state != null) {
+      dirtyFiles.computeIfAbsent(state.language, l -> new LinkedHashSet<>()).add(clientUri);
+    }
+  }
+
+  /**
+   * Returns the dirty files of the given language and resets them to clean.
+   *
+   * @param language the language
+   * @return the client uris of the dirty files
+   */
+  public synchronized Set<String> takeDirty(String language) {
+    Set<String> dirty = dirtyFiles.remove(language);
+    return dirty == null ? Collections.emptySet() : dirty;
+  }
+
+  /**
+   * Stops tracking a file.
+   *
+   * @param clientUri the client uri
+   */
+  public synchronized void remove(String clientUri) {
+    FileState state = files.remove(clientUri);
+    if (state != null && dirtyFiles.containsKey(state.language)) {
+      dirtyFiles.get(state.language).remove(clientUri);
+    }
+  }
+
+  /**
+   * Gets the language of a tracked file.
+   *
+   * @param clientUri the client uri
+   * @return the language
+   */
+  public synchronized Optional<String> getLanguage(String clientUri) {
+    FileState state = files.get(clientUri);
+    return state == null ? Optional.empty() : Optional.of(state.language);
+  }
+
+  /**
+   * Gets the last known document version of a tracked file.
+   *
+   * @param clientUri the client uri
+   * @return the version, or -1 if unknown
+   */
+  public synchronized int getVersion(String clientUri) {
+    FileState state = files.get(clientUri);
+    return state == null ? -1 : state.version;
+  }
+
+  private static byte[] hash(String text) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
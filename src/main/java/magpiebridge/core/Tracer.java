@@ -0,0 +1,300 @@
+package magpiebridge.core;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The Class Tracer records spans, named intervals of work on a thread, to see where the time of a
+ * slow request or analysis run went. The most recent spans are kept in a ring buffer of fixed size,
+ * older ones are overwritten. The buffer is exported in the Chrome trace event format, which can be
+ * opened as a timeline in chrome://tracing or https://ui.perfetto.dev.
+ *
+ * <p>Spans are used with try-with-resources, or wrap a lambda when the body doesn't refer to the
+ * span:
+ *
+ * <pre>
+ * try (Tracer.Span span = server.getTracer().span("analysis", "build call graph")) {
+ *   ...
+ *   span.arg("nodes", callGraph.getNumberOfNodes());
+ * }
+ *
+ * CallGraph callGraph = server.getTracer().span("analysis", "build call graph").call(() -> ...);
+ * </pre>
+ *
+ * A disabled tracer hands out a shared span which records nothing.
+ */
+public class Tracer {
+
+  /** The span of a disabled tracer. */
+  private static final Span NOOP_SPAN = new Span(null, null, null, 0);
+
+  /** The recorded spans, the slot of a span is its sequence number modulo the buffer size. */
+  private final AtomicReferenceArray<Record> buffer;
+
+  /** The sequence number of the next recorded span. */
+  private final AtomicLong next;
+
+  /** The origin of the timestamps, in nanoseconds. */
+  private final long origin;
+
+  /**
+   * Instantiates a new tracer.
+   *
+   * @param capacity the number of spans kept, 0 disables tracing
+   */
+  public Tracer(int capacity) {
+    this.buffer = new AtomicReferenceArray<>(Math.max(0, capacity));
+    this.next = new AtomicLong();
+    this.origin = System.nanoTime();
+  }
+
+  /**
+   * Checks if spans are recorded.
+   *
+   * @return true, if enabled
+   */
+  public boolean isEnabled() {
+    return buffer.length() > 0;
+  }
+
+  /**
+   * Starts a span on the current thread. It is recorded when closed.
+   *
+   * @param category the category, e.g. the component doing the work
+   * @param name the name
+   * @return the span
+   */
+  public Span span(String category, String name) {
+    if (!isEnabled()) {
+      return NOOP_SPAN;
+    }
+    return new Span(this, category, name, System.nanoTime());
+  }
+
+  private void record(Record record) {
+    long sequence = next.getAndIncrement();
+    buffer.set((int) (sequence % buffer.length()), record);
+  }
+
+  /**
+   * Gets the recorded spans, oldest first.
+   *
+   * @return the spans
+   */
+  private List<Record> records() {
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < buffer.length(); i++) {
+      Record record = buffer.get(i);
+      if (record != null) {
+        records.add(record);
+      }
+    }
+    records.sort((a, b) -> Long.compare(a.start, b.start));
+    return records;
+  }
+
+  /** Discards the recorded spans. */
+  public void clear() {
+    for (int i = 0; i < buffer.length(); i++) {
+      buffer.set(i, null);
+    }
+  }
+
+  /**
+   * Exports the recorded spans as Chrome trace events: a complete event per span and a metadata
+   * event naming each thread. Timestamps are microseconds since the tracer was created.
+   *
+   * @return the trace, an object with the array <code>traceEvents</code>
+   */
+  public JsonObject toChromeTrace() {
+    JsonArray events = new JsonArray();
+    Map<Long, String> threads = new LinkedHashMap<>();
+    for (Record record : records()) {
+      threads.putIfAbsent(record.threadId, record.threadName);
+      JsonObject event = new JsonObject();
+      event.addProperty("name", record.name);
+      event.addProperty("cat", record.category);
+      event.addProperty("ph", "X");
+      event.addProperty("ts", micros(record.start - origin));
+      event.addProperty("dur", micros(record.duration));
+      event.addProperty("pid", 1);
+      event.addProperty("tid", record.threadId);
+      if (record.args != null) {
+        JsonObject args = new JsonObject();
+        record.args.forEach(args::addProperty);
+        event.add("args", args);
+      }
+      events.add(event);
+    }
+    threads.forEach(
+        (id, name) -> {
+          JsonObject event = new JsonObject();
+          event.addProperty("name", "thread_name");
+          event.addProperty("ph", "M");
+          event.addProperty("pid", 1);
+          event.addProperty("tid", id);
+          JsonObject args = new JsonObject();
+          args.addProperty("name", name);
+          event.add("args", args);
+          events.add(event);
+        });
+    JsonObject trace = new JsonObject();
+    trace.add("traceEvents", events);
+    trace.addProperty("displayTimeUnit", "ms");
+    return trace;
+  }
+
+  /**
+   * Writes the recorded spans as Chrome trace events to a file.
+   *
+   * @param file the file
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void write(Path file) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      new Gson().toJson(toChromeTrace(), writer);
+    }
+  }
+
+  private static double micros(long nanos) {
+    return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+  }
+
+  /**
+   * Work done in a span.
+   *
+   * @param <E> the exception thrown by the work
+   */
+  public interface Task<E extends Exception> {
+    void run() throws E;
+  }
+
+  /**
+   * Work done in a span computing a value.
+   *
+   * @param <T> the type of the value
+   * @param <E> the exception thrown by the work
+   */
+  public interface Call<T, E extends Exception> {
+    T call() throws E;
+  }
+
+  /** A span of work on a thread, recorded when closed. */
+  public static class Span implements AutoCloseable {
+    private final Tracer tracer;
+    private final String category;
+    private final String name;
+    private final long start;
+    private Map<String, String> args;
+
+    private Span(Tracer tracer, String category, String name, long start) {
+      this.tracer = tracer;
+      this.category = category;
+      this.name = name;
+      this.start = start;
+    }
+
+    /**
+     * Adds an argument shown with the span in the timeline.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the span
+     */
+    public Span arg(String key, Object value) {
+      if (tracer != null) {
+        if (args == null) {
+          args = new LinkedHashMap<>();
+        }
+        args.put(key, String.valueOf(value));
+      }
+      return this;
+    }
+
+    /**
+     * Runs a task in the span, then closes it.
+     *
+     * @param task the task
+     * @throws E the exception thrown by the task
+     */
+    public <E extends Exception> void run(Task<E> task) throws E {
+      try {
+        task.run();
+      } finally {
+        close();
+      }
+    }
+
+    /**
+     * Computes a value in the span, then closes it.
+     *
+     * @param call the computation
+     * @return the value
+     * @throws E the exception thrown by the computation
+     */
+    public <T, E extends Exception> T call(Call<T, E> call) throws E {
+      try {
+        return call.call();
+      } finally {
+        close();
+      }
+    }
+
+    @Override
+    public void close() {
+      if (tracer != null) {
+        Thread thread = Thread.currentThread();
+        tracer.record(
+            new Record(
+                category,
+                name,
+                start,
+                System.nanoTime() - start,
+                thread.getId(),
+                thread.getName(),
+                args));
+      }
+    }
+  }
+
+  /** A recorded span. */
+  private static class Record {
+    private final String category;
+    private final String name;
+    private final long start;
+    private final long duration;
+    private final long threadId;
+    private final String threadName;
+    private final Map<String, String> args;
+
+    private Record(
+        String category,
+        String name,
+        long start,
+        long duration,
+        long threadId,
+        String threadName,
+        Map<String, String> args) {
+      this.category = category;
+      this.name = name;
+      this.start = start;
+      this.duration = duration;
+      this.threadId = threadId;
+      this.threadName = threadName;
+      this.args = args;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package magpiebridge.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class WireTrace records the bytes a {@link MagpieServer} exchanges with the client, for
+ * debugging the transport. The bytes are either written to buffered trace files which are rotated
+ * once they reach a maximal size, or kept in an in-memory ring holding the most recent bytes, which
+ * is dumped on demand. Like the {@link Logger}, trace files are flushed in batches, once 64k bytes
+ * are buffered or at the latest 200 ms after they were written.
+ */
+public abstract class WireTrace extends OutputStream {
+
+  /** The modes of wire tracing. */
+  public enum Mode {
+    /** The streams are not traced. */
+    OFF,
+    /** The streams are traced to rotating, size-capped files. */
+    FILE,
+    /** The most recent bytes of the streams are kept in memory. */
+    MEMORY
+  }
+
+  /**
+   * Creates the wire trace of a stream as configured.
+   *
+   * @param config the server configuration
+   * @param name the name of the traced stream
+   * @return the trace, or null if tracing is off
+   */
+  public static WireTrace create(ServerConfiguration config, String name) {
+    switch (config.getTraceMode()) {
+      case FILE:
+        try {
+          return new FileTrace(
+              File.createTempFile(name, ".txt"),
+              config.getTraceMaxFileSize(),
+              config.getTraceMaxFiles());
+        } catch (IOException e) {
+          e.printStackTrace();
+          return null;
+        }
+      case MEMORY:
+        return new MemoryTrace(config.getTraceMemorySize());
+      default:
+        return null;
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public abstract void write(byte[] b, int off, int len) throws IOException;
+
+  /**
+   * Returns the most recent traced bytes.
+   *
+   * @return the bytes, oldest first
+   */
+  public abstract byte[] dump();
+
+  /** Traces to a file, which is moved aside once it reaches the maximal size. */
+  private static class FileTrace extends WireTrace {
+    /** The number of bytes buffered before the file is written. */
+    private static final int FLUSH_SIZE = 64 * 1024;
+
+    /** The time in milliseconds after which written bytes are flushed. */
+    private static final long FLUSH_INTERVAL = 200;
+
+    /** The thread flushing the trace files of all streams. */
+    private static final ScheduledExecutorService flusher =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "magpie-wire-trace");
+              t.setDaemon(true);
+              return t;
+            });
+
+    private final File file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final ScheduledFuture<?> flushTask;
+    private OutputStream out;
+    private long size;
+    private boolean unflushed;
+
+    private FileTrace(File file, long maxFileSize, int maxFiles) throws IOException {
+      this.file = file;
+      this.maxFileSize = maxFileSize;
+      this.maxFiles = Math.max(1, maxFiles);
+      this.out = new BufferedOutputStream(new FileOutputStream(file), FLUSH_SIZE);
+      this.flushTask =
+          flusher.scheduleWithFixedDelay(
+              this::flushBatch, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+      if (out == null) {
+        return;
+      }
+      if (size > 0 && size + len > maxFileSize) {
+        rotate();
+      }
+      out.write(b, off, len);
+      size += len;
+      unflushed = true;
+    }
+
+    private void rotate() throws IOException {
+      out.close();
+      // file.1 is the most recent of the older files
+      new File(file.getPath() + "." + (maxFiles - 1)).delete();
+      for (int i = maxFiles - 2; i >= 1; i--) {
+        new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+      }
+      if (maxFiles > 1) {
+        file.renameTo(new File(file.getPath() + ".1"));
+      }
+      out = new BufferedOutputStream(new FileOutputStream(file), FLUSH_SIZE);
+      size = 0;
+    }
+
+    /** Writes the bytes traced since the last batch to the file. */
+    private synchronized void flushBatch() {
+      if (out == null || !unflushed) {
+        return;
+      }
+      try {
+        out.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      unflushed = false;
+    }
+
+    @Override
+    public void flush() {
+      // the transport flushes after every message, the trace is flushed in batches instead
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      flushTask.cancel(false);
+      if (out != null) {
+        out.close();
+        out = null;
+      }
+    }
+
+    @Override
+    public byte[] dump() {
+      return new byte[0];
+    }
+  }
+
+  /** Traces to a ring buffer in memory. */
+  private static class MemoryTrace extends WireTrace {
+    private final byte[] ring;
+    private long written;
+
+    private MemoryTrace(int size) {
+      this.ring = new byte[Math.max(1, size)];
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      if (len > ring.length) {
+        off += len - ring.length;
+        written += len - ring.length;
+        len = ring.length;
+      }
+      int pos = (int) (written % ring.length);
+      int first = Math.min(len, ring.length - pos);
+      System.arraycopy(b, off, ring, pos, first);
+      System.arraycopy(b, off + first, ring, 0, len - first);
+      written += len;
+    }
+
+    @Override
+    public synchronized byte[] dump() {
+      int length = (int) Math.min(written, ring.length);
+      byte[] bytes = new byte[length];
+      int start = (int) ((written - length) % ring.length);
+      int first = Math.min(length, ring.length - start);
+      System.arraycopy(ring, start, bytes, 0, first);
+      System.arraycopy(ring, 0, bytes, first, length - first);
+      return bytes;
+    }
+  }
+}
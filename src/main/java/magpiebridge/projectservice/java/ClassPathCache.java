@@ -0,0 +1,209 @@
+package magpiebridge.projectservice.java;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of inferred class paths. Computing the dependencies of a project can take many
+ * seconds, e.g. when Maven is forked, so the result is stored on disk under a fingerprint of
+ * everything it depends on (the build files, the external dependencies and the repository
+ * locations) and reused as long as the fingerprint stays the same. The cache keeps the most
+ * recently used class paths only, files unused for a month are deleted.
+ */
+public class ClassPathCache {
+  private static final Logger LOG = Logger.getLogger("main");
+
+  /** System property setting the directory of the persistent caches, ~/.magpiebridge by default */
+  public static final String CACHE_DIRECTORY_PROPERTY = "magpiebridge.cache.dir";
+
+  /** Number of files kept in a cache directory */
+  public static final int DEFAULT_MAX_FILES = 100;
+
+  /** Time in milliseconds after which an unused cache file is deleted */
+  public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+  /** Directory holding one file per fingerprint */
+  private final Path directory;
+
+  private final int maxFiles;
+
+  private final long maxAge;
+
+  public ClassPathCache(Path directory) {
+    this(directory, DEFAULT_MAX_FILES, DEFAULT_MAX_AGE);
+  }
+
+  /**
+   * @param maxFiles the number of class paths kept, the least recently used ones are deleted
+   * @param maxAge the time in milliseconds after which an unused class path is deleted
+   */
+  public ClassPathCache(Path directory, int maxFiles, long maxAge) {
+    this.directory = directory;
+    this.maxFiles = maxFiles;
+    this.maxAge = maxAge;
+  }
+
+  /** The cache in the cache directory, by default ~/.magpiebridge/classpath */
+  public static ClassPathCache defaultCache() {
+    return new ClassPathCache(cacheDirectory().resolve("classpath"));
+  }
+
+  /**
+   * The directory of the persistent caches, set by the system property {@value
+   * #CACHE_DIRECTORY_PROPERTY}, by default ~/.magpiebridge
+   */
+  public static Path cacheDirectory() {
+    String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+    if (directory != null && !directory.isEmpty()) {
+      return Paths.get(directory);
+    }
+    return Paths.get(System.getProperty("user.home")).resolve(".magpiebridge");
+  }
+
+  /**
+   * Load the class path stored under the fingerprint. A stored class path is only returned if all
+   * its entries still exist, e.g. jars could have been removed from the local repository.
+   */
+  public Optional<Set<Path>> load(String fingerprint) {
+    Path file = directory.resolve(fingerprint + ".txt");
+    if (!Files.exists(file)) {
+      return Optional.empty();
+    }
+    try {
+      Set<Path> result = new HashSet<Path>();
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        Path path = Paths.get(line);
+        if (!Files.exists(path)) {
+          LOG.info("Cached class path entry " + path + " no longer exists");
+          return Optional.empty();
+        }
+        result.add(path);
+      }
+      touch(file);
+      return Optional.of(result);
+    } catch (IOException e) {
+      LOG.warning("Couldn't read cached class path " + file + ": " + e);
+      return Optional.empty();
+    }
+  }
+
+  /** Store the class path under the fingerprint, replacing the file atomically. */
+  public void store(String fingerprint, Set<Path> classPath) {
+    List<String> lines = new ArrayList<String>();
+    for (Path path : classPath) {
+      lines.add(path.toAbsolutePath().toString());
+    }
+    try {
+      Files.createDirectories(directory);
+      Path tmp = Files.createTempFile(directory, fingerprint, ".tmp");
+      Files.write(tmp, lines, StandardCharsets.UTF_8);
+      Files.move(
+          tmp,
+          directory.resolve(fingerprint + ".txt"),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warning("Couldn't store class path in " + directory + ": " + e);
+    }
+    prune(directory, maxFiles, maxAge);
+  }
+
+  /** Mark a cache file as used, by its modification time. */
+  static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // it is only deleted earlier
+    }
+  }
+
+  /**
+   * Delete the files of a cache directory which weren't used for longer than the maximal age, and
+   * the least recently used ones beyond the maximal number of files. Temporary files left behind by
+   * an interrupted store are deleted once they reach the maximal age.
+   */
+  static void prune(Path directory, int maxFiles, long maxAge) {
+    Map<Path, Long> used = new HashMap<Path, Long>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        used.put(file, Files.getLastModifiedTime(file).toMillis());
+      }
+    } catch (IOException e) {
+      LOG.warning("Couldn't list cache directory " + directory + ": " + e);
+      return;
+    }
+    List<Path> files = new ArrayList<Path>(used.keySet());
+    // most recently used first
+    files.sort((a, b) -> Long.compare(used.get(b), used.get(a)));
+    long oldest = System.currentTimeMillis() - maxAge;
+    int kept = 0;
+    for (Path file : files) {
+      boolean cached = file.getFileName().toString().endsWith(".txt");
+      if (used.get(file) < oldest || (cached && kept >= maxFiles)) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          LOG.warning("Couldn't delete cache file " + file + ": " + e);
+        }
+      } else if (cached) {
+        kept++;
+      }
+    }
+  }
+
+  /** Builds the fingerprint of the inputs a class path is computed from. */
+  public static class Fingerprint {
+    private final MessageDigest digest;
+
+    public Fingerprint() {
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public Fingerprint add(String value) {
+      digest.update(value.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      return this;
+    }
+
+    /** Add the path and the content of a file. */
+    public Fingerprint addFile(Path file) throws IOException {
+      add(file.toAbsolutePath().toString());
+      digest.update(Files.readAllBytes(file));
+      digest.update((byte) 0);
+      return this;
+    }
+
+    /** @return the fingerprint as hex string */
+    public String build() {
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package magpiebridge.projectservice.java;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Index of the artifacts in the gradle cache, which stores them as
+ * caches/modules-*&#47;files-*&#47;groupId/artifactId/version/hash/file. The index maps every
+ * artifact to its jar, sources jar and POM, so looking up an artifact doesn't walk the cache. It is
+ * persisted and refreshed incrementally: only version directories whose modification time changed
+ * since the last refresh are listed again.
+ */
+public class GradleCacheIndex {
+  private static final Logger LOG = Logger.getLogger("main");
+
+  /** The shared indexes by gradle home */
+  private static final Map<Path, GradleCacheIndex> indexes =
+      new ConcurrentHashMap<Path, GradleCacheIndex>();
+
+  /** Location of the gradle cache, usually ~/.gradle */
+  private final Path gradleHome;
+  /** File the index is persisted in, null if not persisted */
+  private final Path indexFile;
+  /** The indexed version directories */
+  private Map<Path, Entry> entries = new HashMap<Path, Entry>();
+  /** The indexed artifacts */
+  private Map<Artifact, Entry> artifacts = new HashMap<Artifact, Entry>();
+
+  private boolean loaded;
+
+  public GradleCacheIndex(Path gradleHome, Path indexFile) {
+    this.gradleHome = gradleHome;
+    this.indexFile = indexFile;
+  }
+
+  /**
+   * The index of a gradle home shared by all callers, persisted in the cache directory, by default
+   * ~/.magpiebridge/gradle
+   */
+  public static GradleCacheIndex forGradleHome(Path gradleHome) {
+    Path home = gradleHome.toAbsolutePath().normalize();
+    return indexes.computeIfAbsent(
+        home,
+        h ->
+            new GradleCacheIndex(
+                h,
+                ClassPathCache.cacheDirectory()
+                    .resolve("gradle")
+                    .resolve(new ClassPathCache.Fingerprint().add(h.toString()).build() + ".txt")));
+  }
+
+  /** Bring the index up to date with the gradle cache. */
+  public synchronized void refresh() {
+    if (!loaded) {
+      load();
+      loaded = true;
+    }
+    Path caches = gradleHome.resolve("caches");
+    if (!Files.isDirectory(caches)) {
+      return;
+    }
+    Map<Path, Entry> updated = new HashMap<Path, Entry>();
+    boolean changed = false;
+    try {
+      for (Path modules : list(caches, "modules-")) {
+        for (Path files : list(modules, "files-")) {
+          for (Path group : list(files, "")) {
+            for (Path artifact : list(group, "")) {
+              for (Path version : list(artifact, "")) {
+                long modified = Files.getLastModifiedTime(version).toMillis();
+                Entry entry = entries.get(version);
+                if (entry == null || entry.modified != modified) {
+                  entry = scan(version, modified);
+                  changed = true;
+                }
+                updated.put(version, entry);
+              }
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.warning("Couldn't index " + caches + ": " + e);
+      return;
+    }
+    changed |= updated.size() != entries.size();
+    entries = updated;
+    artifacts = new HashMap<Artifact, Entry>();
+    for (Entry entry : updated.values()) {
+      Entry other = artifacts.get(entry.artifact);
+      if (other == null || (other.jar == null && entry.jar != null)) {
+        artifacts.put(entry.artifact, entry);
+      }
+    }
+    if (changed) {
+      save();
+    }
+  }
+
+  /** Find the jar or sources jar of an artifact, as of the last refresh */
+  public synchronized Optional<Path> findJar(Artifact artifact, boolean source) {
+    Entry entry = artifacts.get(artifact);
+    if (entry == null) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(source ? entry.sources : entry.jar);
+  }
+
+  /** Find the POM of an artifact, as of the last refresh */
+  public synchronized Optional<Path> findPom(Artifact artifact) {
+    Entry entry = artifacts.get(artifact);
+    return entry == null ? Optional.empty() : Optional.ofNullable(entry.pom);
+  }
+
+  private static List<Path> list(Path dir, String prefix) throws IOException {
+    try (Stream<Path> children = Files.list(dir)) {
+      return children
+          .filter(Files::isDirectory)
+          .filter(child -> child.getFileName().toString().startsWith(prefix))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static Entry scan(Path version, long modified) throws IOException {
+    Path artifactDir = version.getParent();
+    Artifact artifact =
+        new Artifact(
+            artifactDir.getParent().getFileName().toString(),
+            artifactDir.getFileName().toString(),
+            version.getFileName().toString());
+    Entry entry = new Entry(artifact, modified);
+    String prefix = artifact.artifactId + "-" + artifact.version;
+    for (Path hash : list(version, "")) {
+      try (Stream<Path> files = Files.list(hash)) {
+        for (Path file : files.collect(Collectors.toList())) {
+          String name = file.getFileName().toString();
+          if (name.equals(prefix + ".jar")) {
+            entry.jar = file;
+          } else if (name.equals(prefix + "-sources.jar")) {
+            entry.sources = file;
+          } else if (name.equals(prefix + ".pom")) {
+            entry.pom = file;
+          }
+        }
+      }
+    }
+    return entry;
+  }
+
+  private void load() {
+    if (indexFile == null || !Files.exists(indexFile)) {
+      return;
+    }
+    try {
+      for (String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+        String[] parts = line.split("\t", -1);
+        if (parts.length != 8) {
+          continue;
+        }
+        Entry entry =
+            new Entry(new Artifact(parts[2], parts[3], parts[4]), Long.parseLong(parts[1]));
+        entry.jar = path(parts[5]);
+        entry.sources = path(parts[6]);
+        entry.pom = path(parts[7]);
+        entries.put(Paths.get(parts[0]), entry);
+      }
+    } catch (IOException | NumberFormatException e) {
+      LOG.warning("Couldn't read gradle cache index " + indexFile + ": " + e);
+      entries = new HashMap<Path, Entry>();
+    }
+  }
+
+  private void save() {
+    if (indexFile == null) {
+      return;
+    }
+    List<String> lines = new ArrayList<String>();
+    for (Map.Entry<Path, Entry> e : entries.entrySet()) {
+      Entry entry = e.getValue();
+      lines.add(
+          String.join(
+              "\t",
+              e.getKey().toString(),
+              Long.toString(entry.modified),
+              entry.artifact.groupId,
+              entry.artifact.artifactId,
+              entry.artifact.version,
+              string(entry.jar),
+              string(entry.sources),
+              string(entry.pom)));
+    }
+    Collections.sort(lines);
+    try {
+      Files.createDirectories(indexFile.getParent());
+      Path tmp = Files.createTempFile(indexFile.getParent(), "index", ".tmp");
+      Files.write(tmp, lines, StandardCharsets.UTF_8);
+      Files.move(
+          tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warning("Couldn't store gradle cache index " + indexFile + ": " + e);
+    }
+  }
+
+  private static Path path(String value) {
+    return value.isEmpty() ? null : Paths.get(value);
+  }
+
+  private static String string(Path path) {
+    return path == null ? "" : path.toString();
+  }
+
+  /** The files of an artifact version */
+  private static class Entry {
+    final Artifact artifact;
+    final long modified;
+    Path jar, sources, pom;
+
+    Entry(Artifact artifact, long modified) {
+      this.artifact = artifact;
+      this.modified = modified;
+    }
+  }
+}
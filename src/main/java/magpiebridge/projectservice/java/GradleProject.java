@@ -0,0 +1,271 @@
+package magpiebridge.projectservice.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * The model of a gradle build, read from its build scripts without running gradle. The projects are
+ * the root project and the ones included in settings.gradle(.kts), dependencies are found by
+ * matching the common declarations in build.gradle(.kts) such as <code>
+ * implementation 'group:artifact:version'</code>, with versions taken from variables defined in the
+ * scripts or in gradle.properties. Dependencies computed by code, dynamic versions and versions
+ * managed by platforms are not found.
+ */
+public class GradleProject {
+  private static final Logger LOG = Logger.getLogger("main");
+
+  private static final String[] BUILD_FILES = {"build.gradle", "build.gradle.kts"};
+
+  private static final String[] SETTINGS_FILES = {"settings.gradle", "settings.gradle.kts"};
+
+  private static final String CONFIGURATIONS =
+      "\\b(?:api|implementation|compile|compileOnly|runtime|runtimeOnly|testImplementation"
+          + "|testCompile|testCompileOnly|testRuntime|testRuntimeOnly|annotationProcessor)";
+
+  /** implementation 'g:a:v' or implementation("g:a:v") */
+  private static final Pattern STRING_NOTATION =
+      Pattern.compile(CONFIGURATIONS + "\\s*\\(?\\s*(['\"])([^'\"\\n]+)\\1");
+
+  /** implementation group: 'g', name: 'a', version: 'v' */
+  private static final Pattern MAP_NOTATION =
+      Pattern.compile(
+          CONFIGURATIONS
+              + "\\s*\\(?\\s*group\\s*[:=]\\s*['\"]([^'\"]+)['\"]\\s*,"
+              + "\\s*name\\s*[:=]\\s*['\"]([^'\"]+)['\"]\\s*,"
+              + "\\s*version\\s*[:=]\\s*['\"]([^'\"]+)['\"]");
+
+  /** def x = 'v', val x = "v", ext.x = 'v' or x = 'v' inside an ext block */
+  private static final Pattern VARIABLE =
+      Pattern.compile(
+          "(?:\\bdef\\s+|\\bval\\s+|\\bext\\.)?\\b(\\w+)\\s*=\\s*['\"]([^'\"\\n]*)['\"]");
+
+  private static final Pattern REFERENCE = Pattern.compile("\\$\\{?([\\w.]+)\\}?");
+
+  private static final Pattern INCLUDE = Pattern.compile("\\binclude\\b\\s*\\(?([^\\n]*)");
+
+  private static final Pattern QUOTED = Pattern.compile("['\"]([^'\"]+)['\"]");
+
+  private static final Pattern COMMENT =
+      Pattern.compile("/\\*.*?\\*/|(?<![:'\"])//[^\\n]*", Pattern.DOTALL);
+
+  /** Root directory of the build */
+  private final Path root;
+
+  public GradleProject(Path root) {
+    this.root = root;
+  }
+
+  /** Recognize a gradle build by its build or settings script */
+  public static boolean isGradleProject(Path root) {
+    for (String name : SETTINGS_FILES) {
+      if (Files.exists(root.resolve(name))) {
+        return true;
+      }
+    }
+    return buildFile(root) != null;
+  }
+
+  /** The build script of a project directory, or null */
+  static Path buildFile(Path dir) {
+    for (String name : BUILD_FILES) {
+      if (Files.exists(dir.resolve(name))) {
+        return dir.resolve(name);
+      }
+    }
+    return null;
+  }
+
+  /** The directories of the root project and the projects included in the settings script */
+  public List<Path> projectDirectories() {
+    Set<Path> dirs = new LinkedHashSet<Path>();
+    dirs.add(root);
+    for (String name : SETTINGS_FILES) {
+      Path settings = root.resolve(name);
+      if (!Files.exists(settings)) {
+        continue;
+      }
+      Matcher include = INCLUDE.matcher(read(settings));
+      while (include.find()) {
+        Matcher quoted = QUOTED.matcher(include.group(1));
+        while (quoted.find()) {
+          String path = quoted.group(1).replaceAll("^:+", "").replace(':', '/');
+          if (!path.isEmpty()) {
+            dirs.add(root.resolve(path).normalize());
+          }
+        }
+      }
+    }
+    return new ArrayList<Path>(dirs);
+  }
+
+  /** The build scripts, settings scripts and gradle.properties files the model is read from */
+  public List<Path> buildFiles() {
+    List<Path> files = new ArrayList<Path>();
+    for (String name : SETTINGS_FILES) {
+      if (Files.exists(root.resolve(name))) {
+        files.add(root.resolve(name));
+      }
+    }
+    for (Path dir : projectDirectories()) {
+      Path build = buildFile(dir);
+      if (build != null) {
+        files.add(build);
+      }
+      if (Files.exists(dir.resolve("gradle.properties"))) {
+        files.add(dir.resolve("gradle.properties"));
+      }
+    }
+    return files;
+  }
+
+  /** The existing class output directories of all projects, e.g. build/classes/java/main */
+  public Set<Path> outputDirectories() {
+    Set<Path> result = new LinkedHashSet<Path>();
+    for (Path dir : projectDirectories()) {
+      outputDirectories(dir).forEach(result::add);
+    }
+    return result;
+  }
+
+  /**
+   * The existing class output directories of a project, build/classes/LANGUAGE/SOURCESET since
+   * gradle 4 and build/classes/SOURCESET before.
+   */
+  static Stream<Path> outputDirectories(Path projectDir) {
+    Path classes = projectDir.resolve("build").resolve("classes");
+    if (!Files.isDirectory(classes)) {
+      return Stream.empty();
+    }
+    List<Path> result = new ArrayList<Path>();
+    for (String sourceSet : new String[] {"main", "test"}) {
+      if (Files.isDirectory(classes.resolve(sourceSet))) {
+        result.add(classes.resolve(sourceSet));
+      }
+    }
+    try (Stream<Path> languages = Files.list(classes)) {
+      languages
+          .filter(Files::isDirectory)
+          .forEach(
+              language -> {
+                for (String sourceSet : new String[] {"main", "test"}) {
+                  if (Files.isDirectory(language.resolve(sourceSet))) {
+                    result.add(language.resolve(sourceSet));
+                  }
+                }
+              });
+    } catch (IOException e) {
+      LOG.warning("Couldn't list " + classes + ": " + e);
+    }
+    return result.stream();
+  }
+
+  /** The external dependencies declared in the build scripts of all projects */
+  public List<Artifact> dependencies() {
+    Map<String, String> variables = new HashMap<String, String>();
+    readProperties(root.resolve("gradle.properties"), variables);
+    Path rootBuild = buildFile(root);
+    if (rootBuild != null) {
+      readVariables(read(rootBuild), variables);
+    }
+    Set<Artifact> result = new LinkedHashSet<Artifact>();
+    for (Path dir : projectDirectories()) {
+      Path build = buildFile(dir);
+      if (build == null) {
+        continue;
+      }
+      Map<String, String> projectVariables = new HashMap<String, String>(variables);
+      readProperties(dir.resolve("gradle.properties"), projectVariables);
+      String script = read(build);
+      readVariables(script, projectVariables);
+      Matcher string = STRING_NOTATION.matcher(script);
+      while (string.find()) {
+        String[] parts = interpolate(string.group(2), projectVariables).split("@")[0].split(":");
+        if (parts.length >= 3) {
+          add(new Artifact(parts[0], parts[1], parts[2]), result);
+        }
+      }
+      Matcher map = MAP_NOTATION.matcher(script);
+      while (map.find()) {
+        add(
+            new Artifact(
+                interpolate(map.group(1), projectVariables),
+                interpolate(map.group(2), projectVariables),
+                interpolate(map.group(3), projectVariables)),
+            result);
+      }
+    }
+    return new ArrayList<Artifact>(result);
+  }
+
+  private static void add(Artifact artifact, Set<Artifact> result) {
+    String version = artifact.version;
+    if (version.contains("$") || version.contains("+") || version.startsWith("latest.")) {
+      LOG.warning("Couldn't determine the version of " + artifact);
+    } else {
+      result.add(artifact);
+    }
+  }
+
+  private static String interpolate(String value, Map<String, String> variables) {
+    Matcher matcher = REFERENCE.matcher(value);
+    StringBuffer sb = new StringBuffer();
+    while (matcher.find()) {
+      String name = matcher.group(1);
+      // rootProject.ext.junitVersion and versions.junit are looked up by their last segment
+      String variable = variables.get(name);
+      if (variable == null) {
+        variable = variables.get(name.substring(name.lastIndexOf('.') + 1));
+      }
+      matcher.appendReplacement(
+          sb, Matcher.quoteReplacement(variable != null ? variable : matcher.group()));
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  private static void readVariables(String script, Map<String, String> variables) {
+    Matcher matcher = VARIABLE.matcher(script);
+    while (matcher.find()) {
+      variables.put(matcher.group(1), matcher.group(2));
+    }
+  }
+
+  private static void readProperties(Path file, Map<String, String> variables) {
+    if (!Files.exists(file)) {
+      return;
+    }
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(file)) {
+      properties.load(in);
+    } catch (IOException e) {
+      LOG.warning("Couldn't read " + file + ": " + e);
+    }
+    for (String name : properties.stringPropertyNames()) {
+      variables.put(name, properties.getProperty(name));
+    }
+  }
+
+  private static String read(Path file) {
+    try {
+      String script = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+      return COMMENT.matcher(script).replaceAll("");
+    } catch (IOException e) {
+      LOG.warning("Couldn't read " + file + ": " + e);
+      return "";
+    }
+  }
+}
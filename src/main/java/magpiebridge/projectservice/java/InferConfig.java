@@ -38,24 +38,48 @@ public class InferConfig {
   private final Path mavenHome;
   /** Location of the gradle cache, usually ~/.gradle */
   private final Path gradleHome;
+  /** Persistent cache of the build class path, null if not cached */
+  private final ClassPathCache classPathCache;
+  /** The build class path, computed once per instance */
+  private Set<Path> buildClassPath;
+  /** Whether a jar was found for every dependency while computing the build class path */
+  private boolean complete;
+  /** The maven dependencies, computed once per instance */
+  private Collection<Artifact> mvnDependencies;
+  /** The index of the gradle cache */
+  private GradleCacheIndex gradleCacheIndex;
+  /** The gradle dependencies, computed once per instance */
+  private Collection<Artifact> gradleDependencies;
 
   InferConfig(
       Path workspaceRoot,
       Collection<String> externalDependencies,
       Path mavenHome,
-      Path gradleHome) {
+      Path gradleHome,
+      ClassPathCache classPathCache) {
     this.workspaceRoot = workspaceRoot;
     this.externalDependencies = externalDependencies;
     this.mavenHome = mavenHome;
     this.gradleHome = gradleHome;
+    this.classPathCache = classPathCache;
+  }
+
+  public InferConfig(
+      Path workspaceRoot, Collection<String> externalDependencies, ClassPathCache classPathCache) {
+    this(
+        workspaceRoot,
+        externalDependencies,
+        defaultMavenHome(),
+        defaultGradleHome(),
+        classPathCache);
   }
 
   public InferConfig(Path workspaceRoot, Collection<String> externalDependencies) {
-    this(workspaceRoot, externalDependencies, defaultMavenHome(), defaultGradleHome());
+    this(workspaceRoot, externalDependencies, ClassPathCache.defaultCache());
   }
 
   public InferConfig(Path workspaceRoot) {
-    this(workspaceRoot, Collections.emptySet(), defaultMavenHome(), defaultGradleHome());
+    this(workspaceRoot, Collections.emptySet());
   }
 
   private static Path defaultMavenHome() {
@@ -97,6 +121,11 @@ public class InferConfig {
       }
     }
 
+    // Gradle
+    if (GradleProject.isGradleProject(workspaceRoot)) {
+      return new GradleProject(workspaceRoot).outputDirectories();
+    }
+
     // Bazel
     if (Files.exists(workspaceRoot.resolve("WORKSPACE"))) {
       Path bazelBin = workspaceRoot.resolve("bazel-bin");
@@ -119,16 +148,91 @@ public class InferConfig {
       }
     }
 
-    // TODO gradle
+    String name = file.getFileName().toString();
+    if (name.equals("build.gradle") || name.equals("build.gradle.kts")) {
+      return GradleProject.outputDirectories(file.getParent());
+    }
 
     return Stream.empty();
   }
 
+  /**
+   * Find .jar files for external dependencies, computed once per instance and taken from the class
+   * path cache if the build files didn't change since it was stored.
+   */
+  private synchronized Set<Path> buildClassPath() {
+    if (buildClassPath != null) {
+      return buildClassPath;
+    }
+    Optional<String> fingerprint = classPathCache == null ? Optional.empty() : fingerprint();
+    if (fingerprint.isPresent()) {
+      Optional<Set<Path>> cached = classPathCache.load(fingerprint.get());
+      if (cached.isPresent()) {
+        LOG.info("Using cached class path of " + workspaceRoot);
+        buildClassPath = cached.get();
+        return buildClassPath;
+      }
+    }
+    complete = true;
+    buildClassPath = computeBuildClassPath();
+    if (fingerprint.isPresent() && complete) {
+      classPathCache.store(fingerprint.get(), buildClassPath);
+    }
+    return buildClassPath;
+  }
+
+  /**
+   * Fingerprint of everything the build class path depends on: the external dependencies, or the
+   * pom.xml files of a maven project, or the scripts of a gradle build, and the locations of the
+   * local repositories. Bazel projects are not cached.
+   */
+  private Optional<String> fingerprint() {
+    ClassPathCache.Fingerprint fingerprint = new ClassPathCache.Fingerprint();
+    fingerprint.add(workspaceRoot.toAbsolutePath().toString());
+    fingerprint.add(mavenHome.toAbsolutePath().toString());
+    fingerprint.add(gradleHome.toAbsolutePath().toString());
+    if (!externalDependencies.isEmpty()) {
+      fingerprint.add("external");
+      externalDependencies.stream().sorted().forEach(fingerprint::add);
+      return Optional.of(fingerprint.build());
+    }
+    if (Files.exists(workspaceRoot.resolve("pom.xml"))) {
+      fingerprint.add("maven");
+      try (Stream<Path> files = Files.walk(workspaceRoot)) {
+        List<Path> poms =
+            files
+                .filter(file -> file.getFileName().toString().equals("pom.xml"))
+                .sorted()
+                .collect(Collectors.toList());
+        for (Path pom : poms) {
+          fingerprint.addFile(pom);
+        }
+      } catch (IOException e) {
+        LOG.warning("Couldn't fingerprint " + workspaceRoot + ": " + e);
+        return Optional.empty();
+      }
+      return Optional.of(fingerprint.build());
+    }
+    if (GradleProject.isGradleProject(workspaceRoot)) {
+      fingerprint.add("gradle");
+      try {
+        for (Path file : new GradleProject(workspaceRoot).buildFiles()) {
+          fingerprint.addFile(file);
+        }
+      } catch (IOException e) {
+        LOG.warning("Couldn't fingerprint " + workspaceRoot + ": " + e);
+        return Optional.empty();
+      }
+      return Optional.of(fingerprint.build());
+    }
+    return Optional.empty();
+  }
+
   /**
    * Find .jar files for external dependencies, for examples maven dependencies in ~/.m2 or jars in
    * bazel-genfiles
    */
-  private Set<Path> buildClassPath() {
+  private Set<Path> computeBuildClassPath() {
     // externalDependencies
     if (!externalDependencies.isEmpty()) {
       Set<Path> result = new HashSet<Path>();
@@ -138,6 +242,7 @@ public class InferConfig {
         if (found.isPresent()) {
           result.add(found.get());
         } else {
+          complete = false;
           LOG.warning(
               String.format("Couldn't find jar for %s in %s or %s", a, mavenHome, gradleHome));
         }
@@ -153,12 +258,29 @@ public class InferConfig {
         if (found.isPresent()) {
           result.add(found.get());
         } else {
+          complete = false;
           LOG.warning(String.format("Couldn't find jar for %s in %s", a, mavenHome));
         }
       }
       return result;
     }
 
+    // Gradle
+    if (GradleProject.isGradleProject(workspaceRoot)) {
+      Set<Path> result = new HashSet<Path>();
+      for (Artifact a : gradleDependencies()) {
+        Optional<Path> found = findAnyJar(a, false);
+        if (found.isPresent()) {
+          result.add(found.get());
+        } else {
+          complete = false;
+          LOG.warning(
+              String.format("Couldn't find jar for %s in %s or %s", a, mavenHome, gradleHome));
+        }
+      }
+      return result;
+    }
+
     // Bazel
     if (Files.exists(workspaceRoot.resolve("WORKSPACE"))) {
       Set<Path> result = new HashSet<Path>();
@@ -260,7 +382,14 @@ public class InferConfig {
       }
       return result;
     }
-    // TODO Gradle
+    // Gradle
+    if (GradleProject.isGradleProject(workspaceRoot)) {
+      Set<Path> result = new HashSet<Path>();
+      for (Artifact a : gradleDependencies()) {
+        findAnyJar(a, true).ifPresent(result::add);
+      }
+      return result;
+    }
     // TODO Bazel
 
     return Collections.emptySet();
@@ -292,28 +421,16 @@ public class InferConfig {
   }
 
   private Optional<Path> findGradleJar(Artifact artifact, boolean source) {
-    // Search for
-    // caches/modules-*/files-*/groupId/artifactId/version/*/artifactId-version[-sources].jar
-    Path base = gradleHome.resolve("caches");
-    String pattern =
-        "glob:"
-            + String.join(
-                File.separator,
-                base.toString(),
-                "modules-*",
-                "files-*",
-                artifact.groupId,
-                artifact.artifactId,
-                artifact.version,
-                "*",
-                fileName(artifact, source));
-    PathMatcher match = FileSystems.getDefault().getPathMatcher(pattern);
+    return gradleCacheIndex().findJar(artifact, source);
+  }
 
-    try {
-      return Files.walk(base, 7).filter(match::matches).findFirst();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+  /** The index of the gradle cache, brought up to date once per instance */
+  private synchronized GradleCacheIndex gradleCacheIndex() {
+    if (gradleCacheIndex == null) {
+      gradleCacheIndex = GradleCacheIndex.forGradleHome(gradleHome);
+      gradleCacheIndex.refresh();
     }
+    return gradleCacheIndex;
   }
 
   private String fileName(Artifact artifact, boolean source) {
@@ -360,16 +477,39 @@ public class InferConfig {
     }
   }
 
-  private Collection<Artifact> mvnDependencies() {
+  private synchronized Collection<Artifact> mvnDependencies() {
+    if (mvnDependencies != null) {
+      return mvnDependencies;
+    }
     Path pomXml = workspaceRoot.resolve("pom.xml");
 
     if (Files.exists(pomXml)) {
-      return dependencyList(pomXml);
+      // resolve in-process, fork maven only for projects that can't be resolved offline
+      Optional<List<Artifact>> resolved =
+          new MavenPomResolver(mavenHome.resolve("repository")).dependencies(pomXml);
+      if (resolved.isPresent()) {
+        mvnDependencies = resolved.get();
+      } else {
+        LOG.info("Running mvn dependency:list in " + workspaceRoot);
+        mvnDependencies = dependencyList(pomXml);
+      }
+      return mvnDependencies;
     }
 
     return Collections.emptyList();
   }
 
+  /** The dependencies declared in the gradle build scripts with their transitive dependencies */
+  private synchronized Collection<Artifact> gradleDependencies() {
+    if (gradleDependencies == null) {
+      List<Artifact> declared = new GradleProject(workspaceRoot).dependencies();
+      gradleDependencies =
+          new MavenPomResolver(mavenHome.resolve("repository"), gradleCacheIndex())
+              .transitiveDependencies(declared);
+    }
+    return gradleDependencies;
+  }
+
   private static String getMvnCommand() {
     String mvnCommand = "mvn";
     if (File.separatorChar == '\\') {
@@ -1,18 +1,27 @@
 package magpiebridge.projectservice.java;
 
 import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
 import com.github.javaparser.ast.CompilationUnit;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
@@ -39,7 +48,154 @@ public class InferSourcePath {
     }
   }
 
+  /** A file under a root which was inferred more often than this is not looked at */
+  private static final int CERTAINTY_THRESHOLD = 10;
+
+  /** The number of files per directory the source root is inferred from */
+  private static final int SAMPLE_SIZE = 3;
+
+  /**
+   * Infer the source roots in the fast mode, reusing the roots inferred last time if no directory
+   * changed since.
+   */
   public static Set<Path> sourcePath(Path workspaceRoot) {
+    return sourcePath(workspaceRoot, SourceRootCache.defaultCache());
+  }
+
+  /**
+   * Infer the source roots in the fast mode, reusing the roots inferred last time if no directory
+   * changed since.
+   *
+   * @param cache the cache of inferred roots
+   */
+  public static Set<Path> sourcePath(Path workspaceRoot, SourceRootCache cache) {
+    Optional<Set<Path>> cached = cache.load(workspaceRoot);
+    if (cached.isPresent()) {
+      LOG.info("Using cached source roots of " + workspaceRoot);
+      return cached.get();
+    }
+    Map<Path, Long> directories = new ConcurrentHashMap<>();
+    Set<Path> roots = scan(workspaceRoot, directories);
+    cache.store(workspaceRoot, roots, directories);
+    return roots;
+  }
+
+  /**
+   * Infer the source roots from the package declarations of the java files in the workspace.
+   *
+   * @param fast if true, only the header of each file is scanned for the package declaration and
+   *     the workspace is walked in parallel, otherwise each file is parsed sequentially
+   */
+  public static Set<Path> sourcePath(Path workspaceRoot, boolean fast) {
+    if (fast) {
+      return scan(workspaceRoot, new ConcurrentHashMap<>());
+    }
+    return parsedSourcePath(workspaceRoot);
+  }
+
+  /**
+   * Scan the workspace in parallel.
+   *
+   * @param directories the modification times of the scanned directories are added to it
+   */
+  private static Set<Path> scan(Path workspaceRoot, Map<Path, Long> directories) {
+    LOG.info("Searching for source roots in " + workspaceRoot);
+    SourceRootTrie roots = new SourceRootTrie(CERTAINTY_THRESHOLD);
+    ForkJoinPool.commonPool().invoke(new ScanDirectory(workspaceRoot, roots, directories));
+    return roots.roots();
+  }
+
+  /**
+   * The source root of a java file in the given package, i.e. the directory of the file without the
+   * directories of the package.
+   */
+  static Optional<Path> sourceRoot(Path java, String packageName) {
+    Path dir = java.getParent();
+    if (packageName.isEmpty()) {
+      return Optional.of(dir);
+    }
+    String packagePath = packageName.replace('.', File.separatorChar);
+    if (!dir.endsWith(packagePath)) {
+      LOG.warning("Java source file " + java + " is not in " + packagePath);
+      return Optional.empty();
+    }
+    int up = Paths.get(packagePath).getNameCount();
+    Path truncate = dir;
+    for (int i = 0; i < up; i++) {
+      truncate = truncate.getParent();
+    }
+    return Optional.of(truncate);
+  }
+
+  /**
+   * Scans the java files of a directory and forks a task per subdirectory. The root is inferred
+   * from a sample of the files, if the sampled files agree it is counted for all files of the
+   * directory, otherwise every file is looked at. Directories under a root inferred often enough
+   * are skipped.
+   */
+  private static class ScanDirectory extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Path dir;
+    private final SourceRootTrie roots;
+    private final Map<Path, Long> directories;
+
+    ScanDirectory(Path dir, SourceRootTrie roots, Map<Path, Long> directories) {
+      this.dir = dir;
+      this.roots = roots;
+      this.directories = directories;
+    }
+
+    @Override
+    protected void compute() {
+      if (roots.isConfident(dir)) {
+        return;
+      }
+      List<ScanDirectory> subdirectories = new ArrayList<>();
+      List<Path> javaFiles = new ArrayList<>();
+      try {
+        directories.put(dir, Files.getLastModifiedTime(dir).toMillis());
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+          for (Path child : children) {
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+              subdirectories.add(new ScanDirectory(child, roots, directories));
+            } else if (isJavaFile(child)) {
+              javaFiles.add(child);
+            }
+          }
+        }
+      } catch (IOException e) {
+        LOG.warning("Couldn't list " + dir + ": " + e);
+      }
+      if (!javaFiles.isEmpty()) {
+        Set<Optional<Path>> sampled = new HashSet<>();
+        for (Path java : javaFiles.subList(0, Math.min(SAMPLE_SIZE, javaFiles.size()))) {
+          sampled.add(infer(java));
+        }
+        Optional<Path> root = sampled.iterator().next();
+        if (sampled.size() == 1 && root.isPresent()) {
+          roots.add(root.get(), javaFiles.size());
+        } else {
+          for (Path java : javaFiles) {
+            if (!roots.isConfident(java)) {
+              infer(java).ifPresent(roots::add);
+            }
+          }
+        }
+      }
+      invokeAll(subdirectories);
+    }
+
+    private static Optional<Path> infer(Path java) {
+      return PackageScanner.packageName(java).flatMap(packageName -> sourceRoot(java, packageName));
+    }
+  }
+
+  private static boolean isJavaFile(Path file) {
+    String name = file.getFileName().toString();
+    return name.endsWith(".java") && !name.equals("module-info.java");
+  }
+
+  private static Set<Path> parsedSourcePath(Path workspaceRoot) {
     LOG.info("Searching for source roots in " + workspaceRoot);
 
     class SourcePaths implements Consumer<Path> {
@@ -57,29 +213,26 @@ public class InferSourcePath {
 
       Optional<Path> infer(Path java) {
         JavaParser javaParser = new JavaParser();
-        Optional<CompilationUnit> result = null;
+        ParseResult<CompilationUnit> result;
         try {
-          result = javaParser.parse(java).getResult();
+          result = javaParser.parse(java);
         } catch (IOException e) {
           e.printStackTrace();
+          return Optional.empty();
         }
-        String packageName = "";
-        if (result.isPresent()) {
-          packageName = result.get().getPackageDeclaration().get().getNameAsString();
-        }
-        String packagePath = packageName.replace('.', File.separatorChar);
-        Path dir = java.getParent();
-        if (!dir.endsWith(packagePath)) {
-          LOG.warning("Java source file " + java + " is not in " + packagePath);
+        if (!result.isSuccessful() || !result.getResult().isPresent()) {
+          // the package of a file which can't be parsed is unknown, not the default package
           return Optional.empty();
-        } else {
-          int up = Paths.get(packagePath).getNameCount();
-          Path truncate = dir;
-          for (int i = 0; i < up; i++) {
-            truncate = truncate.getParent();
-          }
-          return Optional.of(truncate);
         }
+        // files without a package declaration are in the default package
+        String packageName =
+            result
+                .getResult()
+                .get()
+                .getPackageDeclaration()
+                .map(p -> p.getNameAsString())
+                .orElse("");
+        return sourceRoot(java, packageName);
       }
 
       @Override
@@ -0,0 +1,660 @@
+package magpiebridge.projectservice.java;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Resolves the dependencies of a maven project in-process and offline, from the pom.xml files of
+ * the workspace and the POMs in the local repository, instead of forking <code>
+ * mvn dependency:list</code>. Parent POMs, properties, dependencyManagement including imported
+ * BOMs, modules, scopes, optional dependencies and exclusions are taken into account, conflicts are
+ * mediated by "nearest wins" as in maven. Profiles which may be active without -P and change the
+ * dependencies, version ranges and repositories other than the local one are not supported,
+ * projects using them (or with POMs missing in the local repository) can't be resolved and are left
+ * to maven.
+ */
+public class MavenPomResolver {
+  private static final Logger LOG = Logger.getLogger("main");
+
+  private static final Pattern PROPERTY = Pattern.compile("\\$\\{([^}]+)\\}");
+
+  /** Location of the local repository, usually ~/.m2/repository */
+  private final Path repository;
+  /** Index of the gradle cache also searched for POMs, null if only the repository is searched */
+  private final GradleCacheIndex gradleCacheIndex;
+
+  /** Resolved POMs of the local repository by groupId:artifactId:version */
+  private final Map<String, Resolved> resolvedPoms = new HashMap<String, Resolved>();
+
+  public MavenPomResolver(Path repository) {
+    this(repository, null);
+  }
+
+  public MavenPomResolver(Path repository, GradleCacheIndex gradleCacheIndex) {
+    this.repository = repository;
+    this.gradleCacheIndex = gradleCacheIndex;
+  }
+
+  /**
+   * Computes the transitive dependencies of all scopes (compile, provided, runtime, test) of the
+   * project and its modules, without the modules themselves.
+   *
+   * @return the dependencies, or empty if the project can't be resolved offline
+   */
+  public Optional<List<Artifact>> dependencies(Path pomXml) {
+    try {
+      List<Resolved> projects = new ArrayList<Resolved>();
+      collectProjects(pomXml.toAbsolutePath(), projects, new HashSet<Path>());
+      Set<String> workspace = new HashSet<String>();
+      for (Resolved project : projects) {
+        workspace.add(project.groupId + ":" + project.artifactId);
+      }
+      Set<Artifact> result = new LinkedHashSet<Artifact>();
+      for (Resolved project : projects) {
+        closure(project, workspace, result, false);
+      }
+      return Optional.of(new ArrayList<Artifact>(result));
+    } catch (UnresolvableException e) {
+      LOG.info("Couldn't resolve " + pomXml + " offline: " + e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Computes the transitive closure of the given dependencies, e.g. the ones declared in a gradle
+   * build. Dependencies whose POM can't be found are kept without their own dependencies.
+   */
+  public List<Artifact> transitiveDependencies(Collection<Artifact> direct) {
+    Resolved project = new Resolved();
+    for (Artifact artifact : direct) {
+      Dependency dependency = new Dependency();
+      dependency.groupId = artifact.groupId;
+      dependency.artifactId = artifact.artifactId;
+      dependency.version = artifact.version;
+      dependency.scope = "compile";
+      project.dependencies.add(dependency);
+    }
+    Set<Artifact> result = new LinkedHashSet<Artifact>();
+    try {
+      closure(project, Collections.<String>emptySet(), result, true);
+    } catch (UnresolvableException e) {
+      // not thrown in lenient mode
+    }
+    return new ArrayList<Artifact>(result);
+  }
+
+  private void collectProjects(Path pomXml, List<Resolved> projects, Set<Path> visited)
+      throws UnresolvableException {
+    if (!visited.add(pomXml.normalize())) {
+      return;
+    }
+    Pom pom = parse(pomXml);
+    projects.add(resolve(inherit(pom)));
+    for (String module : pom.modules) {
+      Path moduleFile = pomXml.resolveSibling(module);
+      if (Files.isDirectory(moduleFile)) {
+        moduleFile = moduleFile.resolve("pom.xml");
+      }
+      if (Files.exists(moduleFile)) {
+        collectProjects(moduleFile, projects, visited);
+      }
+    }
+  }
+
+  /**
+   * Breadth first traversal of the dependency graph of a project, the nearest version wins. In
+   * lenient mode, dependencies which can't be resolved are skipped with a warning instead of
+   * failing.
+   */
+  private void closure(
+      Resolved project, Set<String> workspace, Set<Artifact> result, boolean lenient)
+      throws UnresolvableException {
+    Deque<Dependency> queue = new ArrayDeque<Dependency>(project.dependencies);
+    Set<String> seen = new HashSet<String>();
+    while (!queue.isEmpty()) {
+      Dependency dependency = queue.poll();
+      String ga = dependency.groupId + ":" + dependency.artifactId;
+      if (!seen.add(ga) || workspace.contains(ga) || "system".equals(dependency.scope)) {
+        continue;
+      }
+      String version = dependency.version;
+      if (version == null || version.contains("${") || version.matches("[\\[(].*")) {
+        if (lenient) {
+          LOG.warning("Skipped " + ga + " and its dependencies, its version is " + version);
+          continue;
+        }
+        throw new UnresolvableException("version of " + ga + " is " + version);
+      }
+      if (isJar(dependency.type)) {
+        result.add(new Artifact(dependency.groupId, dependency.artifactId, version));
+      }
+      Resolved resolved;
+      try {
+        resolved = resolveArtifact(dependency.groupId, dependency.artifactId, version);
+      } catch (UnresolvableException e) {
+        if (lenient) {
+          LOG.warning("Skipped the dependencies of " + ga + ":" + version + ", " + e.getMessage());
+          continue;
+        }
+        throw e;
+      }
+      for (Dependency transitive : resolved.dependencies) {
+        if (transitive.optional
+            || "test".equals(transitive.scope)
+            || "provided".equals(transitive.scope)
+            || "system".equals(transitive.scope)
+            || excluded(dependency.exclusions, transitive)) {
+          continue;
+        }
+        Dependency next = transitive.copy();
+        next.scope =
+            "compile".equals(dependency.scope) || dependency.scope == null
+                ? transitive.scope
+                : dependency.scope;
+        // the dependency management of the project overrides transitive versions and scopes
+        Dependency managed = project.managed.get(next.key());
+        if (managed != null) {
+          if (managed.version != null) {
+            next.version = managed.version;
+          }
+          if (managed.scope != null) {
+            next.scope = managed.scope;
+          }
+          next.exclusions.addAll(managed.exclusions);
+        }
+        next.exclusions.addAll(dependency.exclusions);
+        queue.add(next);
+      }
+    }
+  }
+
+  private static boolean excluded(Set<String> exclusions, Dependency dependency) {
+    return exclusions.contains("*:*")
+        || exclusions.contains(dependency.groupId + ":*")
+        || exclusions.contains("*:" + dependency.artifactId)
+        || exclusions.contains(dependency.groupId + ":" + dependency.artifactId);
+  }
+
+  private static boolean isJar(String type) {
+    return type == null || type.equals("jar") || type.equals("bundle");
+  }
+
+  private Resolved resolveArtifact(String groupId, String artifactId, String version)
+      throws UnresolvableException {
+    String gav = groupId + ":" + artifactId + ":" + version;
+    Resolved resolved = resolvedPoms.get(gav);
+    if (resolved == null) {
+      resolved = resolve(inherit(repositoryPom(groupId, artifactId, version)));
+      resolvedPoms.put(gav, resolved);
+    }
+    return resolved;
+  }
+
+  private Pom repositoryPom(String groupId, String artifactId, String version)
+      throws UnresolvableException {
+    Pom pom = parse(repositoryPomFile(groupId, artifactId, version));
+    pom.inRepository = true;
+    return pom;
+  }
+
+  private Path repositoryPomFile(String groupId, String artifactId, String version)
+      throws UnresolvableException {
+    Path pom =
+        repository
+            .resolve(groupId.replace('.', File.separatorChar))
+            .resolve(artifactId)
+            .resolve(version)
+            .resolve(artifactId + "-" + version + ".pom");
+    if (Files.exists(pom)) {
+      return pom;
+    }
+    if (gradleCacheIndex != null) {
+      Optional<Path> cached = gradleCacheIndex.findPom(new Artifact(groupId, artifactId, version));
+      if (cached.isPresent()) {
+        return cached.get();
+      }
+    }
+    throw new UnresolvableException(pom + " is not in the local repository");
+  }
+
+  /** Merges a POM with its parents, without interpolating it */
+  private Model inherit(Pom pom) throws UnresolvableException {
+    for (Profile profile : pom.profiles) {
+      // the contributions of profiles aren't merged, they would be silently ignored
+      if (profile.mayBeActive && profile.changesDependencies(pom.inRepository)) {
+        throw new UnresolvableException(
+            "profile " + profile.id + " in " + pom.file + " may change the dependencies");
+      }
+    }
+    Model model = new Model();
+    model.dir = pom.file.getParent();
+    model.artifactId = pom.artifactId;
+    model.groupId = pom.groupId != null ? pom.groupId : pom.parentGroupId;
+    model.version = pom.version != null ? pom.version : pom.parentVersion;
+    model.parentVersion = pom.parentVersion;
+    model.managed.addAll(pom.managed);
+    model.dependencies.addAll(pom.dependencies);
+    if (pom.parentArtifactId != null) {
+      Model parent = inherit(parentPom(pom));
+      model.properties.putAll(parent.properties);
+      model.managed.addAll(parent.managed);
+      model.dependencies.addAll(parent.dependencies);
+    }
+    model.properties.putAll(pom.properties);
+    return model;
+  }
+
+  private Pom parentPom(Pom pom) throws UnresolvableException {
+    Path relative = pom.file.resolveSibling(pom.parentRelativePath);
+    if (Files.isDirectory(relative)) {
+      relative = relative.resolve("pom.xml");
+    }
+    if (Files.exists(relative)) {
+      Pom parent = parse(relative);
+      String groupId = parent.groupId != null ? parent.groupId : parent.parentGroupId;
+      String version = parent.version != null ? parent.version : parent.parentVersion;
+      if (pom.parentArtifactId.equals(parent.artifactId)
+          && pom.parentGroupId.equals(groupId)
+          && pom.parentVersion.equals(version)) {
+        return parent;
+      }
+    }
+    return repositoryPom(pom.parentGroupId, pom.parentArtifactId, pom.parentVersion);
+  }
+
+  /** Interpolates a model, imports BOMs and applies the dependency management */
+  private Resolved resolve(Model model) throws UnresolvableException {
+    Resolved resolved = new Resolved();
+    resolved.groupId = interpolate(model.groupId, model);
+    resolved.artifactId = interpolate(model.artifactId, model);
+    resolved.version = interpolate(model.version, model);
+    // the declarations of the project come before the ones of its parents, the first one wins
+    List<Dependency> boms = new ArrayList<Dependency>();
+    for (Dependency raw : model.managed) {
+      Dependency managed = interpolate(raw, model);
+      if ("import".equals(managed.scope) && "pom".equals(managed.type)) {
+        boms.add(managed);
+      } else if (!resolved.managed.containsKey(managed.key())) {
+        resolved.managed.put(managed.key(), managed);
+      }
+    }
+    for (Dependency bom : boms) {
+      if (bom.version == null || bom.version.contains("${")) {
+        throw new UnresolvableException("version of BOM " + bom.key() + " is " + bom.version);
+      }
+      Resolved imported = resolveArtifact(bom.groupId, bom.artifactId, bom.version);
+      for (Dependency managed : imported.managed.values()) {
+        if (!resolved.managed.containsKey(managed.key())) {
+          resolved.managed.put(managed.key(), managed);
+        }
+      }
+    }
+    Set<String> declared = new HashSet<String>();
+    for (Dependency raw : model.dependencies) {
+      Dependency dependency = interpolate(raw, model);
+      if (!declared.add(dependency.key())) {
+        continue;
+      }
+      Dependency managed = resolved.managed.get(dependency.key());
+      if (managed != null) {
+        if (dependency.version == null) {
+          dependency.version = managed.version;
+        }
+        if (dependency.scope == null) {
+          dependency.scope = managed.scope;
+        }
+        dependency.exclusions.addAll(managed.exclusions);
+      }
+      if (dependency.scope == null) {
+        dependency.scope = "compile";
+      }
+      resolved.dependencies.add(dependency);
+    }
+    return resolved;
+  }
+
+  private Dependency interpolate(Dependency raw, Model model) {
+    Dependency dependency = raw.copy();
+    dependency.groupId = interpolate(raw.groupId, model);
+    dependency.artifactId = interpolate(raw.artifactId, model);
+    dependency.version = interpolate(raw.version, model);
+    dependency.scope = interpolate(raw.scope, model);
+    dependency.type = interpolate(raw.type, model);
+    dependency.classifier = interpolate(raw.classifier, model);
+    return dependency;
+  }
+
+  private String interpolate(String value, Model model) {
+    if (value == null) {
+      return null;
+    }
+    // properties can refer to other properties, but not endlessly
+    for (int depth = 0; depth < 10 && value.contains("${"); depth++) {
+      Matcher matcher = PROPERTY.matcher(value);
+      StringBuffer sb = new StringBuffer();
+      boolean replaced = false;
+      while (matcher.find()) {
+        String property = property(matcher.group(1), model);
+        replaced |= property != null;
+        matcher.appendReplacement(
+            sb, Matcher.quoteReplacement(property != null ? property : matcher.group()));
+      }
+      matcher.appendTail(sb);
+      value = sb.toString();
+      if (!replaced) {
+        break;
+      }
+    }
+    return value.trim();
+  }
+
+  private String property(String name, Model model) {
+    switch (name) {
+      case "project.groupId":
+      case "pom.groupId":
+      case "groupId":
+        return model.groupId;
+      case "project.artifactId":
+      case "pom.artifactId":
+      case "artifactId":
+        return model.artifactId;
+      case "project.version":
+      case "pom.version":
+      case "version":
+        return model.version;
+      case "project.parent.version":
+      case "parent.version":
+        return model.parentVersion;
+      case "project.basedir":
+      case "basedir":
+        return model.dir.toString();
+      default:
+        if (model.properties.containsKey(name)) {
+          return model.properties.get(name);
+        }
+        if (name.startsWith("env.")) {
+          return System.getenv(name.substring(4));
+        }
+        return System.getProperty(name);
+    }
+  }
+
+  private static Pom parse(Path file) throws UnresolvableException {
+    Element project;
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(false);
+      factory.setExpandEntityReferences(false);
+      // POMs are untrusted input, no DTDs nor external entities
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+      factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+      factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+      project = factory.newDocumentBuilder().parse(file.toFile()).getDocumentElement();
+    } catch (ParserConfigurationException
+        | SAXException
+        | IOException
+        | IllegalArgumentException e) {
+      throw new UnresolvableException("can't parse " + file + ": " + e.getMessage());
+    }
+    Pom pom = new Pom();
+    pom.file = file;
+    pom.groupId = text(project, "groupId");
+    pom.artifactId = text(project, "artifactId");
+    pom.version = text(project, "version");
+    Element parent = child(project, "parent");
+    if (parent != null) {
+      pom.parentGroupId = text(parent, "groupId");
+      pom.parentArtifactId = text(parent, "artifactId");
+      pom.parentVersion = text(parent, "version");
+      String relativePath = text(parent, "relativePath");
+      pom.parentRelativePath = relativePath != null ? relativePath : "../pom.xml";
+      if (pom.parentGroupId == null || pom.parentVersion == null) {
+        throw new UnresolvableException("incomplete parent in " + file);
+      }
+    }
+    Element properties = child(project, "properties");
+    if (properties != null) {
+      for (Element property : children(properties)) {
+        pom.properties.put(property.getTagName(), property.getTextContent().trim());
+      }
+    }
+    Element dependencyManagement = child(project, "dependencyManagement");
+    if (dependencyManagement != null) {
+      pom.managed.addAll(dependencies(child(dependencyManagement, "dependencies")));
+    }
+    pom.dependencies.addAll(dependencies(child(project, "dependencies")));
+    Element modules = child(project, "modules");
+    if (modules != null) {
+      for (Element module : children(modules)) {
+        pom.modules.add(module.getTextContent().trim());
+      }
+    }
+    Element profiles = child(project, "profiles");
+    if (profiles != null) {
+      for (Element element : children(profiles)) {
+        Profile profile = new Profile();
+        profile.id = text(element, "id");
+        profile.mayBeActive = mayBeActive(child(element, "activation"));
+        profile.properties = child(element, "properties") != null;
+        profile.dependencies.addAll(dependencies(child(element, "dependencies")));
+        Element profileManagement = child(element, "dependencyManagement");
+        if (profileManagement != null) {
+          profile.managed.addAll(dependencies(child(profileManagement, "dependencies")));
+        }
+        pom.profiles.add(profile);
+      }
+    }
+    return pom;
+  }
+
+  /**
+   * Checks if a profile may be active in a build without -P. Conditions on the JDK, the OS and
+   * files may match, a property condition only matches if the property is set for this process or
+   * negated.
+   */
+  private static boolean mayBeActive(Element activation) {
+    if (activation == null) {
+      // only activated explicitly
+      return false;
+    }
+    if ("true".equals(text(activation, "activeByDefault"))) {
+      return true;
+    }
+    Element property = child(activation, "property");
+    if (property != null) {
+      String name = text(property, "name");
+      String value = text(property, "value");
+      if (name == null) {
+        return false;
+      }
+      if (!name.startsWith("!") && (value == null || !value.startsWith("!"))) {
+        String actual =
+            name.startsWith("env.") ? System.getenv(name.substring(4)) : System.getProperty(name);
+        if (actual == null || (value != null && !value.equals(actual))) {
+          // all conditions must match
+          return false;
+        }
+      }
+      return true;
+    }
+    return child(activation, "jdk") != null
+        || child(activation, "os") != null
+        || child(activation, "file") != null;
+  }
+
+  private static List<Dependency> dependencies(Element dependencies) {
+    if (dependencies == null) {
+      return Collections.emptyList();
+    }
+    List<Dependency> result = new ArrayList<Dependency>();
+    for (Element element : children(dependencies)) {
+      Dependency dependency = new Dependency();
+      dependency.groupId = text(element, "groupId");
+      dependency.artifactId = text(element, "artifactId");
+      dependency.version = text(element, "version");
+      dependency.scope = text(element, "scope");
+      dependency.type = text(element, "type");
+      dependency.classifier = text(element, "classifier");
+      dependency.optional = "true".equals(text(element, "optional"));
+      Element exclusions = child(element, "exclusions");
+      if (exclusions != null) {
+        for (Element exclusion : children(exclusions)) {
+          dependency.exclusions.add(
+              text(exclusion, "groupId") + ":" + text(exclusion, "artifactId"));
+        }
+      }
+      result.add(dependency);
+    }
+    return result;
+  }
+
+  private static List<Element> children(Element element) {
+    List<Element> result = new ArrayList<Element>();
+    NodeList nodes = element.getChildNodes();
+    for (int i = 0; i < nodes.getLength(); i++) {
+      if (nodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
+        result.add((Element) nodes.item(i));
+      }
+    }
+    return result;
+  }
+
+  private static Element child(Element element, String name) {
+    for (Element child : children(element)) {
+      if (child.getTagName().equals(name)) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  private static String text(Element element, String name) {
+    Element child = child(element, name);
+    return child == null ? null : child.getTextContent().trim();
+  }
+
+  /** A dependency as declared in a POM */
+  private static class Dependency {
+    String groupId, artifactId, version, scope, type, classifier;
+    boolean optional;
+    Set<String> exclusions = new HashSet<String>();
+
+    /** The key used by the dependency management */
+    String key() {
+      return groupId
+          + ":"
+          + artifactId
+          + ":"
+          + (type == null ? "jar" : type)
+          + ":"
+          + (classifier == null ? "" : classifier);
+    }
+
+    Dependency copy() {
+      Dependency copy = new Dependency();
+      copy.groupId = groupId;
+      copy.artifactId = artifactId;
+      copy.version = version;
+      copy.scope = scope;
+      copy.type = type;
+      copy.classifier = classifier;
+      copy.optional = optional;
+      copy.exclusions.addAll(exclusions);
+      return copy;
+    }
+  }
+
+  /** A profile of a POM */
+  private static class Profile {
+    String id;
+    boolean mayBeActive;
+    boolean properties;
+    List<Dependency> managed = new ArrayList<Dependency>();
+    List<Dependency> dependencies = new ArrayList<Dependency>();
+
+    /**
+     * Checks if the profile changes the resolved dependencies. The properties of repository POMs
+     * are ignored, they rarely change dependency versions, and so are their dependencies which
+     * aren't transitive.
+     */
+    boolean changesDependencies(boolean inRepository) {
+      if (!managed.isEmpty() || (properties && !inRepository)) {
+        return true;
+      }
+      for (Dependency dependency : dependencies) {
+        if (!"system".equals(dependency.scope)
+            && !(inRepository
+                && ("test".equals(dependency.scope) || "provided".equals(dependency.scope)))) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** The content of a single pom.xml */
+  private static class Pom {
+    Path file;
+    /** Whether the POM was found in the local repository or the gradle cache */
+    boolean inRepository;
+
+    String groupId, artifactId, version;
+    String parentGroupId, parentArtifactId, parentVersion, parentRelativePath;
+    Map<String, String> properties = new LinkedHashMap<String, String>();
+    List<Dependency> managed = new ArrayList<Dependency>();
+    List<Dependency> dependencies = new ArrayList<Dependency>();
+    List<String> modules = new ArrayList<String>();
+    List<Profile> profiles = new ArrayList<Profile>();
+  }
+
+  /** A POM merged with its parents */
+  private static class Model {
+    Path dir;
+    String groupId, artifactId, version, parentVersion;
+    Map<String, String> properties = new HashMap<String, String>();
+    List<Dependency> managed = new ArrayList<Dependency>();
+    List<Dependency> dependencies = new ArrayList<Dependency>();
+  }
+
+  /** An interpolated model with its dependency management applied */
+  private static class Resolved {
+    String groupId, artifactId, version;
+    Map<String, Dependency> managed = new LinkedHashMap<String, Dependency>();
+    List<Dependency> dependencies = new ArrayList<Dependency>();
+  }
+
+  private static class UnresolvableException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    UnresolvableException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package magpiebridge.projectservice.java;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Reads the package declaration of a java source file without parsing it. Only the header of the
+ * file is tokenized: whitespace, comments and annotations are skipped until the <code>package
+ * </code> keyword, any other token means the file is in the default package.
+ */
+public class PackageScanner {
+
+  /** The header is read in blocks of this size */
+  private static final int BLOCK = 4096;
+
+  private final Reader reader;
+  private final char[] buffer = new char[BLOCK];
+  private int length;
+  private int pos;
+
+  private PackageScanner(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Reads the package of a java file.
+   *
+   * @return the package name, empty string for the default package, or empty if the file can't be
+   *     read or its header isn't valid java
+   */
+  public static Optional<String> packageName(Path java) {
+    try (Reader reader = Files.newBufferedReader(java, StandardCharsets.UTF_8)) {
+      return new PackageScanner(reader).scan();
+    } catch (IOException e) {
+      // e.g. malformed input in another encoding, the header is usually ascii anyway
+      try (Reader reader = Files.newBufferedReader(java, StandardCharsets.ISO_8859_1)) {
+        return new PackageScanner(reader).scan();
+      } catch (IOException e1) {
+        return Optional.empty();
+      }
+    }
+  }
+
+  /**
+   * Reads the package of java source code.
+   *
+   * @return the package name, empty string for the default package, or empty if the header isn't
+   *     valid java
+   */
+  public static Optional<String> packageName(Reader reader) throws IOException {
+    return new PackageScanner(reader).scan();
+  }
+
+  private Optional<String> scan() throws IOException {
+    while (true) {
+      skipWhitespaceAndComments();
+      int c = peek();
+      if (c == '@') {
+        next();
+        skipWhitespaceAndComments();
+        if (!skipAnnotation()) {
+          return Optional.empty();
+        }
+      } else if (Character.isJavaIdentifierStart(c)) {
+        String word = identifier();
+        if (!word.equals("package")) {
+          return Optional.of("");
+        }
+        return qualifiedName();
+      } else {
+        // end of file or a token which can't start a package declaration
+        return c == -1 || c == ';' ? Optional.of("") : Optional.empty();
+      }
+    }
+  }
+
+  /** Skips the name and arguments of an annotation, after the '@' */
+  private boolean skipAnnotation() throws IOException {
+    String word = identifier();
+    if (word.isEmpty() || word.equals("interface")) {
+      return false;
+    }
+    skipWhitespaceAndComments();
+    while (peek() == '.') {
+      next();
+      skipWhitespaceAndComments();
+      if (identifier().isEmpty()) {
+        return false;
+      }
+      skipWhitespaceAndComments();
+    }
+    if (peek() == '(') {
+      int depth = 0;
+      do {
+        skipWhitespaceAndComments();
+        int c = next();
+        if (c == -1) {
+          return false;
+        } else if (c == '(') {
+          depth++;
+        } else if (c == ')') {
+          depth--;
+        } else if (c == '"' || c == '\'') {
+          skipLiteral(c);
+        }
+      } while (depth > 0);
+    }
+    return true;
+  }
+
+  private void skipLiteral(int quote) throws IOException {
+    int c;
+    while ((c = next()) != -1 && c != quote) {
+      if (c == '\\') {
+        next();
+      }
+    }
+  }
+
+  private Optional<String> qualifiedName() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (true) {
+      skipWhitespaceAndComments();
+      String part = identifier();
+      if (part.isEmpty()) {
+        return Optional.empty();
+      }
+      sb.append(part);
+      skipWhitespaceAndComments();
+      int c = next();
+      if (c == ';') {
+        return Optional.of(sb.toString());
+      } else if (c != '.') {
+        return Optional.empty();
+      }
+      sb.append('.');
+    }
+  }
+
+  private String identifier() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int c = peek();
+    if (c == -1 || !Character.isJavaIdentifierStart(c)) {
+      return "";
+    }
+    while (c != -1 && Character.isJavaIdentifierPart(c)) {
+      sb.append((char) next());
+      c = peek();
+    }
+    return sb.toString();
+  }
+
+  private void skipWhitespaceAndComments() throws IOException {
+    while (true) {
+      int c = peek();
+      if (c == -1) {
+        return;
+      }
+      if (Character.isWhitespace(c) || c == '\uFEFF') {
+        next();
+      } else if (c == '/' && peek(1) == '/') {
+        while ((c = next()) != -1 && c != '\n') {}
+      } else if (c == '/' && peek(1) == '*') {
+        next();
+        next();
+        int last = 0;
+        while ((c = next()) != -1 && !(last == '*' && c == '/')) {
+          last = c;
+        }
+      } else {
+        return;
+      }
+    }
+  }
+
+  private int peek() throws IOException {
+    return peek(0);
+  }
+
+  private int peek(int ahead) throws IOException {
+    if (pos + ahead >= length) {
+      fill();
+    }
+    return pos + ahead < length ? buffer[pos + ahead] : -1;
+  }
+
+  private int next() throws IOException {
+    int c = peek();
+    if (c != -1) {
+      pos++;
+    }
+    return c;
+  }
+
+  /** Moves the unread characters to the front and reads the next block */
+  private void fill() throws IOException {
+    System.arraycopy(buffer, pos, buffer, 0, length - pos);
+    length -= pos;
+    pos = 0;
+    int n = reader.read(buffer, length, buffer.length - length);
+    if (n > 0) {
+      length += n;
+    }
+  }
+}
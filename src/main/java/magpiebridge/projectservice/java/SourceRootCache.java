@@ -0,0 +1,129 @@
+package magpiebridge.projectservice.java;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of inferred source roots. Next to the roots of a workspace it records the
+ * modification time of every directory that was scanned. Adding, removing or renaming a file or
+ * directory changes the modification time of its parent, so the roots are reused as long as all
+ * recorded directories are unchanged, without reading any java file. Changing the package
+ * declaration of an existing file in place isn't detected. Like the {@link ClassPathCache}, it
+ * keeps the roots of the most recently used workspaces only.
+ */
+public class SourceRootCache {
+  private static final Logger LOG = Logger.getLogger("main");
+
+  private static final String ROOT = "R";
+
+  private static final String DIRECTORY = "D";
+
+  /** Directory holding one file per workspace */
+  private final Path directory;
+
+  private final int maxFiles;
+
+  private final long maxAge;
+
+  public SourceRootCache(Path directory) {
+    this(directory, ClassPathCache.DEFAULT_MAX_FILES, ClassPathCache.DEFAULT_MAX_AGE);
+  }
+
+  /**
+   * @param maxFiles the number of workspaces kept, the least recently used ones are deleted
+   * @param maxAge the time in milliseconds after which the roots of an unused workspace are deleted
+   */
+  public SourceRootCache(Path directory, int maxFiles, long maxAge) {
+    this.directory = directory;
+    this.maxFiles = maxFiles;
+    this.maxAge = maxAge;
+  }
+
+  /** The cache in the cache directory, by default ~/.magpiebridge/sourcepath */
+  public static SourceRootCache defaultCache() {
+    return new SourceRootCache(ClassPathCache.cacheDirectory().resolve("sourcepath"));
+  }
+
+  /** Load the roots of the workspace if none of the scanned directories changed since. */
+  public Optional<Set<Path>> load(Path workspaceRoot) {
+    Path file = file(workspaceRoot);
+    if (!Files.exists(file)) {
+      return Optional.empty();
+    }
+    try {
+      Set<Path> roots = new HashSet<Path>();
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        String[] parts = line.split("\t", 3);
+        if (parts[0].equals(ROOT) && parts.length == 2) {
+          roots.add(Paths.get(parts[1]));
+        } else if (parts[0].equals(DIRECTORY) && parts.length == 3) {
+          Path dir = Paths.get(parts[2]);
+          if (!Files.isDirectory(dir)
+              || Files.getLastModifiedTime(dir).toMillis() != Long.parseLong(parts[1])) {
+            LOG.info("Source roots of " + workspaceRoot + " are outdated, " + dir + " changed");
+            return Optional.empty();
+          }
+        } else {
+          return Optional.empty();
+        }
+      }
+      ClassPathCache.touch(file);
+      return Optional.of(roots);
+    } catch (IOException | NumberFormatException e) {
+      LOG.warning("Couldn't read cached source roots " + file + ": " + e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Store the roots of the workspace, replacing the file atomically.
+   *
+   * @param directories the scanned directories with their modification times before they were
+   *     listed
+   */
+  public void store(Path workspaceRoot, Set<Path> roots, Map<Path, Long> directories) {
+    List<String> lines = new ArrayList<String>();
+    for (Path root : roots) {
+      lines.add(ROOT + "\t" + root.toAbsolutePath());
+    }
+    List<String> dirs = new ArrayList<String>();
+    for (Map.Entry<Path, Long> e : directories.entrySet()) {
+      dirs.add(DIRECTORY + "\t" + e.getValue() + "\t" + e.getKey().toAbsolutePath());
+    }
+    Collections.sort(dirs);
+    lines.addAll(dirs);
+    try {
+      Files.createDirectories(directory);
+      Path tmp = Files.createTempFile(directory, "roots", ".tmp");
+      Files.write(tmp, lines, StandardCharsets.UTF_8);
+      Files.move(
+          tmp,
+          file(workspaceRoot),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warning("Couldn't store source roots in " + directory + ": " + e);
+    }
+    ClassPathCache.prune(directory, maxFiles, maxAge);
+  }
+
+  private Path file(Path workspaceRoot) {
+    return directory.resolve(
+        new ClassPathCache.Fingerprint()
+                .add(workspaceRoot.toAbsolutePath().normalize().toString())
+                .build()
+            + ".txt");
+  }
+}
@@ -0,0 +1,78 @@
+package magpiebridge.projectservice.java;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trie of inferred source roots by their path segments, counting how many java files were found in
+ * each root. Checking whether a file is under a root known with certainty takes time proportional
+ * to the depth of the file, independent of the number of roots. Safe for concurrent use.
+ */
+public class SourceRootTrie {
+
+  private static class Node {
+    final Map<Path, Node> children = new ConcurrentHashMap<>();
+    final AtomicInteger count = new AtomicInteger();
+    volatile Path root;
+  }
+
+  private final Node top = new Node();
+
+  /** A root is certain once more files than this were found in it */
+  private final int certaintyThreshold;
+
+  public SourceRootTrie(int certaintyThreshold) {
+    this.certaintyThreshold = certaintyThreshold;
+  }
+
+  /** Count a java file found in the root. */
+  public void add(Path root) {
+    add(root, 1);
+  }
+
+  /** Count a number of java files found in the root. */
+  public void add(Path root, int files) {
+    Node node = top;
+    for (Path segment : root) {
+      node = node.children.computeIfAbsent(segment, s -> new Node());
+    }
+    node.root = root;
+    node.count.addAndGet(files);
+  }
+
+  /** Check if the path is in a root, or is a root, that is known with certainty. */
+  public boolean isConfident(Path path) {
+    Node node = top;
+    for (Path segment : path) {
+      node = node.children.get(segment);
+      if (node == null) {
+        return false;
+      }
+      if (node.count.get() > certaintyThreshold) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return all roots java files were found in */
+  public Set<Path> roots() {
+    Set<Path> roots = new HashSet<>();
+    Deque<Node> nodes = new ArrayDeque<>();
+    nodes.push(top);
+    while (!nodes.isEmpty()) {
+      Node node = nodes.pop();
+      if (node.count.get() > 0) {
+        roots.add(node.root);
+      }
+      nodes.addAll(node.children.values());
+    }
+    return roots;
+  }
+}
@@ -0,0 +1,151 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.ClassConstants;
+import com.ibm.wala.shrikeCT.ClassWriter;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.TypeReference;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import magpiebridge.core.ClassHierarchyService;
+import magpiebridge.core.Kind;
+import magpiebridge.core.MagpieServer;
+import magpiebridge.core.MetricsRegistry;
+import magpiebridge.core.ServerConfiguration;
+import magpiebridge.core.Tracer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassHierarchyServiceTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  /** Only java.lang, java.io and java.util are loaded from the JDK, to keep the test fast. */
+  private static final String EXCLUSIONS =
+      "java\\/(?!lang\\/|io\\/|util\\/).*\njavax\\/.*\nsun\\/.*\ncom\\/.*\njdk\\/.*\norg\\/.*\n";
+
+  /**
+   * Creates the rt.jar of a stub JDK with empty Java 8 classes, so the tests run on Java 9 and
+   * later: WALA reads the JDK from rt.jar, which they don't have, and can't parse their classes.
+   */
+  private Path stubJdk() throws IOException {
+    Path jar = tmp.newFolder("jdk", "lib").toPath().resolve("rt.jar");
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+      stubClass(out, "java/lang/Object", null, ClassConstants.ACC_PUBLIC);
+      stubClass(
+          out,
+          "java/lang/Enum",
+          "java/lang/Object",
+          ClassConstants.ACC_PUBLIC | ClassConstants.ACC_ABSTRACT,
+          "java/lang/Comparable",
+          "java/io/Serializable");
+      stubClass(
+          out,
+          "java/lang/String",
+          "java/lang/Object",
+          ClassConstants.ACC_PUBLIC | ClassConstants.ACC_FINAL,
+          "java/lang/Comparable",
+          "java/io/Serializable");
+      int iface =
+          ClassConstants.ACC_PUBLIC | ClassConstants.ACC_INTERFACE | ClassConstants.ACC_ABSTRACT;
+      stubClass(out, "java/lang/Comparable", "java/lang/Object", iface);
+      stubClass(out, "java/io/Serializable", "java/lang/Object", iface);
+    }
+    return jar;
+  }
+
+  private static void stubClass(
+      JarOutputStream out, String name, String superName, int flags, String... interfaces)
+      throws IOException {
+    ClassWriter writer = new ClassWriter();
+    writer.setMajorVersion(52);
+    writer.setAccessFlags(flags);
+    writer.setName(name);
+    writer.setSuperName(superName);
+    writer.setInterfaceNames(interfaces);
+    out.putNextEntry(new JarEntry(name + ".class"));
+    out.write(writer.makeBytes());
+    out.closeEntry();
+  }
+
+  @Test
+  public void testLibrarySharedByLayeredHierarchies() throws Exception {
+    List<Path> jdk = Collections.singletonList(stubJdk());
+    ClassHierarchyService service = new ClassHierarchyService(2);
+    ClassHierarchyService.Library library =
+        service.getLibrary(jdk, Collections.emptyList(), EXCLUSIONS);
+    assertSame(library, service.getLibrary(jdk, Collections.emptyList(), EXCLUSIONS));
+    assertNotSame(
+        library, service.getLibrary(jdk, Collections.emptyList(), EXCLUSIONS + "java\\/io\\/.*\n"));
+
+    Path classes = tmp.newFolder("classes").toPath();
+    Path kind = classes.resolve("magpiebridge/core/Kind.class");
+    Files.createDirectories(kind.getParent());
+    try (InputStream in = Kind.class.getResourceAsStream("Kind.class")) {
+      Files.copy(in, kind);
+    }
+    TypeReference kindType =
+        TypeReference.findOrCreate(ClassLoaderReference.Application, "Lmagpiebridge/core/Kind");
+    assertNull(library.getClassHierarchy().lookupClass(kindType));
+
+    AnalysisScope scope = library.newScope(Collections.singletonList(classes));
+    IClassHierarchy first = library.classHierarchy(scope);
+    IClassHierarchy second = library.classHierarchy(library.newScope(Collections.emptyList()));
+    IClass kindClass = first.lookupClass(kindType);
+    assertNotNull(kindClass);
+    assertEquals("Ljava/lang/Enum", kindClass.getSuperclass().getName().toString());
+    assertNull(second.lookupClass(kindType));
+    // the JDK classes are loaded once, by the library
+    assertSame(
+        library.getClassHierarchy().getLoader(ClassLoaderReference.Primordial),
+        first.getLoader(ClassLoaderReference.Primordial));
+    assertSame(
+        first.lookupClass(TypeReference.JavaLangString),
+        second.lookupClass(TypeReference.JavaLangString));
+  }
+
+  @Test
+  public void testJdkPath() throws Exception {
+    Path rt = stubJdk();
+    Path home = rt.getParent().getParent();
+    ServerConfiguration config = new ServerConfiguration();
+    config.setJdkPath(home);
+    MagpieServer server = new MagpieServer(config);
+    assertEquals(
+        Collections.singletonList(rt), server.getClassHierarchyService().getJdkLibraries());
+    server.shutdown();
+    assertEquals(Collections.singletonList(rt), ClassHierarchyService.jdkLibraries(rt));
+
+    try {
+      new ClassHierarchyService(
+          1, tmp.newFolder("empty").toPath(), new MetricsRegistry(false), new Tracer(0));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("empty"));
+    }
+    try {
+      new ClassHierarchyService(1)
+          .getLibrary(Collections.emptyList(), Collections.emptyList(), null);
+      fail();
+    } catch (ClassHierarchyException e) {
+      assertTrue(e.getMessage().contains("JDK"));
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import magpiebridge.projectservice.java.ClassPathCache;
+import magpiebridge.projectservice.java.InferConfig;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ClassPathCacheTest {
+  @Rule public TemporaryCacheDirectory tmp = new TemporaryCacheDirectory();
+
+  @Test
+  public void testStoreAndLoad() throws IOException {
+    Path dir = tmp.newFolder("classpath").toPath();
+    Path jar = Files.createTempFile(dir, "lib", ".jar");
+    ClassPathCache cache = new ClassPathCache(dir);
+    String fingerprint = new ClassPathCache.Fingerprint().add("project").build();
+    assertFalse(cache.load(fingerprint).isPresent());
+    cache.store(fingerprint, Collections.singleton(jar));
+    assertEquals(Collections.singleton(jar), cache.load(fingerprint).get());
+    // entries removed from disk invalidate the cached class path
+    Files.delete(jar);
+    assertFalse(cache.load(fingerprint).isPresent());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() throws IOException {
+    Path dir = tmp.newFolder("classpath").toPath();
+    Path jar = Files.createTempFile(dir, "lib", ".jar");
+    ClassPathCache cache = new ClassPathCache(dir, 2, TimeUnit.DAYS.toMillis(1));
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 2; i++) {
+      cache.store("fingerprint" + i, Collections.singleton(jar));
+      Path file = dir.resolve("fingerprint" + i + ".txt");
+      Files.setLastModifiedTime(file, FileTime.fromMillis(now - TimeUnit.HOURS.toMillis(3 - i)));
+    }
+    // loading marks a class path as used
+    assertTrue(cache.load("fingerprint0").isPresent());
+    cache.store("fingerprint2", Collections.singleton(jar));
+    assertTrue(cache.load("fingerprint0").isPresent());
+    assertFalse(cache.load("fingerprint1").isPresent());
+    assertTrue(cache.load("fingerprint2").isPresent());
+
+    // class paths unused for longer than the maximal age are deleted
+    Files.setLastModifiedTime(
+        dir.resolve("fingerprint0.txt"), FileTime.fromMillis(now - TimeUnit.DAYS.toMillis(2)));
+    cache.store("fingerprint3", Collections.singleton(jar));
+    assertFalse(cache.load("fingerprint0").isPresent());
+    assertTrue(cache.load("fingerprint3").isPresent());
+  }
+
+  @Test
+  public void testFingerprintChangesWithContent() throws IOException {
+    Path pom = tmp.newFile("pom.xml").toPath();
+    Files.write(pom, "<project/>".getBytes());
+    String first = new ClassPathCache.Fingerprint().addFile(pom).build();
+    assertEquals(first, new ClassPathCache.Fingerprint().addFile(pom).build());
+    Files.write(pom, "<project></project>".getBytes());
+    assertNotEquals(first, new ClassPathCache.Fingerprint().addFile(pom).build());
+  }
+
+  @Test
+  public void testInferConfigUsesCache() throws IOException {
+    Path dir = tmp.newFolder("classpath").toPath();
+    Path root = Paths.get("src/test/resources/DemoProject/").toAbsolutePath();
+    Set<String> dependencies = new HashSet<>();
+    dependencies.add("junit:junit:4.12");
+    Set<Path> libraries =
+        new InferConfig(root, dependencies, new ClassPathCache(dir)).libraryClassPath();
+    assertEquals(1, libraries.size());
+    assertEquals(1, Files.list(dir).count());
+    assertTrue(
+        new InferConfig(root, dependencies, new ClassPathCache(dir))
+            .libraryClassPath()
+            .equals(libraries));
+  }
+}
@@ -0,0 +1,61 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import magpiebridge.projectservice.java.Artifact;
+import magpiebridge.projectservice.java.GradleCacheIndex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GradleCacheIndexTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static Path put(
+      Path gradleHome, String group, String artifact, String version, String file)
+      throws IOException {
+    Path dir =
+        gradleHome
+            .resolve("caches/modules-2/files-2.1")
+            .resolve(group)
+            .resolve(artifact)
+            .resolve(version)
+            .resolve(Integer.toHexString(file.hashCode()));
+    Files.createDirectories(dir);
+    return Files.createFile(dir.resolve(file));
+  }
+
+  @Test
+  public void testIndexRefreshedIncrementally() throws IOException {
+    Path gradleHome = tmp.newFolder("gradle").toPath();
+    Path indexFile = tmp.newFolder("index").toPath().resolve("index.txt");
+    Path jar = put(gradleHome, "g", "a", "1", "a-1.jar");
+    Path sources = put(gradleHome, "g", "a", "1", "a-1-sources.jar");
+    GradleCacheIndex index = new GradleCacheIndex(gradleHome, indexFile);
+    index.refresh();
+    Artifact a1 = new Artifact("g", "a", "1");
+    Artifact a2 = new Artifact("g", "a", "2");
+    assertEquals(jar, index.findJar(a1, false).get());
+    assertEquals(sources, index.findJar(a1, true).get());
+    assertFalse(index.findJar(a2, false).isPresent());
+
+    Path jar2 = put(gradleHome, "g", "a", "2", "a-2.jar");
+    index.refresh();
+    assertEquals(jar2, index.findJar(a2, false).get());
+
+    // a new index reads the persisted entries and only rescans changed directories
+    Path version1 = jar.getParent().getParent();
+    long modified = Files.getLastModifiedTime(version1).toMillis();
+    Files.delete(sources);
+    Files.setLastModifiedTime(version1, FileTime.fromMillis(modified));
+    GradleCacheIndex reloaded = new GradleCacheIndex(gradleHome, indexFile);
+    reloaded.refresh();
+    assertEquals(sources, reloaded.findJar(a1, true).get());
+    assertEquals(jar2, reloaded.findJar(a2, false).get());
+  }
+}
@@ -0,0 +1,92 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import magpiebridge.projectservice.java.Artifact;
+import magpiebridge.projectservice.java.GradleCacheIndex;
+import magpiebridge.projectservice.java.GradleProject;
+import magpiebridge.projectservice.java.MavenPomResolver;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class GradleProjectTest {
+  @Rule public TemporaryCacheDirectory tmp = new TemporaryCacheDirectory();
+
+  private static Path write(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testMultiProjectBuild() throws IOException {
+    Path root = tmp.newFolder("gradle-project").toPath();
+    write(
+        root.resolve("settings.gradle"), "rootProject.name = 'demo'\ninclude 'app', ':lib:core'\n");
+    write(root.resolve("gradle.properties"), "guavaVersion=28.0-jre\n");
+    write(
+        root.resolve("build.gradle"),
+        "ext {\n  junitVersion = '4.12'\n}\n"
+            + "// implementation 'commented:out:1'\n"
+            + "subprojects {\n  dependencies {\n"
+            + "    testImplementation \"junit:junit:${junitVersion}\"\n  }\n}\n");
+    write(
+        root.resolve("app/build.gradle"),
+        "dependencies {\n"
+            + "  implementation project(':lib:core')\n"
+            + "  implementation \"com.google.guava:guava:$guavaVersion\"\n"
+            + "  compileOnly group: 'org.projectlombok', name: 'lombok', version: '1.18.8'\n"
+            + "  runtimeOnly 'org.slf4j:slf4j-api:1.+'\n"
+            + "}\n");
+    write(
+        root.resolve("lib/core/build.gradle.kts"),
+        "dependencies {\n  api(\"org.apache.commons:commons-lang3:3.9\")\n}\n");
+    Files.createDirectories(root.resolve("app/build/classes/java/main"));
+    Files.createDirectories(root.resolve("lib/core/build/classes/kotlin/test"));
+
+    GradleProject project = new GradleProject(root);
+    assertTrue(GradleProject.isGradleProject(root));
+    assertEquals(3, project.projectDirectories().size());
+    Set<Path> expectedOutputs = new HashSet<>();
+    expectedOutputs.add(root.resolve("app/build/classes/java/main"));
+    expectedOutputs.add(root.resolve("lib/core/build/classes/kotlin/test"));
+    assertEquals(expectedOutputs, project.outputDirectories());
+    Set<String> found = new HashSet<>();
+    for (Artifact artifact : project.dependencies()) {
+      found.add(artifact.toString());
+    }
+    Set<String> expected = new HashSet<>();
+    expected.add("junit:junit:4.12");
+    expected.add("com.google.guava:guava:28.0-jre");
+    expected.add("org.projectlombok:lombok:1.18.8");
+    expected.add("org.apache.commons:commons-lang3:3.9");
+    assertEquals(expected, found);
+  }
+
+  @Test
+  public void testTransitiveDependenciesFromGradleCache() throws IOException {
+    Path gradleHome = tmp.newFolder("gradle").toPath();
+    Path files = gradleHome.resolve("caches/modules-2/files-2.1");
+    write(
+        files.resolve("g/a/1/0a/a-1.pom"),
+        "<project><groupId>g</groupId><artifactId>a</artifactId><version>1</version>"
+            + "<dependencies><dependency><groupId>g</groupId><artifactId>b</artifactId>"
+            + "<version>2</version></dependency></dependencies></project>");
+    write(files.resolve("g/a/1/0b/a-1.jar"), "");
+    GradleCacheIndex index = new GradleCacheIndex(gradleHome, null);
+    index.refresh();
+    List<Artifact> dependencies =
+        new MavenPomResolver(tmp.newFolder("repository").toPath(), index)
+            .transitiveDependencies(Collections.singletonList(new Artifact("g", "a", "1")));
+    assertEquals(2, dependencies.size());
+    assertEquals(new Artifact("g", "b", "2"), dependencies.get(1));
+  }
+}
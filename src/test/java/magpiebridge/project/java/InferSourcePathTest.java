@@ -3,13 +3,24 @@ package magpiebridge.project.java;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Optional;
 import java.util.Set;
 import magpiebridge.projectservice.java.InferSourcePath;
+import magpiebridge.projectservice.java.PackageScanner;
+import magpiebridge.projectservice.java.SourceRootCache;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class InferSourcePathTest {
+  @Rule public TemporaryCacheDirectory tmp = new TemporaryCacheDirectory();
+
   @Test
   public void test1() {
     Path root = Paths.get("src/test/resources/cryptoDemoTest/").toAbsolutePath();
@@ -66,4 +77,66 @@ public class InferSourcePathTest {
     Path expected = Paths.get("src/test/resources/StandardJCATasks/Task3/src").toAbsolutePath();
     assertEquals(expected.toString(), sourcePath.iterator().next().toString());
   }
+
+  @Test
+  public void testParsedSourcePath() {
+    Path root = Paths.get("src/test/resources/DemoProject/").toAbsolutePath();
+    assertEquals(InferSourcePath.sourcePath(root, true), InferSourcePath.sourcePath(root, false));
+  }
+
+  @Test
+  public void testPackageScanner() throws IOException {
+    assertEquals(
+        Optional.of("a.b.c"),
+        PackageScanner.packageName(
+            new StringReader(
+                "/* license */\n// comment\n@Deprecated\n@SuppressWarnings(value = {\"a)\", \"b\"})"
+                    + "\npackage a . /* x */ b.c;\nclass A {}")));
+    assertEquals(
+        Optional.of(""), PackageScanner.packageName(new StringReader("import a.B;\nclass A {}")));
+    assertEquals(Optional.of(""), PackageScanner.packageName(new StringReader("/** doc */")));
+    assertEquals(Optional.empty(), PackageScanner.packageName(new StringReader("package a.;")));
+  }
+
+  @Test
+  public void testDefaultPackage() throws IOException {
+    Path root = tmp.newFolder("sourcepath").toPath();
+    Path src = Files.createDirectories(root.resolve("src"));
+    Files.write(src.resolve("A.java"), "class A {}".getBytes());
+    Files.write(src.resolve("B.java"), "import java.util.List;\nclass B {}".getBytes());
+    SourceRootCache cache = new SourceRootCache(tmp.newFolder("cache").toPath());
+    assertEquals(Collections.singleton(src), InferSourcePath.sourcePath(root, cache));
+    assertEquals(Collections.singleton(src), InferSourcePath.sourcePath(root, false));
+  }
+
+  @Test
+  public void testUnparsableFileIgnored() throws IOException {
+    Path root = tmp.newFolder("sourcepath").toPath();
+    Path pkg = Files.createDirectories(root.resolve("src/a"));
+    Files.write(pkg.resolve("A.java"), "package a;\nclass A {}".getBytes());
+    Files.write(pkg.resolve("B.java"), "package a;\nclass B {".getBytes());
+    assertEquals(
+        Collections.singleton(root.resolve("src")), InferSourcePath.sourcePath(root, false));
+  }
+
+  @Test
+  public void testSourceRootCache() throws IOException {
+    Path root = tmp.newFolder("sourcepath").toPath();
+    Path pkg = Files.createDirectories(root.resolve("main/a/b"));
+    Files.write(pkg.resolve("A.java"), "package a.b;\nclass A {}".getBytes());
+    SourceRootCache cache = new SourceRootCache(tmp.newFolder("cache").toPath());
+    Set<Path> expected = Collections.singleton(root.resolve("main"));
+    assertEquals(expected, InferSourcePath.sourcePath(root, cache));
+    assertEquals(Optional.of(expected), cache.load(root));
+
+    // a new source root invalidates the cached roots
+    Path other = Files.createDirectories(root.resolve("test/c"));
+    Files.write(other.resolve("C.java"), "package c;\nclass C {}".getBytes());
+    Files.setLastModifiedTime(root, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+    assertEquals(Optional.empty(), cache.load(root));
+    Set<Path> roots = InferSourcePath.sourcePath(root, cache);
+    assertEquals(2, roots.size());
+    assertTrue(roots.contains(root.resolve("test")));
+    assertEquals(Optional.of(roots), cache.load(root));
+  }
 }
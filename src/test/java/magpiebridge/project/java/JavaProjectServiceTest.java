@@ -1,14 +1,39 @@
 package magpiebridge.project.java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import magpiebridge.core.JavaProjectService;
+import magpiebridge.core.MagpieServer;
+import magpiebridge.core.MetricsRegistry;
+import org.eclipse.lsp4j.ClientCapabilities;
+import org.eclipse.lsp4j.DidChangeWatchedFilesCapabilities;
+import org.eclipse.lsp4j.DidChangeWatchedFilesRegistrationOptions;
+import org.eclipse.lsp4j.FileSystemWatcher;
+import org.eclipse.lsp4j.InitializeParams;
+import org.eclipse.lsp4j.InitializedParams;
+import org.eclipse.lsp4j.Registration;
+import org.eclipse.lsp4j.WorkspaceClientCapabilities;
 import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
 
 public class JavaProjectServiceTest {
+  @Rule public TemporaryCacheDirectory tmp = new TemporaryCacheDirectory();
 
   @Ignore
   public void testMavenProject() {
@@ -20,4 +45,84 @@ public class JavaProjectServiceTest {
     assertNotEquals(0, ps.getLibraryPath().size());
     assertEquals(2, ps.getClassPath().size() - ps.getLibraryPath().size());
   }
+
+  @Test
+  public void testConfigurationSnapshot() throws IOException {
+    Path root = tmp.newFolder("project").toPath();
+    Path pkg = Files.createDirectories(root.resolve("src/a"));
+    Files.write(pkg.resolve("A.java"), "package a;\nclass A {}".getBytes());
+    JavaProjectService ps = new JavaProjectService();
+    ps.setRootPath(root);
+    ps.prefetch();
+    JavaProjectService.Configuration configuration = ps.getConfiguration();
+    assertEquals(Collections.singleton(root.resolve("src")), configuration.getSourcePath());
+    assertTrue(configuration.getLibraryPath().isEmpty());
+    // opening a file sets the same root again, the configuration is kept
+    ps.setRootPath(root);
+    assertSame(configuration, ps.getConfiguration());
+    assertTrue(ps.isConfigurationFile(root.resolve("pom.xml")));
+    assertFalse(ps.isConfigurationFile(pkg.resolve("A.java")));
+    ps.invalidate();
+    assertNotSame(configuration, ps.getConfiguration());
+    assertEquals(configuration.getSourcePath(), ps.getSourcePath());
+  }
+
+  @Test
+  public void testFailedConfigurationComputedAgain() throws IOException {
+    Path root = tmp.newFolder("project").toPath();
+    AtomicInteger failures = new AtomicInteger(1);
+    JavaProjectService ps = new JavaProjectService();
+    ps.setMetrics(
+        new MetricsRegistry(false) {
+          @Override
+          public Timer timer(String name) {
+            if (failures.getAndDecrement() > 0) {
+              throw new IllegalStateException("failed");
+            }
+            return super.timer(name);
+          }
+        });
+    ps.setRootPath(root);
+    try {
+      ps.getConfiguration();
+      fail();
+    } catch (CompletionException e) {
+      assertEquals("failed", e.getCause().getMessage());
+    }
+    assertTrue(ps.getSourcePath().isEmpty());
+  }
+
+  @Test
+  public void testConfigurationFilesWatched() throws IOException {
+    Path root = tmp.newFolder("project").toPath();
+    JavaProjectService ps = new JavaProjectService();
+    MagpieServer server = new MagpieServer();
+    server.addProjectService("java", ps);
+    RecordingClient client = new RecordingClient();
+    server.connect(client);
+    InitializeParams params = new InitializeParams();
+    params.setRootUri(root.toUri().toString());
+    ClientCapabilities capabilities = new ClientCapabilities();
+    capabilities.setWorkspace(new WorkspaceClientCapabilities());
+    capabilities
+        .getWorkspace()
+        .setDidChangeWatchedFiles(new DidChangeWatchedFilesCapabilities(true));
+    params.setCapabilities(capabilities);
+    server.initialize(params).join();
+    server.initialized(new InitializedParams());
+
+    assertEquals(1, client.registrations.size());
+    Registration registration = client.registrations.get(0).getRegistrations().get(0);
+    assertEquals("workspace/didChangeWatchedFiles", registration.getMethod());
+    Set<String> patterns = new HashSet<>();
+    for (FileSystemWatcher watcher :
+        ((DidChangeWatchedFilesRegistrationOptions) registration.getRegisterOptions())
+            .getWatchers()) {
+      patterns.add(watcher.getGlobPattern());
+    }
+    assertTrue(patterns.contains("**/pom.xml"));
+    assertTrue(patterns.contains("**/build.gradle.kts"));
+    assertTrue(patterns.contains("**/gradle.properties"));
+    server.shutdown().join();
+  }
 }
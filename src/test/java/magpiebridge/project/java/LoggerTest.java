@@ -0,0 +1,51 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+import magpiebridge.core.Logger;
+import org.junit.Test;
+
+public class LoggerTest {
+  @Test
+  public void testMessagesWrittenOnClose() throws IOException {
+    Logger logger = new Logger(Logger.Level.DEBUG, 1024);
+    for (int i = 0; i < 100; i++) {
+      logger.logClientMsg("message " + i);
+    }
+    logger.close();
+    String log = new String(Files.readAllBytes(logger.getFile().toPath()), StandardCharsets.UTF_8);
+    assertTrue(log.contains("Client sends\nmessage 0\n"));
+    assertTrue(log.contains("Client sends\nmessage 99\n"));
+    assertEquals(0, logger.getDroppedCount());
+  }
+
+  @Test
+  public void testDisabledMessagesNotFormatted() throws IOException {
+    Logger logger = new Logger(Logger.Level.INFO, 16);
+    AtomicBoolean formatted = new AtomicBoolean();
+    logger.logServerMsg(
+        () -> {
+          formatted.set(true);
+          return "message";
+        });
+    logger.log(Logger.Level.INFO, () -> "info");
+    logger.close();
+    assertFalse(formatted.get());
+    String log = new String(Files.readAllBytes(logger.getFile().toPath()), StandardCharsets.UTF_8);
+    assertTrue(log.contains("INFO: info"));
+  }
+
+  @Test
+  public void testMessagesDroppedAfterClose() {
+    Logger logger = new Logger(Logger.Level.DEBUG, 4);
+    logger.close();
+    logger.logServerMsg("after close");
+    assertEquals(1, logger.getDroppedCount());
+  }
+}
@@ -1,18 +1,54 @@
 package magpiebridge.project.java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.ibm.wala.classLoader.Module;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import magpiebridge.core.AnalysisResult;
+import magpiebridge.core.CancellationToken;
+import magpiebridge.core.InMemorySourceModule;
+import magpiebridge.core.IncrementalServerAnalysis;
 import magpiebridge.core.JavaProjectService;
+import magpiebridge.core.Kind;
 import magpiebridge.core.MagpieServer;
+import magpiebridge.core.ServerAnalysis;
+import magpiebridge.core.ServerConfiguration;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.lsp4j.CodeLens;
+import org.eclipse.lsp4j.Diagnostic;
 import org.eclipse.lsp4j.DidOpenTextDocumentParams;
 import org.eclipse.lsp4j.InitializeParams;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 import org.eclipse.lsp4j.TextDocumentItem;
+import org.junit.Rule;
 import org.junit.Test;
 
 public class MagpieServerTest {
+  @Rule public TemporaryCacheDirectory tmp = new TemporaryCacheDirectory();
+
   @Test
   public void testProjectService() {
     MagpieServer server = new MagpieServer();
@@ -37,4 +73,415 @@ public class MagpieServerTest {
         Paths.get("src/test/resources/CogniCryptDemoExample/src/main/java").toAbsolutePath();
     assertEquals(expected, service.getSourcePath().iterator().next());
   }
+
+  @Test
+  public void testIncrementalAnalysis() {
+    MagpieServer server = new MagpieServer();
+    String lang = "java";
+    List<Collection<Module>> runs = new ArrayList<>();
+    server.addAnalysis(
+        lang,
+        new IncrementalServerAnalysis() {
+          @Override
+          public String source() {
+            return "test";
+          }
+
+          @Override
+          public void analyze(
+              Collection<Module> changed, Collection<Module> files, MagpieServer server) {
+            runs.add(changed);
+          }
+        });
+    server.addSource(lang, "class A {}", "file:///A.java");
+    server.addSource(lang, "class B {}", "file:///B.java");
+    server.doAnalysis(lang);
+    assertEquals(1, runs.size());
+    assertEquals(2, runs.get(0).size());
+    // unchanged content is not analyzed again
+    server.addSource(lang, "class A {}", "file:///A.java");
+    server.doAnalysis(lang);
+    assertEquals(1, runs.size());
+    server.updateSource("class A { int x; }", "file:///A.java", 2);
+    server.doAnalysis(lang);
+    assertEquals(2, runs.size());
+    assertEquals(1, runs.get(1).size());
+  }
+
+  @Test
+  public void testScheduledAnalysisCoalescesTriggers() throws InterruptedException {
+    ServerConfiguration config = new ServerConfiguration();
+    config.setAnalysisQuietPeriod(100);
+    MagpieServer server = new MagpieServer(config);
+    String lang = "java";
+    CountDownLatch done = new CountDownLatch(1);
+    RecordingAnalysis analysis = new RecordingAnalysis((files, token) -> done.countDown());
+    server.addAnalysis(lang, analysis);
+    for (int i = 0; i < 10; i++) {
+      server.addSource(lang, "class A { int x" + i + "; }", "file:///A.java", i);
+      server.scheduleAnalysis(lang);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    // all triggers came before the run started, no other run is left
+    assertFalse(server.getAnalysisScheduler().isPending(lang));
+    assertEquals(1, analysis.runs.size());
+  }
+
+  @Test
+  public void testScheduledRunCancelledByNewTrigger() throws InterruptedException {
+    ServerConfiguration config = new ServerConfiguration();
+    config.setAnalysisQuietPeriod(10);
+    MagpieServer server = new MagpieServer(config);
+    String lang = "java";
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicInteger cancelled = new AtomicInteger();
+    List<Integer> versions = Collections.synchronizedList(new ArrayList<>());
+    server.addAnalysis(
+        lang,
+        new RecordingAnalysis(
+            (files, token) -> {
+              if (started.getCount() > 0) {
+                started.countDown();
+                long deadline = System.currentTimeMillis() + 5000;
+                while (!token.isCancelled() && System.currentTimeMillis() < deadline) {
+                  Thread.yield();
+                }
+                if (token.isCancelled()) {
+                  cancelled.incrementAndGet();
+                }
+                return;
+              }
+              versions.add(((InMemorySourceModule) files.iterator().next()).getVersion());
+              done.countDown();
+            }));
+    server.addSource(lang, "class A {}", "file:///A.java", 1);
+    server.scheduleAnalysis(lang);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    server.addSource(lang, "class A { int x; }", "file:///A.java", 2);
+    server.scheduleAnalysis(lang);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(1, cancelled.get());
+    assertEquals(Collections.singletonList(2), versions);
+  }
+
+  @Test
+  public void testMutuallyExclusiveAnalyses() {
+    ServerConfiguration config = new ServerConfiguration();
+    config.setAnalysisThreads(4);
+    MagpieServer server = new MagpieServer(config);
+    String lang = "java";
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<ServerAnalysis> analyses = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      ServerAnalysis analysis =
+          new RecordingAnalysis(
+              "test" + i,
+              (files, token) -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                  Thread.sleep(100);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+              });
+      analyses.add(analysis);
+      server.addAnalysis(lang, analysis);
+    }
+    server.declareMutuallyExclusive(analyses.get(0), analyses.get(1));
+    server.declareMutuallyExclusive(analyses.get(1), analyses.get(2));
+    server.addSource(lang, "class A {}", "file:///A.java");
+    server.doAnalysis(lang);
+    assertEquals(0, running.get());
+    assertEquals(1, maxRunning.get());
+  }
+
+  @Test
+  public void testAnalysisTimeout() throws InterruptedException {
+    ServerConfiguration config = new ServerConfiguration();
+    config.setAnalysisTimeout(100);
+    MagpieServer server = new MagpieServer(config);
+    String lang = "java";
+    CountDownLatch interrupted = new CountDownLatch(1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    RecordingAnalysis analysis =
+        new RecordingAnalysis(
+            (files, token) -> {
+              maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+              if (interrupted.getCount() > 0) {
+                try {
+                  Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                  // the analysis doesn't stop right away
+                  long deadline = System.currentTimeMillis() + 200;
+                  while (System.currentTimeMillis() < deadline) {
+                    Thread.yield();
+                  }
+                  interrupted.countDown();
+                }
+              }
+              running.decrementAndGet();
+            });
+    server.addAnalysis(lang, analysis);
+    server.addSource(lang, "class A {}", "file:///A.java");
+    long start = System.currentTimeMillis();
+    server.doAnalysis(lang);
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    // the next run waits for the interrupted one to stop
+    server.addSource(lang, "class A { int x; }", "file:///A.java");
+    server.doAnalysis(lang);
+    assertTrue(interrupted.await(0, TimeUnit.SECONDS));
+    assertEquals(2, analysis.runs.size());
+    assertEquals(1, maxRunning.get());
+  }
+
+  @Test
+  public void testDiagnosticsPublishedOncePerFile() throws MalformedURLException {
+    MagpieServer server = new MagpieServer();
+    RecordingClient client = new RecordingClient();
+    server.connect(client);
+    String lang = "java";
+    URL url = Paths.get("src/test/resources/DemoProject/src/demo/SecUtils.java").toUri().toURL();
+    server.addAnalysis(lang, new RecordingAnalysis((files, token) -> report(server, url, 200)));
+    server.addSource(lang, "class A {}", "file:///A.java");
+    server.doAnalysis(lang);
+    assertEquals(1, client.published.size());
+    assertEquals(200, client.published.get(0).getDiagnostics().size());
+    // unchanged diagnostics are not published again
+    server.addSource(lang, "class A { int x; }", "file:///A.java");
+    server.doAnalysis(lang);
+    assertEquals(1, client.published.size());
+  }
+
+  @Test
+  public void testStaleDiagnosticsRemovedOnRerun() throws MalformedURLException {
+    MagpieServer server = new MagpieServer();
+    RecordingClient client = new RecordingClient();
+    server.connect(client);
+    String lang = "java";
+    URL url = Paths.get("src/test/resources/DemoProject/src/demo/SecUtils.java").toUri().toURL();
+    AtomicInteger findings = new AtomicInteger(3);
+    server.addAnalysis(
+        lang, new RecordingAnalysis((files, token) -> report(server, url, findings.get())));
+    server.addSource(lang, "class A {}", "file:///A.java");
+    server.doAnalysis(lang);
+    assertEquals(3, client.published.get(client.published.size() - 1).getDiagnostics().size());
+    findings.set(1);
+    server.addSource(lang, "class A { int x; }", "file:///A.java");
+    server.doAnalysis(lang);
+    assertEquals(1, client.published.get(client.published.size() - 1).getDiagnostics().size());
+  }
+
+  @Test
+  public void testCancelledRunDropsResults() throws MalformedURLException {
+    MagpieServer server = new MagpieServer();
+    RecordingClient client = new RecordingClient();
+    server.connect(client);
+    String lang = "java";
+    URL url = Paths.get("src/test/resources/DemoProject/src/demo/SecUtils.java").toUri().toURL();
+    CancellationToken token = new CancellationToken();
+    AtomicInteger runs = new AtomicInteger();
+    server.addAnalysis(
+        lang,
+        new RecordingAnalysis(
+            (files, t) -> {
+              int run = runs.incrementAndGet();
+              List<AnalysisResult> results = new ArrayList<>();
+              for (int i = 1; i <= 2; i++) {
+                results.add(
+                    new SimpleResult(
+                        Kind.Diagnostic, "run " + run + " finding " + i, url, i, 0, i, 10));
+              }
+              server.consume(results, RecordingAnalysis.SOURCE);
+              if (run == 1) {
+                token.cancel();
+              }
+            }));
+    server.addSource(lang, "class A {}", "file:///A.java");
+    try {
+      server.doAnalysis(lang, token);
+      fail("the run was cancelled");
+    } catch (CancellationException e) {
+      // expected
+    }
+    assertEquals(0, client.published.size());
+    // the cancelled files are analyzed again
+    server.doAnalysis(lang);
+    assertEquals(1, client.published.size());
+    List<Diagnostic> published = client.published.get(0).getDiagnostics();
+    assertEquals(2, published.size());
+    assertEquals("run 2 finding 1", published.get(0).getMessage());
+  }
+
+  @Test
+  public void testClearResultsOnClose() {
+    for (boolean clear : new boolean[] {true, false}) {
+      ServerConfiguration config = new ServerConfiguration();
+      config.setClearResultsOnClose(clear);
+      MagpieServer server = new MagpieServer(config);
+      RecordingClient client = new RecordingClient();
+      server.connect(client);
+      server.addAnalysis(
+          "java",
+          new RecordingAnalysis(
+              (files, token) -> report(server, files, Kind.Diagnostic, "finding")));
+      server.openSource("java", "class A {}", "file:///A.java", 1);
+      server.doAnalysis("java");
+      assertEquals(1, client.published.size());
+      assertEquals(1, client.published.get(0).getDiagnostics().size());
+      server.closeSource("file:///A.java");
+      if (clear) {
+        assertEquals(2, client.published.size());
+        assertEquals("file:///A.java", client.published.get(1).getUri());
+        assertEquals(0, client.published.get(1).getDiagnostics().size());
+        // reopening the unchanged document brings its diagnostics back
+        server.openSource("java", "class A {}", "file:///A.java", 1);
+        server.doAnalysis("java");
+        assertEquals(3, client.published.size());
+        assertEquals(1, client.published.get(2).getDiagnostics().size());
+      } else {
+        assertEquals(1, client.published.size());
+      }
+    }
+  }
+
+  @Test
+  public void testMaxRetainedDiagnostics() {
+    ServerConfiguration config = new ServerConfiguration();
+    config.setMaxRetainedDiagnostics(2);
+    RetainingServer server = new RetainingServer(config);
+    RecordingClient client = new RecordingClient();
+    server.connect(client);
+    String lang = "java";
+    List<URL> urls = new ArrayList<>();
+    server.addAnalysis(
+        lang,
+        new IncrementalServerAnalysis() {
+          @Override
+          public String source() {
+            return RecordingAnalysis.SOURCE;
+          }
+
+          @Override
+          public boolean requiresFileSystem() {
+            return false;
+          }
+
+          @Override
+          public void analyze(
+              Collection<Module> changed, Collection<Module> files, MagpieServer server) {
+            urls.add(((InMemorySourceModule) changed.iterator().next()).getURL());
+            report(server, changed, Kind.Diagnostic, "finding");
+          }
+        });
+    for (String file : new String[] {"A", "B", "C"}) {
+      server.addSource(lang, "class " + file + " {}", "file:///" + file + ".java", 1);
+      server.doAnalysis(lang);
+    }
+    // the least recently analyzed file is evicted
+    assertEquals(new HashSet<>(urls.subList(1, 3)), server.getDiagnosedFiles());
+
+    // the evicted file is analyzed again when opened with the same content
+    client.published.clear();
+    server.openSource(lang, "class A {}", "file:///A.java", 1);
+    server.doAnalysis(lang);
+    assertTrue(server.getDiagnosedFiles().contains(urls.get(0)));
+    assertEquals(1, client.published.size());
+    assertEquals("file:///A.java", client.published.get(0).getUri());
+    assertEquals(1, client.published.get(0).getDiagnostics().size());
+  }
+
+  @Test
+  public void testInMemorySourceModules() throws IOException {
+    MagpieServer server = new MagpieServer();
+    String lang = "java";
+    RecordingAnalysis analysis = new RecordingAnalysis();
+    server.addAnalysis(lang, analysis);
+    server.addSource(lang, "class A {}", "file:///A.java", 1);
+    server.doAnalysis(lang);
+    List<Module> analyzed = analysis.runs.get(0);
+    assertEquals(1, analyzed.size());
+    assertTrue(analyzed.get(0) instanceof InMemorySourceModule);
+    InMemorySourceModule module = (InMemorySourceModule) analyzed.get(0);
+    assertEquals(1, module.getVersion());
+    assertEquals("class A {}", IOUtils.toString(module.getInputReader()));
+    assertEquals(null, module.getDocument().getFileUri());
+  }
+
+  @Test
+  public void testIncrementalTextSync() {
+    MagpieServer server = new MagpieServer();
+    server.addSource("java", "class A {\n}\n", "file:///A.java", 1);
+    TextDocumentContentChangeEvent change =
+        new TextDocumentContentChangeEvent(
+            new Range(new Position(0, 9), new Position(0, 9)), 0, "\n  int x;");
+    assertTrue(server.changeSource("file:///A.java", 2, Collections.singletonList(change)));
+    RecordingAnalysis analysis = new RecordingAnalysis();
+    server.addAnalysis("java", analysis);
+    server.doAnalysis("java");
+    assertEquals(
+        "class A {\n  int x;\n}\n", ((InMemorySourceModule) analysis.runs.get(0).get(0)).getText());
+  }
+
+  @Test
+  public void testCodeLensCache() throws URISyntaxException {
+    MagpieServer server = new MagpieServer();
+    server.addAnalysis(
+        "java",
+        new RecordingAnalysis((files, token) -> report(server, files, Kind.CodeLens, "lens")));
+    server.addSource("java", "class A {}", "file:///A.java", 1);
+    server.doAnalysis("java");
+    URI uri = new URI("file:///A.java");
+    List<CodeLens> codeLenses = server.findCodeLenses(uri);
+    assertEquals(1, codeLenses.size());
+    assertSame(codeLenses, server.findCodeLenses(uri));
+    assertEquals(null, codeLenses.get(0).getCommand());
+    CodeLens resolved = server.resolveCodeLens(codeLenses.get(0));
+    assertEquals("lens", resolved.getCommand().getTitle());
+    server.addSource("java", "class A { }", "file:///A.java", 2);
+    assertNotSame(codeLenses, server.findCodeLenses(uri));
+    // code lenses of the outdated version are not resolved anymore
+    assertEquals(null, server.resolveCodeLens(codeLenses.get(0)).getCommand());
+
+    // nor are those of a document reopened with the same version
+    codeLenses = server.findCodeLenses(uri);
+    assertEquals("lens", server.resolveCodeLens(codeLenses.get(0)).getCommand().getTitle());
+    server.closeSource("file:///A.java");
+    server.openSource("java", "class A { int x; }", "file:///A.java", 2);
+    server.doAnalysis("java");
+    assertEquals(1, server.findCodeLenses(uri).size());
+    assertEquals(null, server.resolveCodeLens(codeLenses.get(0)).getCommand());
+  }
+
+  /** Reports the given number of diagnostics in a file. */
+  private static void report(MagpieServer server, URL url, int findings) {
+    List<AnalysisResult> results = new ArrayList<>();
+    for (int i = 1; i <= findings; i++) {
+      results.add(new SimpleResult(Kind.Diagnostic, "finding " + i, url, i, 0, i, 10));
+    }
+    server.consume(results, RecordingAnalysis.SOURCE);
+  }
+
+  /** Reports a single result in the first line of the first analyzed file. */
+  private static void report(
+      MagpieServer server, Collection<Module> files, Kind kind, String message) {
+    URL url = ((InMemorySourceModule) files.iterator().next()).getURL();
+    server.consume(
+        Collections.singletonList(new SimpleResult(kind, message, url, 1, 0, 1, 5)),
+        RecordingAnalysis.SOURCE);
+  }
+
+  /** A server exposing the files it retains diagnostics for. */
+  private static class RetainingServer extends MagpieServer {
+    RetainingServer(ServerConfiguration config) {
+      super(config);
+    }
+
+    Set<URL> getDiagnosedFiles() {
+      return diagnostics.getFiles();
+    }
+  }
 }
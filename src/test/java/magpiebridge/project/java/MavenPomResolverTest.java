@@ -0,0 +1,258 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import magpiebridge.projectservice.java.Artifact;
+import magpiebridge.projectservice.java.MavenPomResolver;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MavenPomResolverTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static void pom(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, ("<project>" + content + "</project>").getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void install(Path repository, String gav, String content) throws IOException {
+    String[] parts = gav.split(":");
+    Path dir = repository.resolve(parts[0]).resolve(parts[1]).resolve(parts[2]);
+    pom(
+        dir.resolve(parts[1] + "-" + parts[2] + ".pom"),
+        "<groupId>"
+            + parts[0]
+            + "</groupId><artifactId>"
+            + parts[1]
+            + "</artifactId>"
+            + "<version>"
+            + parts[2]
+            + "</version>"
+            + content);
+  }
+
+  private static String dependency(String gav, String extra) {
+    String[] parts = gav.split(":");
+    return "<dependency><groupId>"
+        + parts[0]
+        + "</groupId><artifactId>"
+        + parts[1]
+        + "</artifactId>"
+        + (parts.length > 2 ? "<version>" + parts[2] + "</version>" : "")
+        + extra
+        + "</dependency>";
+  }
+
+  @Test
+  public void testTransitiveDependencies() throws IOException {
+    Path repository = tmp.newFolder("repository").toPath();
+    install(
+        repository,
+        "g:parent:1",
+        "<properties><b.version>2</b.version></properties>"
+            + "<dependencyManagement><dependencies>"
+            + dependency("g:b:${b.version}", "")
+            + "</dependencies></dependencyManagement>");
+    install(
+        repository,
+        "g:bom:1",
+        "<dependencyManagement><dependencies>"
+            + dependency("g:a:1", "")
+            + dependency("g:c:3", "")
+            + "</dependencies></dependencyManagement>");
+    install(
+        repository,
+        "g:a:1",
+        "<dependencies>"
+            + dependency("g:c:1", "")
+            + dependency("g:d:1", "<optional>true</optional>")
+            + dependency("g:e:1", "<scope>test</scope>")
+            + dependency("g:f:1", "")
+            + "</dependencies>");
+    install(repository, "g:b:2", "");
+    install(repository, "g:c:3", "");
+    install(repository, "g:f:1", "");
+    Path project = tmp.newFolder("project").toPath();
+    pom(
+        project.resolve("pom.xml"),
+        "<parent><groupId>g</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+            + "<artifactId>project</artifactId>"
+            + "<modules><module>module</module></modules>"
+            + "<dependencyManagement><dependencies>"
+            + dependency("g:bom:1", "<type>pom</type><scope>import</scope>")
+            + "</dependencies></dependencyManagement>"
+            + "<dependencies>"
+            + dependency(
+                "g:a",
+                "<exclusions><exclusion><groupId>g</groupId><artifactId>f</artifactId>"
+                    + "</exclusion></exclusions>")
+            + "</dependencies>");
+    pom(
+        project.resolve("module/pom.xml"),
+        "<parent><groupId>g</groupId><artifactId>project</artifactId>"
+            + "<version>1</version></parent>"
+            + "<artifactId>module</artifactId>"
+            + "<dependencies>"
+            + dependency("g:project:${project.version}", "")
+            + dependency("g:b", "<scope>test</scope>")
+            + "</dependencies>");
+
+    List<Artifact> dependencies =
+        new MavenPomResolver(repository).dependencies(project.resolve("pom.xml")).get();
+    Set<String> found = new HashSet<>();
+    for (Artifact artifact : dependencies) {
+      found.add(artifact.toString());
+    }
+    Set<String> expected = new HashSet<>();
+    expected.add("g:a:1");
+    expected.add("g:b:2");
+    // managed by the imported BOM
+    expected.add("g:c:3");
+    assertEquals(expected, found);
+  }
+
+  @Test
+  public void testMissingPomNotResolved() throws IOException {
+    Path repository = tmp.newFolder("repository").toPath();
+    Path project = tmp.newFolder("project").toPath();
+    pom(
+        project.resolve("pom.xml"),
+        "<groupId>g</groupId><artifactId>project</artifactId><version>1</version>"
+            + "<dependencies>"
+            + dependency("g:a:1", "")
+            + "</dependencies>");
+    assertFalse(
+        new MavenPomResolver(repository).dependencies(project.resolve("pom.xml")).isPresent());
+  }
+
+  @Test
+  public void testManagedScopeAndExclusionsAppliedTransitively() throws IOException {
+    Path repository = tmp.newFolder("repository").toPath();
+    install(
+        repository,
+        "g:a:1",
+        "<dependencies>" + dependency("g:b:1", "") + dependency("g:c:1", "") + "</dependencies>");
+    install(repository, "g:b:1", "<dependencies>" + dependency("g:d:1", "") + "</dependencies>");
+    install(repository, "g:c:1", "<dependencies>" + dependency("g:e:1", "") + "</dependencies>");
+    install(repository, "g:d:1", "");
+    install(repository, "g:e:1", "");
+    Path project = tmp.newFolder("project").toPath();
+    pom(
+        project.resolve("pom.xml"),
+        "<groupId>g</groupId><artifactId>project</artifactId><version>1</version>"
+            + "<dependencyManagement><dependencies>"
+            + dependency(
+                "g:b:1",
+                "<exclusions><exclusion><groupId>g</groupId><artifactId>d</artifactId>"
+                    + "</exclusion></exclusions>")
+            + dependency("g:c:1", "<scope>system</scope>")
+            + "</dependencies></dependencyManagement>"
+            + "<dependencies>"
+            + dependency("g:a:1", "")
+            + "</dependencies>");
+
+    Set<String> found = new HashSet<>();
+    for (Artifact artifact :
+        new MavenPomResolver(repository).dependencies(project.resolve("pom.xml")).get()) {
+      found.add(artifact.toString());
+    }
+    Set<String> expected = new HashSet<>();
+    expected.add("g:a:1");
+    // g:d is excluded by the management of g:b, g:c is managed to the system scope
+    expected.add("g:b:1");
+    assertEquals(expected, found);
+  }
+
+  @Test
+  public void testProfilesNotResolved() throws IOException {
+    Path repository = tmp.newFolder("repository").toPath();
+    install(
+        repository,
+        "g:parent:1",
+        "<profiles><profile><id>p</id>"
+            + "<activation><activeByDefault>true</activeByDefault></activation>"
+            + "<dependencies>"
+            + dependency("g:a:1", "")
+            + "</dependencies></profile></profiles>");
+    install(repository, "g:a:1", "");
+    Path project = tmp.newFolder("project").toPath();
+    pom(
+        project.resolve("pom.xml"),
+        "<parent><groupId>g</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+            + "<artifactId>project</artifactId>");
+    assertFalse(
+        new MavenPomResolver(repository).dependencies(project.resolve("pom.xml")).isPresent());
+  }
+
+  @Test
+  public void testInactiveProfilesIgnored() throws IOException {
+    Path repository = tmp.newFolder("repository").toPath();
+    // like commons-parent: profiles setting properties for some JDKs or activated explicitly
+    install(
+        repository,
+        "g:parent:1",
+        "<profiles>"
+            + "<profile><id>java9</id><activation><jdk>[9,)</jdk></activation>"
+            + "<properties><release>9</release></properties></profile>"
+            + "<profile><id>release</id>"
+            + "<dependencies>"
+            + dependency("g:c:1", "")
+            + "</dependencies></profile>"
+            + "<profile><id>unset</id>"
+            + "<activation><property><name>magpiebridge.test.unset</name></property></activation>"
+            + "<dependencies>"
+            + dependency("g:c:1", "")
+            + "</dependencies></profile>"
+            + "</profiles>");
+    install(
+        repository,
+        "g:a:1",
+        "<parent><groupId>g</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+            + "<dependencies>"
+            + dependency("g:b:1", "")
+            + "</dependencies>");
+    install(repository, "g:b:1", "");
+    Path project = tmp.newFolder("project").toPath();
+    pom(
+        project.resolve("pom.xml"),
+        "<groupId>g</groupId><artifactId>project</artifactId><version>1</version>"
+            + "<dependencies>"
+            + dependency("g:a:1", "")
+            + "</dependencies>");
+
+    Set<String> found = new HashSet<>();
+    for (Artifact artifact :
+        new MavenPomResolver(repository).dependencies(project.resolve("pom.xml")).get()) {
+      found.add(artifact.toString());
+    }
+    assertEquals(new HashSet<>(Arrays.asList("g:a:1", "g:b:1")), found);
+  }
+
+  @Test
+  public void testDoctypeNotResolved() throws IOException {
+    Path repository = tmp.newFolder("repository").toPath();
+    Path secret = tmp.newFile("secret").toPath();
+    Files.write(secret, "g".getBytes(StandardCharsets.UTF_8));
+    Path project = tmp.newFolder("project").toPath();
+    Files.write(
+        project.resolve("pom.xml"),
+        ("<!DOCTYPE project [<!ENTITY secret SYSTEM \""
+                + secret.toUri()
+                + "\">]>"
+                + "<project><groupId>&secret;</groupId><artifactId>project</artifactId>"
+                + "<version>1</version></project>")
+            .getBytes(StandardCharsets.UTF_8));
+    assertFalse(
+        new MavenPomResolver(repository).dependencies(project.resolve("pom.xml")).isPresent());
+  }
+}
@@ -0,0 +1,92 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.ibm.wala.classLoader.Module;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import magpiebridge.core.AnalysisResult;
+import magpiebridge.core.Kind;
+import magpiebridge.core.MagpieServer;
+import magpiebridge.core.MetricsRegistry;
+import magpiebridge.core.ServerAnalysis;
+import magpiebridge.core.ServerConfiguration;
+import org.eclipse.lsp4j.ExecuteCommandParams;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+  @Test
+  public void testTimerPercentiles() {
+    MetricsRegistry metrics = new MetricsRegistry(true);
+    MetricsRegistry.Timer timer = metrics.timer("t");
+    for (long i = 1; i <= 1000; i++) {
+      timer.record(i * 1000);
+    }
+    assertEquals(1000, timer.getCount());
+    long p50 = timer.percentile(0.5);
+    long p99 = timer.percentile(0.99);
+    // percentiles are bucket upper bounds, at most 12.5% above the exact value
+    assertTrue(p50 >= 500_000 && p50 <= 562_500);
+    assertTrue(p99 >= 990_000 && p99 <= 1_000_000);
+    assertEquals(1_000_000, timer.percentile(1));
+  }
+
+  @Test
+  public void testDisabledRegistryRecordsNothing() {
+    MetricsRegistry metrics = new MetricsRegistry(false);
+    metrics.counter("c").inc();
+    metrics.timer("t").record(1000);
+    metrics.gauge("g", () -> 1);
+    assertEquals(0, metrics.counter("c").get());
+    assertEquals(0, metrics.timer("t").getCount());
+    assertTrue(metrics.snapshot().isEmpty());
+  }
+
+  @Test
+  public void testMetricsCommand() throws MalformedURLException {
+    ServerConfiguration config = new ServerConfiguration();
+    config.setMetricsEnabled(true);
+    MagpieServer server = new MagpieServer(config);
+    server.connect(new RecordingClient());
+    String lang = "java";
+    URL url = Paths.get("src/test/resources/DemoProject/src/demo/SecUtils.java").toUri().toURL();
+    server.addAnalysis(
+        lang,
+        new ServerAnalysis() {
+          @Override
+          public String source() {
+            return "test";
+          }
+
+          @Override
+          public void analyze(Collection<Module> files, MagpieServer server) {
+            List<AnalysisResult> results = new ArrayList<>();
+            for (int i = 1; i <= 10; i++) {
+              results.add(new SimpleResult(Kind.Diagnostic, "finding " + i, url, i, 0, i, 10));
+            }
+            server.consume(results, source());
+          }
+        });
+    server.openSource(lang, "class A {}", "file:///A.java", 1);
+    server.doAnalysis(lang);
+    ExecuteCommandParams params =
+        new ExecuteCommandParams(MagpieServer.METRICS_COMMAND, Collections.emptyList());
+    Map<?, ?> snapshot = (Map<?, ?>) server.getWorkspaceService().executeCommand(params).join();
+    assertEquals(10L, snapshot.get("consume.results"));
+    assertEquals(1L, snapshot.get("publish.files"));
+    assertEquals(10L, snapshot.get("publish.diagnostics"));
+    assertEquals(1L, ((Map<?, ?>) snapshot.get("analysis.run")).get("count"));
+    assertEquals(1L, ((Map<?, ?>) snapshot.get("analysis.test")).get("count"));
+    assertEquals(1, snapshot.get("documents.open"));
+    assertFalse(snapshot.containsKey("analysis.test.failures"));
+    server.shutdown();
+  }
+}
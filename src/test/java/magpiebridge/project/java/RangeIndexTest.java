@@ -0,0 +1,63 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import magpiebridge.core.RangeIndex;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.junit.Test;
+
+public class RangeIndexTest {
+  @Test
+  public void testNestedRanges() {
+    List<Range> ranges = new ArrayList<>();
+    ranges.add(new Range(new Position(0, 0), new Position(10, 0)));
+    ranges.add(new Range(new Position(2, 4), new Position(2, 20)));
+    ranges.add(new Range(new Position(2, 8), new Position(2, 12)));
+    ranges.add(new Range(new Position(5, 0), new Position(6, 0)));
+    RangeIndex<Range> index = new RangeIndex<>(ranges, r -> r);
+    List<Range> found = index.find(2, 10);
+    assertEquals(3, found.size());
+    assertEquals(ranges.get(2), found.get(0));
+    assertEquals(ranges.get(1), found.get(1));
+    assertEquals(ranges.get(0), found.get(2));
+    assertEquals(1, index.find(3, 0).size());
+    assertEquals(0, index.find(11, 0).size());
+  }
+
+  @Test
+  public void testRandomRanges() {
+    Random random = new Random(7);
+    List<Range> ranges = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      int line = random.nextInt(500);
+      int character = random.nextInt(80);
+      int endLine = line + random.nextInt(3);
+      int endCharacter = endLine == line ? character + random.nextInt(20) : random.nextInt(80);
+      ranges.add(new Range(new Position(line, character), new Position(endLine, endCharacter)));
+    }
+    RangeIndex<Range> index = new RangeIndex<>(ranges, r -> r);
+    for (int i = 0; i < 500; i++) {
+      int line = random.nextInt(510);
+      int character = random.nextInt(90);
+      List<Range> expected = new ArrayList<>();
+      for (Range r : ranges) {
+        if (compare(r.getStart(), line, character) <= 0
+            && compare(r.getEnd(), line, character) >= 0) {
+          expected.add(r);
+        }
+      }
+      assertEquals(new HashSet<>(expected), new HashSet<>(index.find(line, character)));
+    }
+  }
+
+  private static int compare(Position p, int line, int character) {
+    return p.getLine() != line
+        ? Integer.compare(p.getLine(), line)
+        : Integer.compare(p.getCharacter(), character);
+  }
+}
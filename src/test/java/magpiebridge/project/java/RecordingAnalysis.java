@@ -0,0 +1,65 @@
+package magpiebridge.project.java;
+
+import com.ibm.wala.classLoader.Module;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import magpiebridge.core.CancellationToken;
+import magpiebridge.core.MagpieServer;
+import magpiebridge.core.ServerAnalysis;
+
+/**
+ * A {@link ServerAnalysis} of in-memory source files recording the files of each run and running a
+ * lambda on them, used by the tests.
+ */
+public class RecordingAnalysis implements ServerAnalysis {
+
+  /** The default source of the analysis. */
+  public static final String SOURCE = "test";
+
+  /** The body of a run. */
+  public interface Body {
+    void analyze(Collection<Module> files, CancellationToken token);
+  }
+
+  /** The files of each run. */
+  public final List<List<Module>> runs = Collections.synchronizedList(new ArrayList<>());
+
+  private final String source;
+  private final Body body;
+
+  public RecordingAnalysis() {
+    this((files, token) -> {});
+  }
+
+  public RecordingAnalysis(Body body) {
+    this(SOURCE, body);
+  }
+
+  public RecordingAnalysis(String source, Body body) {
+    this.source = source;
+    this.body = body;
+  }
+
+  @Override
+  public String source() {
+    return source;
+  }
+
+  @Override
+  public boolean requiresFileSystem() {
+    return false;
+  }
+
+  @Override
+  public void analyze(Collection<Module> files, MagpieServer server) {
+    analyze(files, server, CancellationToken.NONE);
+  }
+
+  @Override
+  public void analyze(Collection<Module> files, MagpieServer server, CancellationToken token) {
+    runs.add(new ArrayList<>(files));
+    body.analyze(files, token);
+  }
+}
@@ -0,0 +1,51 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Random;
+import magpiebridge.core.Rope;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class RopeTest {
+  @Test
+  public void testLinePositions() {
+    Rope rope = Rope.of("package a;\n\nclass A {\n}");
+    assertEquals(4, rope.lineCount());
+    assertEquals(0, rope.offsetAt(0, 0));
+    assertEquals(11, rope.offsetAt(1, 0));
+    assertEquals(18, rope.offsetAt(2, 6));
+    // characters beyond the end of a line map to its end
+    assertEquals(10, rope.offsetAt(0, 100));
+    assertEquals(rope.length(), rope.offsetAt(10, 0));
+    assertEquals(2, rope.lineAt(18));
+  }
+
+  @Test
+  public void testRandomEdits() throws IOException {
+    Random random = new Random(42);
+    StringBuilder expected = new StringBuilder();
+    Rope rope = Rope.EMPTY;
+    for (int i = 0; i < 5000; i++) {
+      int start = random.nextInt(expected.length() + 1);
+      int end = start + random.nextInt(Math.min(20, expected.length() - start) + 1);
+      StringBuilder text = new StringBuilder();
+      for (int j = random.nextInt(30); j > 0; j--) {
+        text.append(random.nextInt(8) == 0 ? '\n' : (char) ('a' + random.nextInt(26)));
+      }
+      expected.replace(start, end, text.toString());
+      rope = rope.replace(start, end, text.toString());
+    }
+    assertEquals(expected.toString(), rope.toString());
+    assertEquals(expected.toString(), IOUtils.toString(rope.reader()));
+    String[] lines = expected.toString().split("\n", -1);
+    assertEquals(lines.length, rope.lineCount());
+    int offset = 0;
+    for (int line = 0; line < lines.length; line++) {
+      assertEquals(offset, rope.offsetAt(line, 0));
+      assertEquals(line, rope.lineAt(offset));
+      offset += lines[line].length() + 1;
+    }
+  }
+}
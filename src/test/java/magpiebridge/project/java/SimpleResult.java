@@ -0,0 +1,98 @@
+package magpiebridge.project.java;
+
+import com.ibm.wala.cast.tree.CAstSourcePositionMap.Position;
+import com.ibm.wala.cast.tree.impl.AbstractSourcePosition;
+import com.ibm.wala.util.collections.Pair;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.util.Collections;
+import magpiebridge.core.AnalysisResult;
+import magpiebridge.core.Kind;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+
+/** A fixed {@link AnalysisResult} used by the tests. */
+public class SimpleResult implements AnalysisResult {
+  private final Kind kind;
+  private final String message;
+  private final Position position;
+
+  public SimpleResult(
+      Kind kind, String message, URL url, int firstLine, int firstCol, int lastLine, int lastCol) {
+    this.kind = kind;
+    this.message = message;
+    this.position =
+        new AbstractSourcePosition() {
+          @Override
+          public int getFirstLine() {
+            return firstLine;
+          }
+
+          @Override
+          public int getLastLine() {
+            return lastLine;
+          }
+
+          @Override
+          public int getFirstCol() {
+            return firstCol;
+          }
+
+          @Override
+          public int getLastCol() {
+            return lastCol;
+          }
+
+          @Override
+          public int getFirstOffset() {
+            return -1;
+          }
+
+          @Override
+          public int getLastOffset() {
+            return -1;
+          }
+
+          @Override
+          public URL getURL() {
+            return url;
+          }
+
+          @Override
+          public Reader getReader() throws IOException {
+            return new InputStreamReader(url.openStream());
+          }
+        };
+  }
+
+  @Override
+  public Kind kind() {
+    return kind;
+  }
+
+  @Override
+  public String toString(boolean useMarkdown) {
+    return message;
+  }
+
+  @Override
+  public Position position() {
+    return position;
+  }
+
+  @Override
+  public Iterable<Pair<Position, String>> related() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public DiagnosticSeverity severity() {
+    return DiagnosticSeverity.Warning;
+  }
+
+  @Override
+  public String repair() {
+    return null;
+  }
+}
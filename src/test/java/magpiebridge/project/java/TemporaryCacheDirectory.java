@@ -0,0 +1,35 @@
+package magpiebridge.project.java;
+
+import java.io.File;
+import magpiebridge.projectservice.java.ClassPathCache;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A {@link TemporaryFolder} which is also the directory of the persistent caches while a test runs,
+ * so tests neither write into ~/.magpiebridge nor see what earlier runs stored there.
+ */
+public class TemporaryCacheDirectory extends TemporaryFolder {
+  private String previous;
+
+  /** @return the directory of the persistent caches */
+  public File getCacheDirectory() {
+    return new File(getRoot(), "cache");
+  }
+
+  @Override
+  protected void before() throws Throwable {
+    super.before();
+    previous = System.getProperty(ClassPathCache.CACHE_DIRECTORY_PROPERTY);
+    System.setProperty(ClassPathCache.CACHE_DIRECTORY_PROPERTY, getCacheDirectory().toString());
+  }
+
+  @Override
+  protected void after() {
+    if (previous == null) {
+      System.clearProperty(ClassPathCache.CACHE_DIRECTORY_PROPERTY);
+    } else {
+      System.setProperty(ClassPathCache.CACHE_DIRECTORY_PROPERTY, previous);
+    }
+    super.after();
+  }
+}
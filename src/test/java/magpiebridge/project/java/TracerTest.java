@@ -0,0 +1,159 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.wala.classLoader.Module;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import magpiebridge.core.MagpieServer;
+import magpiebridge.core.ServerAnalysis;
+import magpiebridge.core.ServerConfiguration;
+import magpiebridge.core.Tracer;
+import org.eclipse.lsp4j.ExecuteCommandParams;
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TracerTest {
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testBufferKeepsMostRecentSpans() {
+    Tracer tracer = new Tracer(4);
+    for (int i = 0; i < 10; i++) {
+      try (Tracer.Span span = tracer.span("test", "span " + i).arg("i", i)) {}
+    }
+    JsonArray events = tracer.toChromeTrace().getAsJsonArray("traceEvents");
+    Set<String> names = new HashSet<>();
+    for (JsonElement event : events) {
+      JsonObject e = event.getAsJsonObject();
+      if (e.get("ph").getAsString().equals("X")) {
+        names.add(e.get("name").getAsString());
+        assertTrue(e.get("dur").getAsDouble() >= 0);
+      } else {
+        assertEquals("thread_name", e.get("name").getAsString());
+      }
+    }
+    assertEquals(new HashSet<>(Arrays.asList("span 6", "span 7", "span 8", "span 9")), names);
+  }
+
+  @Test
+  public void testDisabledTracerRecordsNothing() {
+    Tracer tracer = new Tracer(0);
+    assertFalse(tracer.isEnabled());
+    try (Tracer.Span span = tracer.span("test", "span").arg("key", "value")) {}
+    assertEquals(0, tracer.toChromeTrace().getAsJsonArray("traceEvents").size());
+  }
+
+  @Test
+  public void testSpanAroundLambda() {
+    Tracer tracer = new Tracer(4);
+    assertEquals("value", tracer.span("test", "call").call(() -> "value"));
+    try {
+      tracer
+          .span("test", "run")
+          .run(
+              () -> {
+                throw new IOException("failed");
+              });
+      fail();
+    } catch (IOException e) {
+      assertEquals("failed", e.getMessage());
+    }
+    Set<String> names = new HashSet<>();
+    for (JsonElement event : tracer.toChromeTrace().getAsJsonArray("traceEvents")) {
+      names.add(event.getAsJsonObject().get("name").getAsString());
+    }
+    // the span is recorded even if the lambda fails
+    assertTrue(names.containsAll(Arrays.asList("call", "run")));
+  }
+
+  @Test
+  public void testTraceCommand() throws IOException {
+    Path directory = tmp.newFolder("traces").toPath();
+    ServerConfiguration config = new ServerConfiguration();
+    config.setSpanBufferSize(100);
+    config.setTraceExportDirectory(directory);
+    MagpieServer server = new MagpieServer(config);
+    server.connect(new RecordingClient());
+    String lang = "java";
+    server.addAnalysis(
+        lang,
+        new ServerAnalysis() {
+          @Override
+          public String source() {
+            return "test";
+          }
+
+          @Override
+          public void analyze(Collection<Module> files, MagpieServer server) {
+            server
+                .getTracer()
+                .span("test", "build call graph")
+                .run(() -> server.consume(Collections.emptyList(), source()));
+          }
+        });
+    server.addSource(lang, "class A {}", "file:///A.java");
+    server.doAnalysis(lang);
+    Path file = directory.resolve("trace.json");
+    ExecuteCommandParams params =
+        new ExecuteCommandParams(
+            MagpieServer.TRACE_COMMAND, Collections.singletonList("trace.json"));
+    JsonObject trace = (JsonObject) server.getWorkspaceService().executeCommand(params).join();
+    Set<String> names = new HashSet<>();
+    for (JsonElement event : trace.getAsJsonArray("traceEvents")) {
+      names.add(event.getAsJsonObject().get("name").getAsString());
+    }
+    assertTrue(names.contains("doAnalysis"));
+    assertTrue(names.contains("test"));
+    assertTrue(names.contains("build call graph"));
+    assertTrue(names.contains("consume"));
+    String written = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    assertEquals(trace, new JsonParser().parse(written));
+    Files.delete(file);
+    server.shutdown();
+  }
+
+  @Test
+  public void testTraceCommandOutsideExportDirectory() throws IOException {
+    Path directory = tmp.newFolder("traces").toPath();
+    Path outside = tmp.getRoot().toPath().resolve("outside.json");
+    ServerConfiguration config = new ServerConfiguration();
+    config.setSpanBufferSize(100);
+    MagpieServer server = new MagpieServer(config);
+    // no directory configured
+    assertRejected(server, "trace.json");
+    config.setTraceExportDirectory(directory);
+    assertRejected(server, "../outside.json");
+    assertRejected(server, outside.toString());
+    assertFalse(Files.exists(outside));
+    server.shutdown();
+  }
+
+  private static void assertRejected(MagpieServer server, String file) {
+    ExecuteCommandParams params =
+        new ExecuteCommandParams(MagpieServer.TRACE_COMMAND, Collections.singletonList(file));
+    try {
+      server.getWorkspaceService().executeCommand(params).join();
+      fail();
+    } catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof ResponseErrorException);
+    }
+  }
+}
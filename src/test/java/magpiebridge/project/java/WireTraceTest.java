@@ -0,0 +1,59 @@
+package magpiebridge.project.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import magpiebridge.core.ServerConfiguration;
+import magpiebridge.core.WireTrace;
+import org.junit.Test;
+
+public class WireTraceTest {
+  @Test
+  public void testOffByDefault() {
+    assertNull(WireTrace.create(new ServerConfiguration(), "magpie.in"));
+  }
+
+  @Test
+  public void testMemoryTraceKeepsMostRecentBytes() throws IOException {
+    ServerConfiguration config = new ServerConfiguration();
+    config.setTraceMode(WireTrace.Mode.MEMORY);
+    config.setTraceMemorySize(8);
+    WireTrace trace = WireTrace.create(config, "magpie.in");
+    trace.write("abcde".getBytes(StandardCharsets.UTF_8));
+    assertEquals("abcde", new String(trace.dump(), StandardCharsets.UTF_8));
+    trace.write("fghij".getBytes(StandardCharsets.UTF_8));
+    assertEquals("cdefghij", new String(trace.dump(), StandardCharsets.UTF_8));
+    trace.write("0123456789".getBytes(StandardCharsets.UTF_8));
+    assertEquals("23456789", new String(trace.dump(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testFileTraceFlushedWithoutClose() throws Exception {
+    ServerConfiguration config = new ServerConfiguration();
+    config.setTraceMode(WireTrace.Mode.FILE);
+    String name = "magpie.trace" + System.nanoTime();
+    WireTrace trace = WireTrace.create(config, name);
+    File[] files =
+        new File(System.getProperty("java.io.tmpdir"))
+            .listFiles((dir, file) -> file.startsWith(name));
+    assertEquals(1, files.length);
+    try {
+      // the client stream is never flushed, the message is written after a short delay
+      trace.write("Content-Length: 2\r\n\r\n{}".getBytes(StandardCharsets.UTF_8));
+      long deadline = System.currentTimeMillis() + 5000;
+      while (files[0].length() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(
+          "Content-Length: 2\r\n\r\n{}",
+          new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8));
+    } finally {
+      trace.close();
+      files[0].delete();
+    }
+  }
+}